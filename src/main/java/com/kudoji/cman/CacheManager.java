@@ -1,99 +1,144 @@
 package com.kudoji.cman;
 
-import com.kudoji.cman.cache.CacheObject;
-import com.kudoji.cman.cache.FileCache;
-import com.kudoji.cman.cache.MemoryCache;
 import com.kudoji.cman.cache.TwoLevelCache;
+import com.kudoji.cman.load.KeyDistribution;
+import com.kudoji.cman.load.LoadGenerator;
+import com.kudoji.cman.server.CacheServer;
+import com.kudoji.cman.trace.PolicySimulator;
+import com.kudoji.cman.trace.TraceRecorder;
 
-import java.util.List;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CacheManager {
-    private final static int MAX_ELEMENTS = 150;
-
-    private static <K, V> void printCache(TwoLevelCache<K, V> tlc, String title){
-        System.out.println();
-        System.out.println(title);
-
-        List<CacheObject<K, V>> tlcElements = tlc.getAll();
-
-        for (CacheObject<K, V> tlcElement: tlcElements){
-            K key = tlcElement.getKey();
-            V value = tlcElement.getObject();
-            System.out.println("\tobject: '" + value + "'\tlocation: '" + tlc.getLocation(key) +
-                    "'\tage: " + tlc.getAge(key) + "\tfreq: " + tlc.getFrequency(key));
-
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: cman [options]                    runs load against a cache and reports performance",
+            "       cman server [port] [trace file]   runs cache server",
+            "       cman simulate <trace file> [memory sizes] [file sizes]",
+            "options:",
+            "  --cache=memory|file|twolevel|segmented     cache under load, default twolevel",
+            "  --strategy=S                               two-level cache strategy, e.g. adaptive, default frequenttomemory",
+            "  --threads=N                                load threads, default 4",
+            "  --keys=N                                   key space size, default 100000",
+            "  --distribution=zipfian|hotspot|sequential|uniform   key distribution, default zipfian",
+            "  --value-size=N or MIN-MAX                  value size in bytes, default 100",
+            "  --read-ratio=R                             share of reads from 0 to 1, default 0.9",
+            "  --memory-size=N --file-size=N              tier capacities, 0 is unlimited, default 10000 and 0",
+            "  --duration=S                               seconds, default 10",
+            "  --preload                                  put every key before the run",
+            "  --dir=DIR                                  file cache folder, default .cache-load");
+
+    /**
+     * Runs cache server until the process is stopped
+     * @param args server [port] [trace file]
+     */
+    private static void runServer(String[] args) throws IOException, InterruptedException{
+        int port = (args.length > 1) ? Integer.parseInt(args[1]) : CacheServer.DEFAULT_PORT;
+
+        TwoLevelCache<String, byte[]> cache = new TwoLevelCache<>();
+        if (args.length > 2){
+            cache.setTraceRecorder(new TraceRecorder(args[2]));
         }
-    }
-    public static void main(String[] args){
-        FileCache<String, String> fc = new FileCache<>();
 
-        System.out.println(fc.size());
-//        fc.flush();
+        CacheServer server = new CacheServer(cache, port);
+        server.start();
+        System.out.println("cman server is listening on port " + server.getPort());
 
-        fc.put("12", "some new value");
-        fc.put("2", "some new value(2)");
-
-        System.out.println(fc.get("12"));
-        System.out.println(fc.get("2"));
-
-        System.out.println(fc.getAll());
-
-        MemoryCache<String, Integer> mc = new MemoryCache<>();
-        mc.setMaxSize(0);
+        server.join();
+    }
 
-        mc.put("12", new Integer(123));
-        mc.put("12", new Integer(1231));
-        mc.put("1", new Integer(1));
-        mc.put("2", new Integer(2));
-        mc.put("4", 18);
-        System.out.println(mc.get("4"));
-        mc.setMaxSize(2);
+    /**
+     * Replays trace with every strategy and prints hit ratios and estimated latencies
+     * By default memory cache sizes are 1, 5, 10, 25 and 50% of distinct keys and file cache is unlimited
+     * @param args simulate trace file [memory sizes] [file sizes], sizes are comma separated
+     */
+    private static void runSimulation(String[] args) throws IOException{
+        if (args.length < 2){
+            System.out.println("usage: simulate <trace file> [memory sizes] [file sizes]");
+            return;
+        }
 
-        System.out.println(mc.get("12"));
-        System.out.println(mc.get("1"));
-        System.out.println(mc.get("2"));
-        System.out.println(mc.size());
+        PolicySimulator simulator = new PolicySimulator(args[1]);
 
-        System.out.println(mc.getAll());
+        int[] maxSizesMemoryCache;
+        if (args.length > 2){
+            maxSizesMemoryCache = parseSizes(args[2]);
+        }else{
+            int keyCount = simulator.getKeyCount();
+            maxSizesMemoryCache = Arrays.stream(new int[]{1, 5, 10, 25, 50})
+                    .map(percent -> Math.max(1, keyCount * percent / 100)).distinct().toArray();
+        }
+        int[] maxSizesFileCache = (args.length > 3) ? parseSizes(args[3]) : new int[]{0};
 
-        //  working with two level cache
-        TwoLevelCache<String, String> tlc = new TwoLevelCache<>();
+        PolicySimulator.print(simulator.simulate(maxSizesMemoryCache, maxSizesFileCache), System.out);
+    }
 
-        tlc.flush();
-        tlc.setMaxSizeMemoryCache(50);
-        tlc.setMaxSizeFileCache(100);
-        for (int i = 0; i < MAX_ELEMENTS; i++){
-            String object = "string with value " + i;
+    private static int[] parseSizes(String sizes){
+        return Arrays.stream(sizes.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
 
-            tlc.put(String.valueOf(i), object);
+    /**
+     * Runs load generator, see USAGE for options
+     * @param args
+     */
+    private static void runLoad(String[] args) throws InterruptedException{
+        Map<String, String> options = new HashMap<>();
+        for (String arg: args){
+            if (!arg.startsWith("--")){
+                System.out.println(USAGE);
+                return;
+            }
+
+            int separator = arg.indexOf('=');
+            if (separator < 0){
+                options.put(arg.substring(2), "true");
+            }else{
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
         }
 
-        printCache(tlc, "list of objects:");
-
-        //  update frequency randomly
-        for (int i = 0; i < MAX_ELEMENTS; i++){
-            String key = String.valueOf((int)(i * Math.random()));
-            tlc.get(key);
+        if (options.containsKey("help")){
+            System.out.println(USAGE);
+            return;
         }
 
-        printCache(tlc, "list of objects after frequent use:");
-
-        TwoLevelCache.CacheStrategy cacheStrategy = TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY;
-        tlc.setCacheStrategy(cacheStrategy);
-        printCache(tlc, "list of objects after applying cache strategy (" + cacheStrategy + ")");
+        long keyCount = Long.parseLong(options.getOrDefault("keys", "100000"));
+        KeyDistribution keyDistribution = KeyDistribution.of(options.getOrDefault("distribution", "zipfian"), keyCount);
+        LoadGenerator.CacheType cacheType = LoadGenerator.CacheType.valueOf(
+                options.getOrDefault("cache", "twolevel").toUpperCase());
+
+        LoadGenerator generator = new LoadGenerator(cacheType, keyDistribution);
+        generator.setThreads(Integer.parseInt(options.getOrDefault("threads", "4")));
+        generator.setDuration(Long.parseLong(options.getOrDefault("duration", "10")) * 1000);
+        generator.setReadRatio(Double.parseDouble(options.getOrDefault("read-ratio", "0.9")));
+        generator.setMaxSize(Integer.parseInt(options.getOrDefault("memory-size", "10000")),
+                Integer.parseInt(options.getOrDefault("file-size", "0")));
+        generator.setPreloaded(options.containsKey("preload"));
+        generator.setCacheStrategy(TwoLevelCache.CacheStrategy.valueOf(
+                options.getOrDefault("strategy", "frequenttomemory").toUpperCase()));
+        if (options.containsKey("dir")){
+            generator.setCacheDir(options.get("dir"));
+        }
 
-        cacheStrategy = TwoLevelCache.CacheStrategy.FREQUENTTOFILE;
-        tlc.setCacheStrategy(cacheStrategy);
-        printCache(tlc, "list of objects after applying cache strategy (" + cacheStrategy + ")");
+        String[] valueSize = options.getOrDefault("value-size", "100").split("-");
+        int minValueSize = Integer.parseInt(valueSize[0]);
+        generator.setValueSize(minValueSize, (valueSize.length > 1) ? Integer.parseInt(valueSize[1]) : minValueSize);
 
-        cacheStrategy = TwoLevelCache.CacheStrategy.OLDTOFILE;
-        tlc.setCacheStrategy(cacheStrategy);
-        printCache(tlc, "list of objects after applying cache strategy (" + cacheStrategy + ")");
+        System.out.println("running " + options + " against " + cacheType + " cache");
+        generator.run().print(System.out);
+    }
 
-        cacheStrategy = TwoLevelCache.CacheStrategy.OLDTOMEMORY;
-        tlc.setCacheStrategy(cacheStrategy);
-        printCache(tlc, "list of objects after applying cache strategy (" + cacheStrategy + ")");
+    public static void main(String[] args) throws IOException, InterruptedException{
+        if ((args.length > 0) && "server".equals(args[0])){
+            runServer(args);
+            return;
+        }else if ((args.length > 0) && "simulate".equals(args[0])){
+            runSimulation(args);
+            return;
+        }
 
-        tlc.setMaxSizeFileCache(5);
+        runLoad(args);
     }
 }
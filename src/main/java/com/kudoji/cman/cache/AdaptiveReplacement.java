@@ -0,0 +1,198 @@
+package com.kudoji.cman.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive Replacement Cache (ARC) bookkeeping for memory cache of TwoLevelCache, see
+ * "ARC: A Self-Tuning, Low Overhead Replacement Cache" by Megiddo and Modha
+ *
+ * Keys in memory are split into recent ones (seen once) and frequent ones (seen at least twice).
+ * Keys demoted from memory are remembered in ghost lists, a hit in a ghost list shows which of the two
+ * lists is too short, so the target size of the recent list is adjusted and the cache tracks the workload.
+ * Only keys are kept here, objects stay in memory and file caches. Not thread-safe
+ */
+class AdaptiveReplacement<K> {
+    //  least recently used keys come first
+    private final LinkedHashSet<K> recent = new LinkedHashSet<>();
+    private final LinkedHashSet<K> frequent = new LinkedHashSet<>();
+    private final LinkedHashSet<K> recentGhosts = new LinkedHashSet<>();
+    private final LinkedHashSet<K> frequentGhosts = new LinkedHashSet<>();
+
+    //  memory cache capacity, zero means unlimited
+    private int capacity;
+    //  target size of the recent list
+    private int recentTarget;
+    private long ghostHitCount;
+
+    AdaptiveReplacement(int capacity){
+        setCapacity(capacity);
+    }
+
+    int getCapacity(){
+        return this.capacity;
+    }
+
+    void setCapacity(int capacity){
+        this.capacity = capacity;
+        this.recentTarget = Math.min(this.recentTarget, capacity);
+
+        trimGhosts();
+    }
+
+    /**
+     * Target size of the recent list, it grows when recency pays off and shrinks when frequency does
+     * @return
+     */
+    int getRecentTarget(){
+        return this.recentTarget;
+    }
+
+    /**
+     * Amount of keys which came back to memory soon after demotion
+     * @return
+     */
+    long getGhostHitCount(){
+        return this.ghostHitCount;
+    }
+
+    int size(){
+        return this.recent.size() + this.frequent.size();
+    }
+
+    boolean contains(K key){
+        return this.recent.contains(key) || this.frequent.contains(key);
+    }
+
+    /**
+     * Key in memory cache is accessed
+     * @param key
+     */
+    void onHit(K key){
+        if (this.recent.remove(key) || this.frequent.remove(key)){
+            this.frequent.add(key);
+        }
+    }
+
+    /**
+     * Key enters memory cache
+     *
+     * @param key
+     * @param isFull whether memory cache is full, so a key has to leave it
+     * @return key which has to be demoted from memory cache or null
+     */
+    K onInsert(K key, boolean isFull){
+        boolean isGhost = false;
+        boolean isFrequentGhost = false;
+
+        if (this.recentGhosts.contains(key)){
+            //  recent list was too short
+            int delta = Math.max(1, this.frequentGhosts.size() / this.recentGhosts.size());
+            this.recentTarget = Math.min(this.capacity, this.recentTarget + delta);
+            this.recentGhosts.remove(key);
+            isGhost = true;
+        }else if (this.frequentGhosts.contains(key)){
+            //  frequent list was too short
+            int delta = Math.max(1, this.recentGhosts.size() / this.frequentGhosts.size());
+            this.recentTarget = Math.max(0, this.recentTarget - delta);
+            this.frequentGhosts.remove(key);
+            isGhost = true;
+            isFrequentGhost = true;
+        }
+
+        if (isGhost){
+            this.ghostHitCount++;
+        }
+
+        K victim = isFull ? replace(isFrequentGhost) : null;
+
+        if (isGhost){
+            this.frequent.add(key);
+        }else{
+            this.recent.add(key);
+        }
+        trimGhosts();
+
+        return victim;
+    }
+
+    /**
+     * Chooses key to demote from memory cache and remembers it in a ghost list
+     * @return null if there are no keys in memory
+     */
+    K evict(){
+        K victim = replace(false);
+        trimGhosts();
+
+        return victim;
+    }
+
+    /**
+     * Key is deleted from cache
+     * @param key
+     */
+    void remove(K key){
+        if (!this.recent.remove(key) && !this.frequent.remove(key) && !this.recentGhosts.remove(key)){
+            this.frequentGhosts.remove(key);
+        }
+    }
+
+    void clear(){
+        this.recent.clear();
+        this.frequent.clear();
+        this.recentGhosts.clear();
+        this.frequentGhosts.clear();
+        this.recentTarget = 0;
+    }
+
+    private K replace(boolean isFrequentGhost){
+        K victim;
+
+        int recentSize = this.recent.size();
+        if ((recentSize > 0) && ((recentSize > this.recentTarget) || (isFrequentGhost && (recentSize == this.recentTarget))
+                || this.frequent.isEmpty())){
+            victim = removeEldest(this.recent);
+            this.recentGhosts.add(victim);
+        }else if (!this.frequent.isEmpty()){
+            victim = removeEldest(this.frequent);
+            this.frequentGhosts.add(victim);
+        }else{
+            return null;
+        }
+
+        return victim;
+    }
+
+    /**
+     * Ghost lists remember at most capacity keys each side, like in ARC
+     */
+    private void trimGhosts(){
+        if (this.capacity == 0){
+            this.recentGhosts.clear();
+            this.frequentGhosts.clear();
+            return;
+        }
+
+        while (!this.recentGhosts.isEmpty() && (this.recent.size() + this.recentGhosts.size() > this.capacity)){
+            removeEldest(this.recentGhosts);
+        }
+
+        while (size() + this.recentGhosts.size() + this.frequentGhosts.size() > 2 * this.capacity){
+            if (!this.frequentGhosts.isEmpty()){
+                removeEldest(this.frequentGhosts);
+            }else if (!this.recentGhosts.isEmpty()){
+                removeEldest(this.recentGhosts);
+            }else{
+                break;
+            }
+        }
+    }
+
+    private static <K> K removeEldest(LinkedHashSet<K> keys){
+        Iterator<K> iterator = keys.iterator();
+        K key = iterator.next();
+        iterator.remove();
+
+        return key;
+    }
+}
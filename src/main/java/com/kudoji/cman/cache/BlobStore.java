@@ -0,0 +1,166 @@
+package com.kudoji.cman.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed storage of encoded objects for file cache deduplication, see FileCache.setDeduplicated()
+ *
+ * Every blob is stored once in a file named by SHA-256 of its content, cache files keep references to blobs.
+ * Reference counts are kept in memory, cache files are the source of truth and counts are rebuilt
+ * from them when deduplication is turned on. Blob is deleted when its last reference is released,
+ * blobs left without references by a crash are deleted by the next rebuild.
+ */
+class BlobStore {
+    private final File dir;
+    private final Map<String, Integer> references = new HashMap<>();
+    //  puts which found their blob stored already
+    private long hitCount;
+
+    BlobStore(File dir){
+        this.dir = dir;
+    }
+
+    File getDir(){
+        return this.dir;
+    }
+
+    /**
+     * Stores blob unless it is stored already and adds a reference to it
+     *
+     * @param kind tells object encodings apart, it is a part of the hash
+     * @param content
+     * @param isSynced whether new blob file has to be synced to disk before it is referenced
+     * @return blob hash
+     * @throws IOException
+     */
+    synchronized String acquire(byte kind, byte[] content, boolean isSynced) throws IOException{
+        String hash = hashOf(kind, content);
+
+        Integer count = this.references.get(hash);
+        if ((count != null) || getFile(hash).exists()){
+            this.hitCount++;
+        }else{
+            write(hash, content, isSynced);
+        }
+
+        this.references.put(hash, (count == null) ? 1 : count + 1);
+
+        return hash;
+    }
+
+    /**
+     * Counts a reference found in a cache file, see FileCache.rebuildBlobReferences()
+     * @param hash
+     */
+    synchronized void retain(String hash){
+        this.references.merge(hash, 1, Integer::sum);
+    }
+
+    /**
+     * Removes a reference, blob is deleted once it is not referenced
+     * @param hash
+     */
+    synchronized void release(String hash){
+        Integer count = this.references.get(hash);
+
+        if ((count == null) || (count <= 1)){
+            this.references.remove(hash);
+            getFile(hash).delete();
+        }else{
+            this.references.put(hash, count - 1);
+        }
+    }
+
+    /**
+     * Forgets all references, call deleteUnreferenced() to delete blobs afterwards
+     */
+    synchronized void clearReferences(){
+        this.references.clear();
+    }
+
+    /**
+     * Deletes blobs which are not referenced, e.g. left by a crash between blob and cache file writes
+     */
+    synchronized void deleteUnreferenced(){
+        File[] files = this.dir.listFiles();
+        if (files == null){
+            return;
+        }
+
+        for (File file: files){
+            if (!this.references.containsKey(file.getName())){
+                file.delete();
+            }
+        }
+    }
+
+    File getFile(String hash){
+        return new File(this.dir, hash);
+    }
+
+    /**
+     * Amount of stored blobs
+     * @return
+     */
+    synchronized int size(){
+        return this.references.size();
+    }
+
+    synchronized long getHitCount(){
+        return this.hitCount;
+    }
+
+    private void write(String hash, byte[] content, boolean isSynced) throws IOException{
+        if (!this.dir.exists() && !this.dir.mkdir() && !this.dir.exists()){
+            throw new IOException("Cannot create " + this.dir);
+        }
+
+        File tmpFile = Files.createTempFile(this.dir.toPath(), hash, ".tmp").toFile();
+        try{
+            try (FileOutputStream fos = new FileOutputStream(tmpFile)){
+                fos.write(content);
+                if (isSynced){
+                    fos.getFD().sync();
+                }
+            }
+
+            Files.move(tmpFile.toPath(), getFile(hash).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            tmpFile = null;
+
+            if (isSynced){
+                GroupCommitJournal.syncDirectory(this.dir);
+            }
+        }finally{
+            if (tmpFile != null){
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private static String hashOf(byte kind, byte[] content){
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(kind);
+            digest.update(content);
+
+            StringBuilder result = new StringBuilder();
+            for (byte b: digest.digest()){
+                result.append(String.format("%02x", b));
+            }
+
+            return result.toString();
+        }catch (NoSuchAlgorithmException e){
+            //  every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.kudoji.cman.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of strings
+ * Answers "definitely absent" or "might be present", elements cannot be removed, so the filter has to be rebuilt
+ * once many of them are gone. Bits are set atomically, concurrent add() calls are safe.
+ */
+class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    //  amount of elements the filter is sized for
+    private final int capacity;
+
+    /**
+     * @param capacity expected amount of elements
+     * @param falsePositiveRate expected rate of "might be present" answers for absent elements
+     */
+    BloomFilter(int capacity, double falsePositiveRate){
+        if ((falsePositiveRate <= 0) || (falsePositiveRate >= 1)){
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+
+        this.capacity = Math.max(capacity, 1);
+
+        //  optimal sizes, see https://en.wikipedia.org/wiki/Bloom_filter#Optimal_number_of_hash_functions
+        long optimalBits = (long)Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int)Math.min(Math.max((optimalBits + 63) / 64, 1), Integer.MAX_VALUE - 8);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = words * 64L;
+        this.hashCount = Math.max(1, (int)Math.round((double)this.bitCount / this.capacity * Math.log(2)));
+    }
+
+    int getCapacity(){
+        return this.capacity;
+    }
+
+    void add(String element){
+        long hash = hash(element);
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+
+        for (int i = 0; i < this.hashCount; i++){
+            long bit = bitIndex(hash1 + i * hash2);
+            int word = (int)(bit >>> 6);
+            long mask = 1L << bit;
+
+            long value = this.bits.get(word);
+            while (((value & mask) == 0) && !this.bits.compareAndSet(word, value, value | mask)){
+                value = this.bits.get(word);
+            }
+        }
+    }
+
+    boolean mightContain(String element){
+        long hash = hash(element);
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+
+        for (int i = 0; i < this.hashCount; i++){
+            long bit = bitIndex(hash1 + i * hash2);
+            if ((this.bits.get((int)(bit >>> 6)) & (1L << bit)) == 0){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private long bitIndex(int combinedHash){
+        return (combinedHash & 0x7fffffffL) % this.bitCount;
+    }
+
+    /**
+     * 64-bit FNV-1a with a final mix, lower and upper halves are used as two hash functions
+     *
+     * @param element
+     * @return
+     */
+    private static long hash(String element){
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < element.length(); i++){
+            hash ^= element.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+
+        return hash;
+    }
+}
@@ -1,6 +1,9 @@
 package com.kudoji.cman.cache;
 
 import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 interface Cache<K, V> {
     boolean put(K key, V object);
@@ -27,4 +30,137 @@ interface Cache<K, V> {
      * @return
      */
     int getFrequency(K key);
+
+    /**
+     * Returns CacheObject by key or null
+     * Method doesn't increment frequency
+     * @param key
+     * @return
+     */
+    CacheObject<K, V> getCacheObject(K key);
+
+    /**
+     * Checks whether new key can be added to the cache or not
+     * @return
+     */
+    boolean isFull();
+
+    /**
+     * Returns the least popular of up to sampleSize cached keys or null if cache cannot choose one
+     * @param popularity
+     * @param sampleSize
+     * @return
+     */
+    default K getVictim(ToIntFunction<K> popularity, int sampleSize){
+        return null;
+    }
+
+    /**
+     * Puts object if the key is not cached
+     * Methods below work like the ones of java.util.Map, null result of a function deletes the key
+     * Default implementations look the key up once and aren't atomic, TwoLevelCache and SegmentedTwoLevelCache
+     * override them
+     *
+     * @param key
+     * @param object
+     * @return cached object or null if object is put
+     */
+    default V putIfAbsent(K key, V object){
+        V current = get(key);
+        if (current == null){
+            put(key, object);
+        }
+
+        return current;
+    }
+
+    /**
+     * Computes and puts object if the key is not cached
+     * @param key
+     * @param mapping
+     * @return cached or computed object
+     */
+    default V computeIfAbsent(K key, Function<? super K, ? extends V> mapping){
+        V current = get(key);
+        if (current != null){
+            return current;
+        }
+
+        V object = mapping.apply(key);
+        if (object != null){
+            put(key, object);
+        }
+
+        return object;
+    }
+
+    /**
+     * Replaces object by the result of remapping, the cached object or null is passed to it
+     * @param key
+     * @param remapping
+     * @return new object or null if the key is deleted
+     */
+    default V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping){
+        V current = get(key);
+        V object = remapping.apply(key, current);
+
+        if (object != null){
+            put(key, object);
+        }else if (current != null){
+            delete(key);
+        }
+
+        return object;
+    }
+
+    /**
+     * Puts object if the key is not cached, otherwise replaces cached object by remapping of cached and given ones
+     * @param key
+     * @param object
+     * @param remapping
+     * @return new object or null if the key is deleted
+     */
+    default V merge(K key, V object, BiFunction<? super V, ? super V, ? extends V> remapping){
+        V current = get(key);
+        V result = (current == null) ? object : remapping.apply(current, object);
+
+        if (result != null){
+            put(key, result);
+        }else{
+            delete(key);
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces object only if the key is cached
+     * @param key
+     * @param object
+     * @return previous object or null if the key is not cached
+     */
+    default V replace(K key, V object){
+        V current = get(key);
+        if (current != null){
+            put(key, object);
+        }
+
+        return current;
+    }
+
+    /**
+     * Replaces object only if the key is cached with oldObject
+     * @param key
+     * @param oldObject
+     * @param newObject
+     * @return true if object is replaced
+     */
+    default boolean replace(K key, V oldObject, V newObject){
+        V current = get(key);
+        if ((current == null) || !current.equals(oldObject)){
+            return false;
+        }
+
+        return put(key, newObject);
+    }
 }
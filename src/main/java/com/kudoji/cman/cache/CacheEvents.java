@@ -0,0 +1,118 @@
+package com.kudoji.cman.cache;
+
+/**
+ * Java Flight Recorder events of caches, see JfrEvents for the events themselves
+ *
+ * Events are created only while a recording is running, otherwise every method costs a volatile read,
+ * so caches call them unconditionally. Methods which begin an event return it as Object or null,
+ * methods which end an event accept null. jdk.jfr is in JDK 11+ and 8u262+, events are never
+ * created in JVMs without it and JfrEvents is not even loaded there
+ */
+final class CacheEvents {
+    private static final boolean IS_AVAILABLE = isAvailable();
+    private static volatile boolean isRecording;
+
+    static{
+        if (IS_AVAILABLE){
+            JfrEvents.listen(isRecording -> CacheEvents.isRecording = isRecording);
+        }
+    }
+
+    private CacheEvents(){
+    }
+
+    private static boolean isAvailable(){
+        try{
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }catch (ClassNotFoundException | LinkageError e){
+            return false;
+        }
+    }
+
+    static boolean isRecording(){
+        return isRecording;
+    }
+
+    /**
+     * Begins get or put
+     * @return null if nothing is recorded
+     */
+    static Object beginOperation(){
+        return isRecording ? JfrEvents.beginOperation() : null;
+    }
+
+    /**
+     * Ends get or put, it is recorded if it took longer than the event threshold
+     *
+     * @param event
+     * @param cache
+     * @param operation get or put
+     * @param key
+     * @param isHit whether get found the object or put stored it
+     */
+    static void endOperation(Object event, Object cache, String operation, Object key, boolean isHit){
+        if (event != null){
+            JfrEvents.endOperation(event, cache, operation, key, isHit);
+        }
+    }
+
+    /**
+     * Begins file read or write
+     * @return null if nothing is recorded
+     */
+    static Object beginFileIo(){
+        return isRecording ? JfrEvents.beginFileIo() : null;
+    }
+
+    /**
+     * Ends file read or write, size of the file is recorded as amount of bytes
+     *
+     * @param event
+     * @param fileName
+     * @param isWrite
+     * @param isSuccess
+     */
+    static void endFileIo(Object event, String fileName, boolean isWrite, boolean isSuccess){
+        if (event != null){
+            JfrEvents.endFileIo(event, fileName, isWrite, isSuccess);
+        }
+    }
+
+    /**
+     * Begins applyCacheStrategy()
+     * @return null if nothing is recorded
+     */
+    static Object beginStrategy(){
+        return isRecording ? JfrEvents.beginStrategy() : null;
+    }
+
+    /**
+     * Ends applyCacheStrategy()
+     *
+     * @param event
+     * @param strategy
+     * @param entries amount of objects the strategy placed
+     * @param movedToMemory
+     * @param movedToFile
+     * @param dropped
+     */
+    static void endStrategy(Object event, Object strategy, int entries, int movedToMemory, int movedToFile, int dropped){
+        if (event != null){
+            JfrEvents.endStrategy(event, strategy, entries, movedToMemory, movedToFile, dropped);
+        }
+    }
+
+    /**
+     * Object leaves a cache because of lack of space
+     *
+     * @param cache
+     * @param key could be file name for file caches
+     * @param cause
+     */
+    static void eviction(Object cache, Object key, Object cause){
+        if (isRecording){
+            JfrEvents.eviction(cache, key, cause);
+        }
+    }
+}
@@ -35,6 +35,20 @@ public class CacheObject<K, V> implements Serializable {
         this.createTime = System.currentTimeMillis();
     }
 
+    /**
+     * Restores object with known metadata, used by caches which don't keep CacheObject instances
+     * @param key
+     * @param object
+     * @param frequency
+     * @param createTime
+     */
+    CacheObject(K key, V object, int frequency, long createTime){
+        this.key = key;
+        this.object = object;
+        this.frequency = frequency;
+        this.createTime = createTime;
+    }
+
     public K getKey(){
         return this.key;
     }
@@ -46,6 +60,14 @@ public class CacheObject<K, V> implements Serializable {
         return this.object;
     }
 
+    /**
+     * Returns object without incrementing frequency
+     * @return
+     */
+    V peekObject(){
+        return this.object;
+    }
+
     public int getFrequency(){
         return this.frequency;
     }
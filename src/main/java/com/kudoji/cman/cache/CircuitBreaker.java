@@ -0,0 +1,68 @@
+package com.kudoji.cman.cache;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops calls to a failing remote cache for a while
+ *
+ * After failureThreshold consecutive failures the breaker opens and rejects calls for openTime milliseconds.
+ * Then one trial call is allowed (half-open): success closes the breaker, failure opens it again.
+ */
+class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openTime;
+
+    private final AtomicInteger failures = new AtomicInteger();
+    //  when open state ends, zero if breaker is closed
+    private volatile long openUntil;
+    //  whether trial call is running
+    private final AtomicBoolean isTrialRunning = new AtomicBoolean();
+
+    CircuitBreaker(int failureThreshold, long openTime){
+        if (failureThreshold <= 0){
+            throw new IllegalArgumentException("Failure threshold must be positive");
+        }
+
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Checks whether call could be made
+     * Caller must report the result by recordSuccess() or recordFailure() if true is returned
+     *
+     * @return
+     */
+    boolean allowRequest(){
+        long openUntil = this.openUntil;
+        if (openUntil == 0){
+            return true;
+        }
+
+        if (System.currentTimeMillis() < openUntil){
+            return false;
+        }
+
+        //  half-open: let one call through
+        return this.isTrialRunning.compareAndSet(false, true);
+    }
+
+    void recordSuccess(){
+        this.failures.set(0);
+        this.openUntil = 0;
+        this.isTrialRunning.set(false);
+    }
+
+    void recordFailure(){
+        if ((this.failures.incrementAndGet() >= this.failureThreshold) || this.isTrialRunning.get()){
+            this.openUntil = System.currentTimeMillis() + this.openTime;
+        }
+
+        this.isTrialRunning.set(false);
+    }
+
+    boolean isOpen(){
+        return this.openUntil != 0;
+    }
+}
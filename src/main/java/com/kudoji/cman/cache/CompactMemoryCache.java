@@ -0,0 +1,377 @@
+package com.kudoji.cman.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+
+/**
+ * Memory cache with compact entry layout
+ *
+ * MemoryCache pays for a HashMap.Node and a CacheObject per entry. This one keeps keys and objects
+ * in parallel arrays of an open-addressing (linear probing) table, object's frequency and create time
+ * are packed into one long. That is about 20 bytes per entry (with 0.75 load factor) on top of key and object.
+ * CacheObject instances are created only by getAll() and getCacheObject()
+ *
+ * Null keys are not supported.
+ */
+public class CompactMemoryCache<K, V> implements Cache<K, V> {
+    private static final int MIN_CAPACITY = 16;
+    //  create time is kept in lower 40 bits as milliseconds from baseTime, it is about 34 years
+    private static final int TIME_BITS = 40;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    //  frequency is kept in upper 24 bits and saturates
+    private static final long MAX_FREQUENCY = (1L << (Long.SIZE - TIME_BITS)) - 1;
+
+    //  max cache size
+    //  default is zero - unlimited
+    private int maxSize;
+    private int size;
+
+    private Object[] keys;
+    private Object[] objects;
+    private long[] metas;
+    private int mask;
+    //  base for relative create time, half of time range is left for objects created before the cache
+    private final long baseTime;
+
+    public CompactMemoryCache(){
+        this.maxSize = 0;
+        this.baseTime = System.currentTimeMillis() - (1L << (TIME_BITS - 1));
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Adds new element to cache
+     * @param key
+     * @param object
+     * @return false than element has not been added due to cache overflow; true - all is fine
+     */
+    @Override
+    public boolean put(K key, V object){
+        return put(key, object, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * The same as the above but with cacheObject
+     * @param cacheObject
+     * @return
+     */
+    @Override
+    public boolean put(CacheObject<K, V> cacheObject){
+        //  frequency is read first since getObject() increments it
+        int frequency = cacheObject.getFrequency();
+
+        return put(cacheObject.getKey(), cacheObject.getObject(), frequency, cacheObject.getCreateTime());
+    }
+
+    private boolean put(K key, V object, int frequency, long createTime){
+        int index = indexOf(key);
+        if (index < 0){
+            if (isFull()){
+                //  if add new element than exceed maximum limit
+                return false;
+            }
+
+            if ((this.size + 1) * 4 > this.keys.length * 3){
+                allocate(this.keys.length * 2);
+            }
+
+            index = ~indexOf(key);
+            this.keys[index] = key;
+            this.size++;
+        }
+
+        this.objects[index] = object;
+        this.metas[index] = pack(frequency, createTime);
+
+        return true;
+    }
+
+    /**
+     * Returns value from cache based on key
+     * @param key
+     * @return cached object or null
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key){
+        int index = indexOf(key);
+        if (index < 0){
+            return null;
+        }
+
+        if (frequencyOf(this.metas[index]) < MAX_FREQUENCY){
+            this.metas[index] += 1L << TIME_BITS;
+        }
+
+        return (V)this.objects[index];
+    }
+
+    /**
+     * Deletes value from cache
+     * @param key
+     * @return true then value deleted, false otherwise
+     */
+    @Override
+    public boolean delete(K key){
+        int index = indexOf(key);
+        if (index < 0){
+            return false;
+        }
+
+        deleteAt(index);
+
+        return true;
+    }
+
+    @Override
+    public void flush(){
+        allocate(MIN_CAPACITY);
+    }
+
+    @Override
+    public int size(){
+        return this.size;
+    }
+
+    @Override
+    public int getMaxSize(){
+        return this.maxSize;
+    }
+
+    /**
+     * Sets cache maximum size
+     *
+     * @param maxSize
+     */
+    @Override
+    public void setMaxSize(int maxSize){
+        if (maxSize < 0){
+            throw new IllegalArgumentException("Memory cache size must not be negative");
+        }
+
+        this.maxSize = maxSize;
+
+        //  delete all object that are out of bound
+        int index = 0;
+        while ((maxSize > 0) && (this.size > maxSize)){
+            if (this.keys[index] != null){
+                //  another entry could be shifted to this slot, check it again
+                deleteAt(index);
+            }else{
+                index = (index + 1) & this.mask;
+            }
+        }
+    }
+
+    /**
+     * Gets all object that are in memory cache
+     * @return
+     */
+    @Override
+    public List<CacheObject<K, V>> getAll(){
+        List<CacheObject<K, V>> result = new ArrayList<>(this.size);
+
+        for (int i = 0; i < this.keys.length; i++){
+            if (this.keys[i] != null){
+                result.add(toCacheObject(i));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether key present in memory cache or not
+     * Method doesn't increment frequency
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean isKeyPresent(K key){
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public long getAge(K key){
+        int index = indexOf(key);
+        if (index < 0){
+            return -1;
+        }
+
+        return System.currentTimeMillis() - createTimeOf(this.metas[index]);
+    }
+
+    @Override
+    public int getFrequency(K key){
+        int index = indexOf(key);
+        if (index < 0){
+            return -1;
+        }
+
+        return frequencyOf(this.metas[index]);
+    }
+
+    @Override
+    public CacheObject<K, V> getCacheObject(K key){
+        int index = indexOf(key);
+        if (index < 0){
+            return null;
+        }
+
+        return toCacheObject(index);
+    }
+
+    @Override
+    public boolean isFull(){
+        return (this.maxSize > 0) && (this.size >= this.maxSize);
+    }
+
+    /**
+     * Looks through up to sampleSize keys and returns the least popular one
+     *
+     * @param popularity
+     * @param sampleSize
+     * @return null if cache is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public K getVictim(ToIntFunction<K> popularity, int sampleSize){
+        K victim = null;
+        int victimPopularity = Integer.MAX_VALUE;
+        int sampled = 0;
+
+        //  sample starts from a random slot, so the same slots are not always the candidates
+        int start = ThreadLocalRandom.current().nextInt(this.keys.length);
+        for (int j = 0; (j < this.keys.length) && (sampled < sampleSize); j++){
+            int i = (start + j) % this.keys.length;
+            if (this.keys[i] == null){
+                continue;
+            }
+
+            K key = (K)this.keys[i];
+            int keyPopularity = popularity.applyAsInt(key);
+            if (keyPopularity < victimPopularity){
+                victim = key;
+                victimPopularity = keyPopularity;
+            }
+            sampled++;
+        }
+
+        return victim;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheObject<K, V> toCacheObject(int index){
+        long meta = this.metas[index];
+
+        return new CacheObject<>((K)this.keys[index], (V)this.objects[index], frequencyOf(meta), createTimeOf(meta));
+    }
+
+    private long pack(int frequency, long createTime){
+        long time = Math.min(Math.max(createTime - this.baseTime, 0), TIME_MASK);
+
+        return (Math.min(Math.max(frequency, 0), MAX_FREQUENCY) << TIME_BITS) | time;
+    }
+
+    private static int frequencyOf(long meta){
+        return (int)(meta >>> TIME_BITS);
+    }
+
+    private long createTimeOf(long meta){
+        return this.baseTime + (meta & TIME_MASK);
+    }
+
+    /**
+     * Returns slot index of the key or (-(insertion point) - 1) if key is absent
+     *
+     * @param key
+     * @return
+     */
+    private int indexOf(Object key){
+        int index = hash(key) & this.mask;
+
+        while (this.keys[index] != null){
+            if (this.keys[index].equals(key)){
+                return index;
+            }
+
+            index = (index + 1) & this.mask;
+        }
+
+        return ~index;
+    }
+
+    /**
+     * Removes slot and shifts following entries of the same cluster back,
+     * so table needs no tombstones
+     *
+     * @param index
+     */
+    private void deleteAt(int index){
+        int gap = index;
+        int next = (gap + 1) & this.mask;
+
+        while (this.keys[next] != null){
+            int home = hash(this.keys[next]) & this.mask;
+            //  entry can be moved to the gap only if its home slot is not between gap and next
+            if (((next - home) & this.mask) >= ((next - gap) & this.mask)){
+                this.keys[gap] = this.keys[next];
+                this.objects[gap] = this.objects[next];
+                this.metas[gap] = this.metas[next];
+                gap = next;
+            }
+
+            next = (next + 1) & this.mask;
+        }
+
+        this.keys[gap] = null;
+        this.objects[gap] = null;
+        this.size--;
+    }
+
+    /**
+     * Allocates table of the capacity and moves existing entries there
+     *
+     * @param capacity must be power of two
+     */
+    private void allocate(int capacity){
+        Object[] oldKeys = this.keys;
+        Object[] oldObjects = this.objects;
+        long[] oldMetas = this.metas;
+        boolean isRehash = (oldKeys != null) && (capacity > oldKeys.length);
+
+        this.keys = new Object[capacity];
+        this.objects = new Object[capacity];
+        this.metas = new long[capacity];
+        this.mask = capacity - 1;
+
+        if (!isRehash){
+            this.size = 0;
+            return;
+        }
+
+        for (int i = 0; i < oldKeys.length; i++){
+            if (oldKeys[i] != null){
+                int index = ~indexOf(oldKeys[i]);
+                this.keys[index] = oldKeys[i];
+                this.objects[index] = oldObjects[i];
+                this.metas[index] = oldMetas[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads key's hashCode() since table size is power of two
+     *
+     * @param key
+     * @return
+     */
+    private static int hash(Object key){
+        int h = key.hashCode() * 0x9e3779b9;
+
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,166 @@
+package com.kudoji.cman.cache;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * One directory of StripedFileCache, usually on its own device
+ *
+ * Every operation on the directory waits in the device's own I/O queue, at most QUEUE_DEPTH operations run
+ * on a device at once, so a slow device holds back requests to itself only. The device tracks average
+ * latency of its operations and free space, StripedFileCache routes new writes away from devices which are
+ * slow, busy or short of space. Thread-safe, caches of segments share devices
+ */
+class DiskStripe {
+    //  operations running on a device at once
+    static final int QUEUE_DEPTH = 8;
+    //  device is full when less space is left, bytes
+    private static final long MIN_FREE_SPACE = 64L * 1024 * 1024;
+    //  how often free space is checked, milliseconds
+    private static final long SPACE_CHECK_INTERVAL = 1_000;
+    //  device is slow when its latency is SLOW_FACTOR times the latency of the fastest one
+    private static final double SLOW_FACTOR = 4;
+    //  latencies below it are not considered slow whatever the factor is, nanoseconds
+    private static final long SLOW_MIN_LATENCY = 1_000_000;
+    //  weight of the last operation in average latency
+    private static final double LATENCY_ALPHA = 0.05;
+
+    private final File dir;
+    private final double weight;
+    private final Semaphore queue = new Semaphore(QUEUE_DEPTH, true);
+
+    //  nanoseconds
+    private volatile double latency;
+    private volatile boolean isFull;
+    private volatile long nextSpaceCheckTime;
+
+    /**
+     * @param dir
+     * @param weight share of objects the device gets
+     */
+    DiskStripe(File dir, double weight){
+        if (weight <= 0){
+            throw new IllegalArgumentException("Stripe weight must be positive");
+        }
+
+        this.dir = dir;
+        this.weight = weight;
+
+        dir.mkdirs();
+    }
+
+    /**
+     * Creates stripes of directories
+     *
+     * @param dirs
+     * @param weights null means equal weights
+     * @return
+     */
+    static DiskStripe[] of(String[] dirs, double[] weights){
+        if ((dirs == null) || (dirs.length == 0)){
+            throw new IllegalArgumentException("At least one directory must be set");
+        }
+        if ((weights != null) && (weights.length != dirs.length)){
+            throw new IllegalArgumentException("Every directory must have a weight");
+        }
+
+        DiskStripe[] stripes = new DiskStripe[dirs.length];
+        for (int i = 0; i < dirs.length; i++){
+            stripes[i] = new DiskStripe(new File(dirs[i]), (weights == null) ? 1 : weights[i]);
+        }
+
+        return stripes;
+    }
+
+    File getDir(){
+        return this.dir;
+    }
+
+    double getWeight(){
+        return this.weight;
+    }
+
+    /**
+     * Average latency of operations
+     * @return nanoseconds
+     */
+    long getLatency(){
+        return (long)this.latency;
+    }
+
+    /**
+     * Runs operation in the device queue and takes its latency into account
+     *
+     * @param operation
+     * @return operation's result
+     */
+    <T> T run(Supplier<T> operation){
+        this.queue.acquireUninterruptibly();
+        long time = System.nanoTime();
+        try{
+            return operation.get();
+        }finally{
+            time = System.nanoTime() - time;
+            this.queue.release();
+
+            //  concurrent updates could lose a sample, that's fine for an average
+            this.latency += (time - this.latency) * LATENCY_ALPHA;
+        }
+    }
+
+    /**
+     * Whether all queue slots are taken
+     * @return
+     */
+    boolean isBusy(){
+        return this.queue.availablePermits() == 0;
+    }
+
+    /**
+     * Whether free space of the device is below MIN_FREE_SPACE, space is checked at most every SPACE_CHECK_INTERVAL
+     * @return
+     */
+    boolean isFull(){
+        long now = System.currentTimeMillis();
+        if (now >= this.nextSpaceCheckTime){
+            this.nextSpaceCheckTime = now + SPACE_CHECK_INTERVAL;
+            this.isFull = this.dir.getUsableSpace() < MIN_FREE_SPACE;
+        }
+
+        return this.isFull;
+    }
+
+    /**
+     * Whether the device is much slower than the fastest one
+     *
+     * @param stripes all devices of the cache
+     * @return
+     */
+    boolean isSlow(DiskStripe[] stripes){
+        double latency = this.latency;
+        if (latency < SLOW_MIN_LATENCY){
+            return false;
+        }
+
+        double minLatency = latency;
+        for (DiskStripe stripe: stripes){
+            //  unused devices are not known yet
+            if (stripe.latency > 0){
+                minLatency = Math.min(minLatency, stripe.latency);
+            }
+        }
+
+        return latency > minLatency * SLOW_FACTOR;
+    }
+
+    /**
+     * Whether new writes should go to another device
+     *
+     * @param stripes all devices of the cache
+     * @return
+     */
+    boolean isAvoided(DiskStripe[] stripes){
+        return isBusy() || isFull() || isSlow(stripes);
+    }
+}
@@ -1,9 +1,21 @@
 package com.kudoji.cman.cache;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Was thinking how to implement file cache mechanism.
@@ -38,17 +50,93 @@ import java.util.List;
  *
  * Decided to implement 4th method.
  */
-public class FileCache<K, V> implements Cache<K, V>{
+public class FileCache<K, V> implements Cache<K, V>, Closeable {
+    /**
+     * How objects are written to files:
+     * * NONE: file is rewritten in place, crash could leave it torn;
+     * * ATOMIC: object is written to temp file which is synced and renamed then, the directory is synced after
+     *   the rename, so file contains either old or new object even after a crash;
+     * * GROUP_COMMIT: ATOMIC plus put/delete returns once it is synced to the journal, see GroupCommitJournal.
+     *   Every object is written twice, to its file and to the journal, close() checkpoints and removes the journal,
+     *   journal left by a crash is replayed when the cache is created
+     */
+    public enum Durability{
+        NONE,
+        ATOMIC,
+        GROUP_COMMIT
+    }
+
+    //  first int of a file which keeps byte[] object as is, see writeObject()
+    private static final int RAW_BYTES_MAGIC = 0x434d5242;
+    //  magic and metadata length
+    private static final int RAW_BYTES_HEADER_SIZE = 8;
+    //  smaller byte[] objects are read to heap by getBytes(), mapping costs more than copying them
+    private static final int MAP_THRESHOLD = 16 * 1024;
+    //  large values are written by chunks of this size, see setLargeValueThreshold()
+    static final int CHUNK_SIZE = 64 * 1024;
+    //  first int of a file which keeps reference to a blob, see setDeduplicated()
+    private static final int BLOB_REFERENCE_MAGIC = 0x434d4452;
+    //  how blob is encoded
+    private static final byte BLOB_SERIALIZED = 0;
+    private static final byte BLOB_RAW_BYTES = 1;
+
+    //  Bloom filter is never sized for less files than this
+    private static final int MIN_BLOOM_FILTER_CAPACITY = 1024;
+
+    //  default time the journal waits for concurrent writers before fsync, milliseconds
+    private static final long DEFAULT_COMMIT_WINDOW = 2;
+
     //  max cache size
     //  default is zero - unlimited
     private int maxSize;
+    //  default folder to store cache files
+    private static final String DEFAULT_CACHE_DIR = ".cache";
+
     //  folder to store cache files
-    private String cacheDir = ".cache";
+    private final String cacheDir;
     //  keep flag in case of error during cache folder creating
     private boolean isCacheFolderExists;
+    //  whether get() rewrites the file to keep object's frequency
+    //  could be turned off if frequency is tracked outside, see FrequencySketch
+    private boolean isFrequencyPersisted = true;
+    private Durability durability = Durability.NONE;
+    private long commitWindow = DEFAULT_COMMIT_WINDOW;
+    //  not null for GROUP_COMMIT durability only
+    private GroupCommitJournal journal;
+    //  amount of files, the folder is listed once when cache is created, see size()
+    private final AtomicInteger fileCount = new AtomicInteger();
+    //  Bloom filter of file names, null if it is turned off
+    private volatile BloomFilter bloomFilter;
+    //  filter which is being built, not null while rebuildBloomFilter() lists the folder
+    private volatile BloomFilter nextBloomFilter;
+    private double bloomFilterFalsePositiveRate;
+    //  files added to the filter and deleted since it was built, filter is rebuilt once they are too many
+    //  writers of different keys update them concurrently
+    private final AtomicInteger bloomFilterElements = new AtomicInteger();
+    private final AtomicInteger bloomFilterDeletes = new AtomicInteger();
+    private final LongAdder bloomFilterQueryCount = new LongAdder();
+    private final LongAdder bloomFilterNegativeCount = new LongAdder();
+    private final LongAdder bloomFilterFalsePositiveCount = new LongAdder();
+    //  byte[] objects of this size and larger are streamed to the file by chunks, zero - never
+    private int largeValueThreshold;
+    //  blobs of deduplicated objects, null if deduplication is off
+    private BlobStore blobStore;
+    //  gets objects deleted by setMaxSize(), null if nobody listens
+    private Consumer<CacheObject<K, V>> evictionListener;
 
     public FileCache(){
+        this(DEFAULT_CACHE_DIR);
+    }
+
+    /**
+     * Creates file cache in the folder
+     * Folder must not be shared with other caches since all files in it are considered as cached objects
+     *
+     * @param cacheDir
+     */
+    public FileCache(String cacheDir){
         this.maxSize = 0;
+        this.cacheDir = cacheDir;
 
         File fDir = new File(this.cacheDir);
         //  check whether folder exists or not
@@ -57,6 +145,59 @@ public class FileCache<K, V> implements Cache<K, V>{
         }else{
             this.isCacheFolderExists = true;
         }
+
+        recoverJournal();
+        countFiles();
+    }
+
+    /**
+     * Sets amount of files to the amount of files in the folder
+     */
+    private void countFiles(){
+        String[] names = new File(this.cacheDir).list();
+
+        this.fileCount.set((names == null) ? 0 : names.length);
+    }
+
+    /**
+     * Replays journal left by GROUP_COMMIT cache which hasn't been closed, e.g. after a crash
+     * It is done before anything is written to the folder, otherwise old records would overwrite newer files
+     */
+    private void recoverJournal(){
+        File journalFile = getJournalFile();
+        if (!journalFile.exists()){
+            return;
+        }
+
+        try{
+            this.journal = new GroupCommitJournal(journalFile, new File(this.cacheDir), 0);
+            replayJournal();
+            this.journal.close();
+        }catch (IOException e){
+            throw new UncheckedIOException("Cannot replay journal " + journalFile, e);
+        }finally{
+            this.journal = null;
+        }
+    }
+
+    private File getJournalFile(){
+        return new File(this.cacheDir + ".journal");
+    }
+
+    /**
+     * Checkpoints and removes GROUP_COMMIT journal, durability becomes NONE
+     * Cache could be used afterwards
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException{
+        if (this.journal != null){
+            this.journal.close();
+            this.journal = null;
+        }
+
+        this.durability = Durability.NONE;
     }
 
     /**
@@ -67,20 +208,11 @@ public class FileCache<K, V> implements Cache<K, V>{
      */
     @Override
     public boolean put(K key, V object) {
-        String fileName = getFileName(key.toString());
-        File file = new File(fileName);
-        if (!file.exists()){
-            if (this.maxSize > 0 && this.size() == this.maxSize){
-                //  cannot add new value due to cache max size
-                return false;
-            }
-        }else{
-            //  clean place for new value
-            file.delete();
-        }
+        Object event = CacheEvents.beginOperation();
+        boolean result = putToFile(getFileName(key), new CacheObject<>(key, object));
+        CacheEvents.endOperation(event, this, "put", key, result);
 
-        CacheObject<K, V> cacheObject = new CacheObject<>(key, object);
-        return saveObjectToFile(fileName, cacheObject);
+        return result;
     }
 
     /**
@@ -90,21 +222,149 @@ public class FileCache<K, V> implements Cache<K, V>{
      */
     @Override
     public boolean put(CacheObject<K, V> cacheObject) {
-        K key = cacheObject.getKey();
+        Object event = CacheEvents.beginOperation();
+        boolean result = putToFile(getFileName(cacheObject.getKey()), cacheObject);
+        CacheEvents.endOperation(event, this, "put", cacheObject.getKey(), result);
+
+        return result;
+    }
+
+    /**
+     * Saves cacheObject to the file replacing the old one
+     * @param fileName
+     * @param cacheObject
+     * @return false than element has not been added due to cache overflow or io error(s); true - all is fine
+     */
+    boolean putToFile(String fileName, CacheObject<K, V> cacheObject){
+        if (isLargeValue(cacheObject.peekObject())){
+            return putStreamToFile(fileName, cacheObject, new ByteArrayInputStream((byte[])cacheObject.peekObject()));
+        }
 
-        String fileName = getFileName(key.toString());
         File file = new File(fileName);
-        if (!file.exists()){
-            if (this.maxSize > 0 && this.size() == this.maxSize){
+        boolean isNew = !isFileExists(fileName);
+        if (isNew){
+            if (isFull()){
                 //  cannot add new value due to cache max size
                 return false;
             }
-        }else{
+        }else if ((this.durability == Durability.NONE) && (this.blobStore == null)){
             //  clean place for new value
+            //  file with blob reference is rewritten in place, its old reference has to be read
             file.delete();
         }
 
-        return saveObjectToFile(fileName, cacheObject);
+        Object event = CacheEvents.beginFileIo();
+        boolean result = saveObjectToFile(fileName, cacheObject);
+        CacheEvents.endFileIo(event, fileName, true, result);
+        if (result && isNew){
+            onFileAdded();
+        }
+
+        return result;
+    }
+
+    /**
+     * Stores bytes read from the stream as byte[] object, see setLargeValueThreshold()
+     * Bytes are written to the file by chunks, so the object is never held in heap as a whole
+     * Stream is read to the end but not closed
+     *
+     * @param key
+     * @param in
+     * @return false than element has not been added due to cache overflow or io error(s); true - all is fine
+     */
+    public boolean putStream(K key, InputStream in){
+        return putStreamToFile(getFileName(key), new CacheObject<>(key, null), in);
+    }
+
+    /**
+     * Writes metadata and bytes from the stream to a temp file and moves it in place, see putTmpFile()
+     *
+     * @param fileName
+     * @param metadata object itself is ignored
+     * @param in
+     * @return
+     */
+    boolean putStreamToFile(String fileName, CacheObject<K, V> metadata, InputStream in){
+        File tmpFile = null;
+        boolean result = false;
+        Object event = CacheEvents.beginFileIo();
+
+        try{
+            tmpFile = writeTmpFile(new File(fileName), metadata, in);
+            result = putTmpFile(fileName, tmpFile);
+            if (result){
+                tmpFile = null;
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            if (tmpFile != null){
+                tmpFile.delete();
+            }
+        }
+
+        CacheEvents.endFileIo(event, fileName, true, result);
+
+        return result;
+    }
+
+    /**
+     * Moves completely written temp file in place of the file
+     * Such writes bypass the journal: GROUP_COMMIT syncs the file and the directory and journals that the file
+     * is synced, so journaled older versions of the file are not replayed. ATOMIC syncs them too
+     *
+     * @param fileName
+     * @param tmpFile
+     * @return false if cache is full
+     * @throws IOException
+     */
+    boolean putTmpFile(String fileName, File tmpFile) throws IOException{
+        boolean isNew = !isFileExists(fileName);
+        if (isNew && isFull()){
+            //  cannot add new value due to cache max size
+            return false;
+        }
+
+        BloomFilter filter = this.bloomFilter;
+        if (filter != null){
+            filter.add(fileName);
+        }
+
+        BlobReference oldReference = isNew ? null : readBlobReference(new File(fileName));
+
+        GroupCommitJournal journal = this.journal;
+        boolean isSynced = (journal != null) || (this.durability == Durability.ATOMIC);
+        if (isSynced){
+            GroupCommitJournal.syncFile(tmpFile);
+        }
+
+        File file = new File(fileName);
+        Files.move(tmpFile.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        releaseBlob(oldReference);
+        onFileWritten(fileName);
+
+        if (isSynced){
+            GroupCommitJournal.syncDirectory(file.getParentFile());
+        }
+        if (journal != null){
+            journal.writeSynced(file.getName());
+        }
+
+        if (isNew){
+            onFileAdded();
+        }
+
+        return true;
+    }
+
+    private void onFileAdded(){
+        this.fileCount.incrementAndGet();
+        BloomFilter filter = this.bloomFilter;
+        //  only the writer which crosses the limit rebuilds the filter
+        if ((filter != null) && (this.bloomFilterElements.incrementAndGet() == filter.getCapacity() + 1)){
+            rebuildBloomFilter();
+        }
     }
 
     /**
@@ -114,32 +374,74 @@ public class FileCache<K, V> implements Cache<K, V>{
      */
     @Override
     public V get(K key) {
-        String fileName = getFileName(key.toString());
-        File fObject = new File(fileName);
+        CacheObject<K, V> cacheObject = getAccessed(key);
+
+        return (cacheObject == null) ? null : cacheObject.peekObject();
+    }
+
+    /**
+     * Reads object like get() does, so its access is counted, and returns it with metadata, e.g. create time
+     * @param key
+     * @return null if object is not cached
+     */
+    CacheObject<K, V> getAccessed(K key){
+        Object event = CacheEvents.beginOperation();
+        CacheObject<K, V> result = getAccessedFromFile(getFileName(key));
+        CacheEvents.endOperation(event, this, "get", key, result != null);
+
+        return result;
+    }
+
+    /**
+     * Returns value from the file
+     * @param fileName
+     * @return cached object or null
+     */
+    V getFromFile(String fileName){
+        CacheObject<K, V> cacheObject = getAccessedFromFile(fileName);
+
+        return (cacheObject == null) ? null : cacheObject.peekObject();
+    }
 
-        if (!fObject.exists()){
+    private CacheObject<K, V> getAccessedFromFile(String fileName){
+        if (!isFileExists(fileName)){
             //  object for the key is not cached
             return null;
         }
 
+        Object event = CacheEvents.beginFileIo();
         CacheObject<K, V> cacheObject = readObjectFromFile(fileName);
+        CacheEvents.endFileIo(event, fileName, false, cacheObject != null);
 
         if (cacheObject != null){
-            V object = cacheObject.getObject();
-            //  need to update cache object in file cache to save frequency
-            saveObjectToFile(fileName, cacheObject);
-
-            return object;
+            //  counts access
+            cacheObject.getObject();
+            if (this.isFrequencyPersisted){
+                //  need to update cache object in file cache to save frequency
+                //  frequency is not worth a journal commit
+                saveObjectToFile(fileName, cacheObject, false);
+            }
         }
 
-        return null;
+        return cacheObject;
     }
 
     @Override
     public boolean delete(K key) {
-        File fObject = new File(getFileName(key.toString()));
+        return deleteFromFile(getFileName(key));
+    }
+
+    /**
+     * Deletes object's file
+     * @param fileName
+     * @return false if there is no such file
+     */
+    boolean deleteFromFile(String fileName){
+        if (!mightExist(fileName)){
+            return false;
+        }
 
-        return fObject.delete();
+        return deleteFile(new File(fileName));
     }
 
     @Override
@@ -149,11 +451,34 @@ public class FileCache<K, V> implements Cache<K, V>{
         for (File f: fDir.listFiles()){
             f.delete();
         }
+        countFiles();
+
+        if (this.blobStore != null){
+            this.blobStore.clearReferences();
+            this.blobStore.deleteUnreferenced();
+        }
+
+        if (this.bloomFilter != null){
+            rebuildBloomFilter();
+        }
+
+        if (this.journal != null){
+            //  deletes become durable and the journal doesn't bring objects back
+            try{
+                this.journal.checkpoint();
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
     }
 
+    /**
+     * Amount of cached objects, it is counted on put and delete, so the folder is not listed
+     * @return
+     */
     @Override
     public int size() {
-        return new File(this.cacheDir).list().length;
+        return this.fileCount.get();
     }
 
     @Override
@@ -180,12 +505,145 @@ public class FileCache<K, V> implements Cache<K, V>{
             //  delete all object that are out of bound
             File fDir = new File(this.cacheDir);
             File[] files = fDir.listFiles();
-            for (int i = maxSize; i < cacheSize; i++){
-                files[i].delete();
+            long position = -1;
+            for (int i = maxSize; i < files.length; i++){
+                CacheObject<K, V> evicted = readEvicted(files[i]);
+                BlobReference reference = readBlobReference(files[i]);
+                if (files[i].delete()){
+                    position = appendToJournal(files[i].getName(), null);
+                    onFileDeleted();
+                    releaseBlob(reference);
+                    CacheEvents.eviction(this, (evicted == null) ? files[i].getName() : evicted.getKey(),
+                            RemovalNotification.Cause.EVICTED);
+                    notifyEvicted(evicted);
+                }
+            }
+            commitJournal(position);
+        }
+    }
+
+    public Durability getDurability(){
+        return this.durability;
+    }
+
+    /**
+     * Sets how objects are written to files
+     * Switching from GROUP_COMMIT checkpoints and removes the journal, journal left after a crash
+     * has been replayed already when the cache was created
+     *
+     * @param durability
+     */
+    public void setDurability(Durability durability){
+        if (durability == this.durability){
+            return;
+        }
+
+        try{
+            if (this.journal != null){
+                this.journal.close();
+                this.journal = null;
+            }
+
+            if (durability != Durability.NONE){
+                File tmpDir = getTmpDir();
+                if (!tmpDir.exists() && !tmpDir.mkdir()){
+                    throw new IOException("Cannot create " + tmpDir);
+                }
             }
+
+            if (durability == Durability.GROUP_COMMIT){
+                this.journal = new GroupCommitJournal(getJournalFile(), new File(this.cacheDir), this.commitWindow);
+            }
+        }catch (IOException e){
+            throw new UncheckedIOException("Cannot set file cache durability to " + durability, e);
+        }
+
+        this.durability = durability;
+    }
+
+    public double getBloomFilterFalsePositiveRate(){
+        return this.bloomFilterFalsePositiveRate;
+    }
+
+    /**
+     * Turns on Bloom filter of cached files, so lookups of absent keys don't touch the file system.
+     * Filter is built from the folder's content and rebuilt as files are added and deleted.
+     * Folder must not be changed by anyone else, otherwise cached objects could be missed.
+     *
+     * @param falsePositiveRate rate of absent keys which still cost a file check, zero turns filter off
+     */
+    public void setBloomFilterFalsePositiveRate(double falsePositiveRate){
+        if ((falsePositiveRate < 0) || (falsePositiveRate >= 1)){
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+
+        this.bloomFilterFalsePositiveRate = falsePositiveRate;
+        if (falsePositiveRate == 0){
+            this.bloomFilter = null;
+        }else{
+            rebuildBloomFilter();
+        }
+    }
+
+    /**
+     * Amount of lookups checked by Bloom filter
+     * @return
+     */
+    public long getBloomFilterQueryCount(){
+        return this.bloomFilterQueryCount.sum();
+    }
+
+    /**
+     * Amount of lookups answered by Bloom filter without I/O
+     * @return
+     */
+    public long getBloomFilterNegativeCount(){
+        return this.bloomFilterNegativeCount.sum();
+    }
+
+    /**
+     * Amount of lookups Bloom filter passed but file didn't exist
+     * @return
+     */
+    public long getBloomFilterFalsePositiveCount(){
+        return this.bloomFilterFalsePositiveCount.sum();
+    }
+
+    public long getCommitWindow(){
+        return this.commitWindow;
+    }
+
+    /**
+     * Sets how long GROUP_COMMIT waits for other writers to share one fsync with them
+     * Bigger window means less fsyncs but longer put()
+     *
+     * @param commitWindow milliseconds
+     */
+    public void setCommitWindow(long commitWindow){
+        if (commitWindow < 0){
+            throw new IllegalArgumentException("Commit window must not be negative");
+        }
+
+        this.commitWindow = commitWindow;
+        if (this.journal != null){
+            this.journal.setCommitWindow(commitWindow);
         }
     }
 
+    public boolean isFrequencyPersisted(){
+        return this.isFrequencyPersisted;
+    }
+
+    /**
+     * Sets whether get() has to save object's frequency back to the file
+     * Saving costs one file rewrite per get()
+     *
+     * @param isFrequencyPersisted
+     */
+    public void setFrequencyPersisted(boolean isFrequencyPersisted){
+        this.isFrequencyPersisted = isFrequencyPersisted;
+    }
+
     /**
      * Gets all objects that are in file cache
      * @return
@@ -216,10 +674,7 @@ public class FileCache<K, V> implements Cache<K, V>{
      */
     @Override
     public boolean isKeyPresent(K key){
-        String fileName = getFileName(key.toString());
-        File fObject = new File(fileName);
-
-        return fObject.exists();
+        return isFileExists(getFileName(key));
     }
 
     @Override
@@ -252,74 +707,316 @@ public class FileCache<K, V> implements Cache<K, V>{
      * @param key
      * @return
      */
-    private CacheObject<K, V> getCacheObject(K key){
-        String fileName = getFileName(key.toString());
-        File fObject = new File(fileName);
+    @Override
+    public CacheObject<K, V> getCacheObject(K key){
+        return getCacheObjectFromFile(getFileName(key));
+    }
 
-        if (!fObject.exists()){
+    CacheObject<K, V> getCacheObjectFromFile(String fileName){
+        if (!isFileExists(fileName)){
             return null;
         }
 
         return readObjectFromFile(fileName);
     }
 
+    @Override
+    public boolean isFull(){
+        return (this.maxSize > 0) && (this.size() >= this.maxSize);
+    }
+
+    public boolean isDeduplicated(){
+        return this.blobStore != null;
+    }
+
     /**
-     * Gets file name based on cache value or null in case of error
+     * Turns on deduplication: objects are stored once per content as blobs in a folder next to the cache one,
+     * files of keys keep reference to blobs. Put of an object stored already writes the reference only.
+     * Blob is deleted once the last file referencing it is deleted or evicted.
+     * Turning it on counts references in all files and deletes blobs nobody references
+     * Files written before keep their objects and vice versa, large values are not deduplicated
      *
-     * @param key
-     * @return Full file name relatively to cache directory
+     * @param isDeduplicated
      */
-    private String getFileName(String key){
-        String sha1 = null;
+    public void setDeduplicated(boolean isDeduplicated){
+        if (!isDeduplicated){
+            this.blobStore = null;
+            return;
+        }
 
-        try{
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.reset();
-            md.update(key.getBytes("UTF-8"));
-            sha1 = byteToHex(md.digest());
-        }catch (Exception e){
-            e.printStackTrace();
+        if (this.blobStore == null){
+            this.blobStore = new BlobStore(getBlobDir());
+            rebuildBlobReferences();
         }
+    }
 
-        return cacheDir + File.separator + sha1;
+    /**
+     * Amount of stored blobs, see setDeduplicated()
+     * @return
+     */
+    public int getBlobCount(){
+        return (this.blobStore == null) ? 0 : this.blobStore.size();
     }
 
     /**
-     * Taken from here
-     * @url https://stackoverflow.com/questions/4895523/java-string-to-sha1
-     * @param value
+     * Amount of puts which didn't write object since its blob was stored already
      * @return
      */
-    private String byteToHex(final byte[] value){
-        java.util.Formatter formatter = new java.util.Formatter();
+    public long getDeduplicatedCount(){
+        return (this.blobStore == null) ? 0 : this.blobStore.getHitCount();
+    }
 
-        for (byte b : value){
-            formatter.format("%02x", b);
-        }
+    private void rebuildBlobReferences(){
+        this.blobStore.clearReferences();
 
-        String result = formatter.toString();
-        formatter.close();
+        File[] files = new File(this.cacheDir).listFiles();
+        if (files != null){
+            for (File file: files){
+                BlobReference reference = readBlobReference(file);
+                if (reference != null){
+                    this.blobStore.retain(reference.hash);
+                }
+            }
+        }
 
-        return result;
+        this.blobStore.deleteUnreferenced();
     }
 
     /**
-     * Saves object to file
+     * Reads reference of the file which keeps deduplicated object
      *
-     * @param fileName
-     * @param cacheObject
-     * @return false if and only if object is not saved
+     * @param file
+     * @return null if the file doesn't exist or it keeps object itself
      */
-    private boolean saveObjectToFile(String fileName, CacheObject<K, V> cacheObject){
-        boolean isError = false;
+    private BlobReference readBlobReference(File file){
+        if (this.blobStore == null){
+            return null;
+        }
 
-        try{
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            if (dis.readInt() != BLOB_REFERENCE_MAGIC){
+                return null;
+            }
+
+            byte[] metadata = new byte[dis.readInt()];
+            dis.readFully(metadata);
+
+            return new BlobReference(dis.readByte(), dis.readUTF());
+        }catch (FileNotFoundException | EOFException e){
+            //  no file or it is not a reference
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private void releaseBlob(BlobReference reference){
+        if ((reference != null) && (this.blobStore != null)){
+            this.blobStore.release(reference.hash);
+        }
+    }
+
+    private File getBlobDir(){
+        return new File(this.cacheDir + ".blobs");
+    }
+
+    public int getLargeValueThreshold(){
+        return this.largeValueThreshold;
+    }
+
+    /**
+     * Turns on large value mode: byte[] objects of threshold bytes and larger are written to files by chunks
+     * of CHUNK_SIZE instead of being serialized to a buffer first, putStream() writes any object this way.
+     * Such objects could be read without loading them to heap, see getStream(), get(key, offset, length)
+     *
+     * @param threshold bytes, zero turns the mode off
+     */
+    public void setLargeValueThreshold(int threshold){
+        if (threshold < 0){
+            throw new IllegalArgumentException("Large value threshold must not be negative");
+        }
+
+        this.largeValueThreshold = threshold;
+    }
+
+    boolean isLargeValue(Object object){
+        return (this.largeValueThreshold > 0) && (object instanceof byte[])
+                && (((byte[])object).length >= this.largeValueThreshold);
+    }
+
+    /**
+     * Checks whether the key's object is a large one without reading it to heap
+     *
+     * @param key
+     * @return false if object is not cached or it is not large
+     */
+    boolean isLargeValueCached(K key){
+        if (this.largeValueThreshold == 0){
+            return false;
+        }
+
+        FileRegion region = getFileRegion(key);
+        if (region == null){
+            return false;
+        }
+
+        try{
+            return region.getCount() >= this.largeValueThreshold;
+        }finally{
+            try{
+                region.close();
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Sets listener of objects deleted when cache max size is reduced, null removes it
+     * Such files are read before deletion while listener is set
+     *
+     * @param evictionListener
+     */
+    void setEvictionListener(Consumer<CacheObject<K, V>> evictionListener){
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Reads object of the file setMaxSize() is going to delete
+     *
+     * @param file
+     * @return null if nobody listens to evictions
+     */
+    CacheObject<K, V> readEvicted(File file){
+        if (this.evictionListener == null){
+            return null;
+        }
+
+        return readObjectFromFile(file.getPath());
+    }
+
+    void notifyEvicted(CacheObject<K, V> cacheObject){
+        Consumer<CacheObject<K, V>> listener = this.evictionListener;
+        if ((listener != null) && (cacheObject != null)){
+            listener.accept(cacheObject);
+        }
+    }
+
+    String getCacheDir(){
+        return this.cacheDir;
+    }
+
+    /**
+     * Gets file name for the key
+     *
+     * @param key
+     * @return Full file name relatively to cache directory
+     */
+    String getFileName(K key){
+        return getHashFileName(key.toString());
+    }
+
+    /**
+     * Gets file name based on cache value or null in case of error
+     *
+     * @param key
+     * @return Full file name relatively to cache directory
+     */
+    private String getHashFileName(String key){
+        String sha1 = null;
+
+        try{
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.reset();
+            md.update(key.getBytes("UTF-8"));
+            sha1 = byteToHex(md.digest());
+        }catch (Exception e){
+            e.printStackTrace();
+        }
+
+        return cacheDir + File.separator + sha1;
+    }
+
+    /**
+     * Taken from here
+     * @url https://stackoverflow.com/questions/4895523/java-string-to-sha1
+     * @param value
+     * @return
+     */
+    private String byteToHex(final byte[] value){
+        java.util.Formatter formatter = new java.util.Formatter();
+
+        for (byte b : value){
+            formatter.format("%02x", b);
+        }
+
+        String result = formatter.toString();
+        formatter.close();
+
+        return result;
+    }
+
+    /**
+     * Saves object to file according to durability
+     *
+     * @param fileName
+     * @param cacheObject
+     * @return false if and only if object is not saved
+     */
+    private boolean saveObjectToFile(String fileName, CacheObject<K, V> cacheObject){
+        return saveObjectToFile(fileName, cacheObject, true);
+    }
+
+    /**
+     * Saves object to file
+     *
+     * @param fileName
+     * @param cacheObject
+     * @param isCommitted whether GROUP_COMMIT has to wait for the journal
+     * @return false if and only if object is not saved
+     */
+    private boolean saveObjectToFile(String fileName, CacheObject<K, V> cacheObject, boolean isCommitted){
+        //  added before the file appears, so readers never miss it
+        BloomFilter filter = this.bloomFilter;
+        if (filter != null){
+            filter.add(fileName);
+        }
+
+        boolean result = writeObjectToFile(fileName, cacheObject, isCommitted);
+        if (result){
+            onFileWritten(fileName);
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes object to file according to durability
+     *
+     * @param fileName
+     * @param cacheObject
+     * @param isCommitted whether GROUP_COMMIT has to wait for the journal
+     * @return false if and only if object is not saved
+     */
+    private boolean writeObjectToFile(String fileName, CacheObject<K, V> cacheObject, boolean isCommitted){
+        if (this.blobStore != null){
+            return saveObjectToBlob(fileName, cacheObject, isCommitted);
+        }
+
+        if (this.durability != Durability.NONE){
+            return saveObjectToFileAtomically(fileName, cacheObject, isCommitted);
+        }
+
+        boolean isError = false;
+
+        try{
             FileOutputStream fos = new FileOutputStream(fileName);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
+            BufferedOutputStream bos = new BufferedOutputStream(fos);
 
-            oos.writeObject(cacheObject);
+            writeObject(bos, cacheObject);
 
-            oos.close();
+            bos.close();
             fos.close();
         }catch (IOException e){
             e.printStackTrace();
@@ -329,6 +1026,588 @@ public class FileCache<K, V> implements Cache<K, V>{
         return !isError;
     }
 
+    private boolean saveObjectToFileAtomically(String fileName, CacheObject<K, V> cacheObject, boolean isCommitted){
+        try{
+            saveBytesToFile(fileName, serializeObject(cacheObject), isCommitted);
+        }catch (IOException e){
+            e.printStackTrace();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Stores object as a blob and saves reference to it to the file, see setDeduplicated()
+     * Blob which is stored already is not written again, old blob of the file is released
+     *
+     * @param fileName
+     * @param cacheObject
+     * @param isCommitted
+     * @return false if and only if object is not saved
+     */
+    private boolean saveObjectToBlob(String fileName, CacheObject<K, V> cacheObject, boolean isCommitted){
+        BlobReference oldReference = readBlobReference(new File(fileName));
+        String hash = null;
+
+        try{
+            Object object = cacheObject.peekObject();
+            byte kind;
+            byte[] content;
+            if (object instanceof byte[]){
+                kind = BLOB_RAW_BYTES;
+                content = (byte[])object;
+            }else{
+                kind = BLOB_SERIALIZED;
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bos);
+                oos.writeObject(object);
+                oos.close();
+                content = bos.toByteArray();
+            }
+
+            hash = this.blobStore.acquire(kind, content, this.durability == Durability.GROUP_COMMIT);
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.write(serializeMetadata(BLOB_REFERENCE_MAGIC, cacheObject));
+            dos.writeByte(kind);
+            dos.writeUTF(hash);
+            dos.flush();
+
+            saveBytesToFile(fileName, bos.toByteArray(), isCommitted);
+        }catch (IOException e){
+            e.printStackTrace();
+
+            if (hash != null){
+                this.blobStore.release(hash);
+            }
+            return false;
+        }
+
+        releaseBlob(oldReference);
+
+        return true;
+    }
+
+    /**
+     * Writes file content according to durability
+     *
+     * @param fileName
+     * @param bytes
+     * @param isCommitted whether GROUP_COMMIT has to wait for the journal
+     * @throws IOException
+     */
+    private void saveBytesToFile(String fileName, byte[] bytes, boolean isCommitted) throws IOException{
+        File file = new File(fileName);
+
+        if (this.durability == Durability.NONE){
+            try (FileOutputStream fos = new FileOutputStream(file)){
+                fos.write(bytes);
+            }
+
+            return;
+        }
+
+        writeFileAtomically(file, bytes);
+
+        if (isCommitted && (this.journal != null)){
+            this.journal.write(file.getName(), bytes);
+        }
+    }
+
+    /**
+     * Writes bytes to temp file and renames it to file, so readers see either old or new content
+     * ATOMIC durability syncs the temp file before the rename and the directory after it,
+     * GROUP_COMMIT relies on the journal instead
+     *
+     * @param file
+     * @param bytes
+     * @throws IOException
+     */
+    private void writeFileAtomically(File file, byte[] bytes) throws IOException{
+        File tmpFile = writeTmpFile(file, bytes);
+        boolean isSynced = (this.durability == Durability.ATOMIC);
+
+        try{
+            if (isSynced){
+                //  otherwise the rename could reach the disk before the content
+                GroupCommitJournal.syncFile(tmpFile);
+            }
+
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            tmpFile = null;
+        }finally{
+            if (tmpFile != null){
+                tmpFile.delete();
+            }
+        }
+
+        if (isSynced){
+            GroupCommitJournal.syncDirectory(file.getParentFile());
+        }
+    }
+
+    /**
+     * Writes bytes to a new temp file for the file
+     * Temp file name is unique, so neither threads nor processes writing the same file share it
+     *
+     * @param file
+     * @param bytes
+     * @return temp file
+     * @throws IOException
+     */
+    File writeTmpFile(File file, byte[] bytes) throws IOException{
+        File tmpDir = getTmpDir();
+        if (!tmpDir.exists()){
+            tmpDir.mkdir();
+        }
+
+        File tmpFile = Files.createTempFile(tmpDir.toPath(), file.getName(), ".tmp").toFile();
+
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)){
+            fos.write(bytes);
+        }catch (IOException e){
+            tmpFile.delete();
+            throw e;
+        }
+
+        return tmpFile;
+    }
+
+    /**
+     * Writes byte[] object from the stream to a new temp file by chunks, see writeObject() for the layout
+     * Temp file is synced for GROUP_COMMIT durability since it bypasses the journal
+     *
+     * @param file
+     * @param metadata object itself is ignored
+     * @param in
+     * @return temp file
+     * @throws IOException
+     */
+    File writeTmpFile(File file, CacheObject<K, V> metadata, InputStream in) throws IOException{
+        File tmpFile = writeTmpFile(file, serializeMetadata(RAW_BYTES_MAGIC, metadata));
+
+        try (FileOutputStream fos = new FileOutputStream(tmpFile, true)){
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int length;
+            while ((length = in.read(chunk)) >= 0){
+                fos.write(chunk, 0, length);
+            }
+
+            if (this.durability == Durability.GROUP_COMMIT){
+                fos.getFD().sync();
+            }
+        }catch (IOException e){
+            tmpFile.delete();
+            throw e;
+        }
+
+        return tmpFile;
+    }
+
+    byte[] serializeObject(CacheObject<K, V> cacheObject) throws IOException{
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeObject(bos, cacheObject);
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Writes cacheObject to the stream
+     * byte[] objects are written as is after serialized metadata, so they can be sent without deserialization:
+     * magic (int), metadata length (int), metadata (CacheObject without object), bytes
+     *
+     * @param os
+     * @param cacheObject
+     * @throws IOException
+     */
+    private void writeObject(OutputStream os, CacheObject<K, V> cacheObject) throws IOException{
+        Object object = cacheObject.peekObject();
+
+        if (!(object instanceof byte[])){
+            ObjectOutputStream oos = new ObjectOutputStream(os);
+            oos.writeObject(cacheObject);
+            oos.flush();
+
+            return;
+        }
+
+        os.write(serializeMetadata(RAW_BYTES_MAGIC, cacheObject));
+        os.write((byte[])object);
+        os.flush();
+    }
+
+    /**
+     * Serializes head of byte[] object's or blob reference's file: magic, metadata length,
+     * metadata (CacheObject without object)
+     *
+     * @param magic
+     * @param cacheObject
+     * @return
+     * @throws IOException
+     */
+    private byte[] serializeMetadata(int magic, CacheObject<K, V> cacheObject) throws IOException{
+        ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(metadata);
+        oos.writeObject(new CacheObject<K, V>(cacheObject.getKey(), null,
+                cacheObject.getFrequency(), cacheObject.getCreateTime()));
+        oos.close();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(RAW_BYTES_HEADER_SIZE + metadata.size());
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(magic);
+        dos.writeInt(metadata.size());
+        metadata.writeTo(dos);
+        dos.flush();
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Opens part of the file which keeps byte[] object, so it could be sent by FileChannel.transferTo()
+     * Method doesn't increment frequency
+     *
+     * @param key
+     * @return null if object is not cached or it is not byte[]
+     */
+    public FileRegion getFileRegion(K key){
+        return getFileRegionFromFile(getFileName(key));
+    }
+
+    /**
+     * Returns byte[] object as read-only buffer without deserialization
+     * Large objects are mapped to memory, so they are not copied to heap, small ones are read to heap buffer
+     * Method doesn't increment frequency
+     *
+     * @param key
+     * @return null if object is not cached or it is not byte[]
+     */
+    public ByteBuffer getBytes(K key){
+        FileRegion region = getFileRegion(key);
+        if (region == null){
+            return null;
+        }
+
+        try{
+            if (region.getCount() >= MAP_THRESHOLD){
+                return region.map();
+            }
+
+            return ByteBuffer.wrap(region.read(0, (int)region.getCount())).asReadOnlyBuffer();
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            try{
+                region.close();
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Sends byte[] object to target with FileChannel.transferTo(), bytes don't pass through heap
+     * Target must be blocking, use getFileRegion() for non-blocking ones
+     * Method doesn't increment frequency
+     *
+     * @param key
+     * @param target
+     * @return amount of bytes transferred, -1 if object is not cached or it is not byte[]
+     * @throws IOException if target fails
+     */
+    public long transferTo(K key, WritableByteChannel target) throws IOException{
+        FileRegion region = getFileRegion(key);
+        if (region == null){
+            return -1;
+        }
+
+        try{
+            return region.transferFully(target);
+        }finally{
+            region.close();
+        }
+    }
+
+    /**
+     * Opens stream over byte[] object, bytes are read from the file as the stream is read
+     * Method doesn't increment frequency
+     *
+     * @param key
+     * @return stream caller has to close, null if object is not cached or it is not byte[]
+     */
+    public InputStream getStream(K key){
+        FileRegion region = getFileRegion(key);
+        if (region == null){
+            return null;
+        }
+
+        return Channels.newInputStream(region);
+    }
+
+    /**
+     * Reads range of byte[] object, only the range is loaded to heap
+     * Method doesn't increment frequency
+     *
+     * @param key
+     * @param offset
+     * @param length
+     * @return fewer bytes if object ends before the range does, null if object is not cached or it is not byte[]
+     */
+    public byte[] get(K key, long offset, int length){
+        if ((offset < 0) || (length < 0)){
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+
+        FileRegion region = getFileRegion(key);
+        if (region == null){
+            return null;
+        }
+
+        try{
+            return region.read(offset, length);
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            try{
+                region.close();
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
+
+        return null;
+    }
+
+    FileRegion getFileRegionFromFile(String fileName){
+        if (!mightExist(fileName)){
+            return null;
+        }
+
+        FileChannel channel = null;
+
+        try{
+            channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+
+            ByteBuffer header = ByteBuffer.allocate(RAW_BYTES_HEADER_SIZE);
+            while (header.hasRemaining() && (channel.read(header) >= 0)){
+                //  read the whole header
+            }
+            header.flip();
+
+            int magic = (header.remaining() == RAW_BYTES_HEADER_SIZE) ? header.getInt() : 0;
+            if (magic == RAW_BYTES_MAGIC){
+                long position = RAW_BYTES_HEADER_SIZE + header.getInt();
+                FileRegion region = new FileRegion(channel, position, channel.size() - position);
+                channel = null;
+
+                return region;
+            }else if (magic == BLOB_REFERENCE_MAGIC){
+                //  byte[] blob keeps the bytes only
+                BlobReference reference = readBlobReference(new File(fileName));
+                if ((reference != null) && (reference.kind == BLOB_RAW_BYTES)){
+                    FileChannel blobChannel = FileChannel.open(new File(getBlobDir(), reference.hash).toPath(),
+                            StandardOpenOption.READ);
+
+                    return new FileRegion(blobChannel, 0, blobChannel.size());
+                }
+            }
+        }catch (NoSuchFileException e){
+            //  object is not cached
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            if (channel != null){
+                try{
+                    channel.close();
+                }catch (IOException e){
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Deletes file, GROUP_COMMIT waits until delete is journaled
+     *
+     * @param file
+     * @return
+     */
+    private boolean deleteFile(File file){
+        BlobReference reference = readBlobReference(file);
+        if (!file.delete()){
+            return false;
+        }
+        onFileDeleted();
+        releaseBlob(reference);
+
+        commitJournal(appendToJournal(file.getName(), null));
+
+        return true;
+    }
+
+    /**
+     * Appends record to the journal if there is one
+     *
+     * @param name
+     * @param payload
+     * @return journal position or -1
+     */
+    private long appendToJournal(String name, byte[] payload){
+        if (this.journal == null){
+            return -1;
+        }
+
+        try{
+            return this.journal.append(name, payload);
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+
+        return -1;
+    }
+
+    private void commitJournal(long position){
+        if ((this.journal == null) || (position < 0)){
+            return;
+        }
+
+        try{
+            this.journal.commit(position);
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Brings files to the state described by the journal and makes them durable
+     *
+     * @throws IOException
+     */
+    private void replayJournal() throws IOException{
+        Map<String, byte[]> records = this.journal.recover();
+
+        for (Map.Entry<String, byte[]> record: records.entrySet()){
+            File file = new File(this.cacheDir, record.getKey());
+            if (record.getValue() == null){
+                file.delete();
+            }else{
+                writeFileAtomically(file, record.getValue());
+            }
+        }
+
+        this.journal.checkpoint();
+        countFiles();
+
+        if (this.bloomFilter != null){
+            rebuildBloomFilter();
+        }
+
+        if (this.blobStore != null){
+            rebuildBlobReferences();
+        }
+    }
+
+    /**
+     * Checks Bloom filter only
+     *
+     * @param fileName
+     * @return false if file definitely doesn't exist
+     */
+    boolean mightExist(String fileName){
+        BloomFilter filter = this.bloomFilter;
+        if (filter == null){
+            return true;
+        }
+
+        this.bloomFilterQueryCount.increment();
+        if (!filter.mightContain(fileName)){
+            this.bloomFilterNegativeCount.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether file exists, definite misses are answered by Bloom filter without I/O
+     *
+     * @param fileName
+     * @return
+     */
+    boolean isFileExists(String fileName){
+        if (!mightExist(fileName)){
+            return false;
+        }
+
+        boolean isExists = new File(fileName).exists();
+        if (!isExists && (this.bloomFilter != null)){
+            this.bloomFilterFalsePositiveCount.increment();
+        }
+
+        return isExists;
+    }
+
+    private void onFileDeleted(){
+        this.fileCount.decrementAndGet();
+        BloomFilter filter = this.bloomFilter;
+        if ((filter != null) && (this.bloomFilterDeletes.incrementAndGet() == filter.getCapacity() / 2 + 1)){
+            //  deleted files are still in the filter and make it less precise
+            rebuildBloomFilter();
+        }
+    }
+
+    /**
+     * Builds Bloom filter from the folder's content
+     * Filter gets room for twice as many files as there are now, concurrent rebuilds wait for each other
+     */
+    private synchronized void rebuildBloomFilter(){
+        int capacity = Math.max(Math.max(this.fileCount.get() * 2, this.maxSize), MIN_BLOOM_FILTER_CAPACITY);
+
+        BloomFilter filter = new BloomFilter(capacity, this.bloomFilterFalsePositiveRate);
+        //  files which appear after the folder is listed are added by their writers, see onFileWritten()
+        this.nextBloomFilter = filter;
+
+        String[] names = new File(this.cacheDir).list();
+        int count = (names == null) ? 0 : names.length;
+        if (names != null){
+            for (String name: names){
+                filter.add(this.cacheDir + File.separator + name);
+            }
+        }
+
+        this.bloomFilterElements.set(count);
+        this.bloomFilterDeletes.set(0);
+        this.bloomFilter = filter;
+        this.nextBloomFilter = null;
+    }
+
+    /**
+     * Adds name of the written file to the filter being built and to the one built since the name was added
+     * Otherwise a rebuild which listed the folder before the file appeared would miss it
+     *
+     * @param fileName
+     */
+    private void onFileWritten(String fileName){
+        BloomFilter next = this.nextBloomFilter;
+        if (next != null){
+            next.add(fileName);
+        }
+
+        BloomFilter filter = this.bloomFilter;
+        if (filter != null){
+            filter.add(fileName);
+        }
+    }
+
+    private File getTmpDir(){
+        return new File(this.cacheDir + ".tmp");
+    }
+
     /**
      * Reads object from file
      * @param fileName
@@ -340,11 +1619,47 @@ public class FileCache<K, V> implements Cache<K, V>{
 
         try{
             FileInputStream fis = new FileInputStream(fileName);
-            ObjectInputStream ois = new ObjectInputStream(fis);
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(fis));
 
-            cacheObject = (CacheObject<K, V>)ois.readObject();
+            dis.mark(RAW_BYTES_HEADER_SIZE);
+            int magic = dis.readInt();
+            if (magic == RAW_BYTES_MAGIC){
+                //  byte[] object, see writeObject()
+                int metadataLength = dis.readInt();
+                byte[] metadataBytes = new byte[metadataLength];
+                dis.readFully(metadataBytes);
+                CacheObject<K, V> metadata = (CacheObject<K, V>)new ObjectInputStream(
+                        new ByteArrayInputStream(metadataBytes)).readObject();
 
-            ois.close();
+                byte[] bytes = new byte[(int)(new File(fileName).length() - RAW_BYTES_HEADER_SIZE - metadataLength)];
+                dis.readFully(bytes);
+
+                cacheObject = new CacheObject<>(metadata.getKey(), (V)bytes,
+                        metadata.getFrequency(), metadata.getCreateTime());
+            }else if (magic == BLOB_REFERENCE_MAGIC){
+                //  deduplicated object, see saveObjectToBlob()
+                byte[] metadataBytes = new byte[dis.readInt()];
+                dis.readFully(metadataBytes);
+                CacheObject<K, V> metadata = (CacheObject<K, V>)new ObjectInputStream(
+                        new ByteArrayInputStream(metadataBytes)).readObject();
+
+                byte kind = dis.readByte();
+                byte[] content = Files.readAllBytes(new File(getBlobDir(), dis.readUTF()).toPath());
+                Object object = (kind == BLOB_RAW_BYTES) ? content
+                        : new ObjectInputStream(new ByteArrayInputStream(content)).readObject();
+
+                cacheObject = new CacheObject<>(metadata.getKey(), (V)object,
+                        metadata.getFrequency(), metadata.getCreateTime());
+            }else{
+                dis.reset();
+                ObjectInputStream ois = new ObjectInputStream(dis);
+
+                cacheObject = (CacheObject<K, V>)ois.readObject();
+
+                ois.close();
+            }
+
+            dis.close();
             fis.close();
         }catch (ClassNotFoundException | IOException e){
             e.printStackTrace();
@@ -352,4 +1667,17 @@ public class FileCache<K, V> implements Cache<K, V>{
 
         return cacheObject;
     }
+
+    /**
+     * Content of the file which keeps deduplicated object, see saveObjectToBlob()
+     */
+    private static final class BlobReference{
+        private final byte kind;
+        private final String hash;
+
+        private BlobReference(byte kind, String hash){
+            this.kind = kind;
+            this.hash = hash;
+        }
+    }
 }
@@ -0,0 +1,165 @@
+package com.kudoji.cman.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Part of a cache file which keeps byte[] object as is
+ * Lets callers send the bytes with FileChannel.transferTo() or map them instead of reading them to heap,
+ * it could also be read as a channel from the start to the end of the object
+ */
+public class FileRegion implements ReadableByteChannel {
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+    //  bytes transferred or read so far
+    private long transferred;
+
+    FileRegion(FileChannel channel, long position, long count){
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+        this.transferred = 0;
+    }
+
+    public FileChannel getChannel(){
+        return this.channel;
+    }
+
+    public long getPosition(){
+        return this.position;
+    }
+
+    /**
+     * Returns size of the object in bytes
+     * @return
+     */
+    public long getCount(){
+        return this.count;
+    }
+
+    public long getRemaining(){
+        return this.count - this.transferred;
+    }
+
+    /**
+     * Transfers next part of the region to target
+     * Non-blocking target could accept only a part, call the method again once target is ready
+     *
+     * @param target
+     * @return amount of bytes transferred
+     * @throws IOException
+     */
+    public long transferTo(WritableByteChannel target) throws IOException{
+        long bytes = this.channel.transferTo(this.position + this.transferred, getRemaining(), target);
+        this.transferred += bytes;
+
+        return bytes;
+    }
+
+    /**
+     * Transfers the rest of the region to blocking target
+     *
+     * @param target
+     * @return amount of bytes transferred
+     * @throws IOException
+     */
+    public long transferFully(WritableByteChannel target) throws IOException{
+        long total = 0;
+
+        while (getRemaining() > 0){
+            long bytes = transferTo(target);
+            if (bytes == 0){
+                //  file is truncated or target is non-blocking
+                break;
+            }
+            total += bytes;
+        }
+
+        return total;
+    }
+
+    /**
+     * Reads next part of the region to dst
+     *
+     * @param dst
+     * @return amount of bytes read, -1 if the region is over
+     * @throws IOException
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException{
+        long remaining = getRemaining();
+        if (remaining <= 0){
+            return -1;
+        }
+
+        int limit = dst.limit();
+        if (dst.remaining() > remaining){
+            dst.limit(dst.position() + (int)remaining);
+        }
+
+        try{
+            int bytes = this.channel.read(dst, this.position + this.transferred);
+            if (bytes > 0){
+                this.transferred += bytes;
+            }
+
+            return bytes;
+        }finally{
+            dst.limit(limit);
+        }
+    }
+
+    /**
+     * Reads range of the region regardless of transferred bytes
+     *
+     * @param offset from the start of the region
+     * @param length
+     * @return fewer bytes if the region ends before the range does
+     * @throws IOException
+     */
+    public byte[] read(long offset, int length) throws IOException{
+        long available = Math.max(0, this.count - offset);
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(length, available));
+
+        while (buffer.hasRemaining()){
+            if (this.channel.read(buffer, this.position + offset + buffer.position()) < 0){
+                //  file is truncated
+                break;
+            }
+        }
+
+        if (buffer.hasRemaining()){
+            byte[] bytes = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+
+            return bytes;
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Maps the region to memory, bytes are read from page cache on access instead of being copied to heap
+     * Mapping stays valid after the region is closed and after the file is replaced or deleted
+     *
+     * @return read-only buffer
+     * @throws IOException
+     */
+    public ByteBuffer map() throws IOException{
+        return this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, this.count);
+    }
+
+    @Override
+    public boolean isOpen(){
+        return this.channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException{
+        this.channel.close();
+    }
+}
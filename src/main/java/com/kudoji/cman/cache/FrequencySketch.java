@@ -0,0 +1,165 @@
+package com.kudoji.cman.cache;
+
+/**
+ * Count-Min sketch which estimates how often a key has been accessed.
+ *
+ * Each long in the table holds sixteen 4-bit counters, so a counter saturates at 15.
+ * Every key is mapped to four counters (one per hash function) and its frequency is the minimum of them.
+ * After sampleSize increments all counters are halved, so popularity of the old keys decays over time.
+ *
+ * The sketch doesn't keep keys, thus it remembers frequency of the keys evicted from both caches as well.
+ */
+class FrequencySketch<K> {
+    //  the sketch never gets smaller than this
+    private static final int MIN_CAPACITY = 16;
+    //  max value of 4-bit counter
+    private static final int MAX_COUNT = 15;
+    //  keeps lower 3 bits of every counter after it is shifted right by one bit
+    private static final long RESET_MASK = 0x7777777777777777L;
+    //  lowest bit of every counter
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L,
+            0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L
+    };
+
+    private long[] table;
+    private int tableMask;
+    //  amount of increments after which counters are halved
+    private int sampleSize;
+    private int additions;
+
+    public FrequencySketch(){
+        ensureCapacity(MIN_CAPACITY);
+    }
+
+    /**
+     * Resizes the sketch to serve maximumSize keys
+     * Sketch is cleared in case it grows
+     *
+     * @param maximumSize
+     */
+    public void ensureCapacity(int maximumSize){
+        if (maximumSize < 0){
+            throw new IllegalArgumentException("Sketch capacity must not be negative");
+        }
+
+        int capacity = Math.min(Math.max(maximumSize, MIN_CAPACITY), 1 << 30);
+        if ((this.table != null) && (this.table.length >= capacity)){
+            return;
+        }
+
+        this.table = new long[ceilingPowerOfTwo(capacity)];
+        this.tableMask = this.table.length - 1;
+        this.sampleSize = 10 * capacity;
+        this.additions = 0;
+    }
+
+    /**
+     * Returns estimated number of occurrences of the key, from 0 to 15
+     *
+     * @param key
+     * @return
+     */
+    public int frequency(K key){
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+
+        for (int i = 0; i < 4; i++){
+            int index = indexOf(hash, i);
+            int count = (int)((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Increments popularity of the key
+     * Halves all counters once sample size is reached
+     *
+     * @param key
+     */
+    public void increment(K key){
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean isAdded = false;
+
+        for (int i = 0; i < 4; i++){
+            int index = indexOf(hash, i);
+            isAdded |= incrementAt(index, start + i);
+        }
+
+        if (isAdded && (++this.additions == this.sampleSize)){
+            reset();
+        }
+    }
+
+    /**
+     * Increments counter j of table[i] if it isn't saturated
+     *
+     * @param i
+     * @param j
+     * @return true if counter has been incremented
+     */
+    private boolean incrementAt(int i, int j){
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+
+        if ((this.table[i] & mask) != mask){
+            this.table[i] += 1L << offset;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Halves all counters, this is how aging works
+     */
+    private void reset(){
+        int count = 0;
+
+        for (int i = 0; i < this.table.length; i++){
+            count += Long.bitCount(this.table[i] & ONE_MASK);
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+
+        //  odd counters lose their half, take it into account
+        this.additions = (this.additions - (count >>> 2)) >>> 1;
+    }
+
+    /**
+     * Returns table index for hash function i
+     *
+     * @param item
+     * @param i
+     * @return
+     */
+    private int indexOf(int item, int i){
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += (hash >>> 32);
+
+        return ((int)hash) & this.tableMask;
+    }
+
+    /**
+     * Protects against poor quality hashCode() implementations
+     *
+     * @param x
+     * @return
+     */
+    private static int spread(int x){
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x){
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+}
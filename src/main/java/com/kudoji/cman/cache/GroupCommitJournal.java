@@ -0,0 +1,361 @@
+package com.kudoji.cman.cache;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal for FileCache's durable mode
+ *
+ * Every put/delete appends a checksummed record: file name and object's serialized bytes (or nothing for delete).
+ * Writer waits until the journal is synced up to its record. The first waiting writer becomes a leader:
+ * it sleeps commit window to let other writers append their records and then calls fsync once for all of them.
+ * So concurrent puts share one fsync instead of paying one per entry.
+ *
+ * Cache files themselves are not synced on put. Once the journal grows over checkpoint size, all files written
+ * since the last checkpoint and the cache directory are synced and the journal is truncated.
+ * After a crash the journal is replayed up to the first torn or corrupted record. close() checkpoints
+ * and removes the journal file, so a cleanly closed cache leaves nothing to replay.
+ *
+ * Payload is written twice: to the journal and to the file itself, so writes cost double bandwidth,
+ * in exchange a put costs a share of one sequential fsync instead of syncing the file and its directory.
+ * Large files are not copied to the journal: writer syncs the file itself and appends a record without payload
+ * which tells replay to keep the file as it is, see writeSynced().
+ *
+ * Record layout: name length (int), payload length (int, -1 for delete, -2 for synced file),
+ * CRC32 of name and payload (long), name (UTF-8), payload
+ */
+class GroupCommitJournal implements Closeable {
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int DELETED = -1;
+    private static final int SYNCED = -2;
+    //  journal size which triggers checkpoint
+    private static final long CHECKPOINT_SIZE = 16L * 1024 * 1024;
+
+    private final File journalFile;
+    //  directory with files the journal describes
+    private final File dataDir;
+    private final FileChannel channel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    //  positions keep growing after checkpoints, physical one is position - checkpointPosition
+    private long checkpointPosition;
+    private long appendedPosition;
+    private long syncedPosition;
+    private boolean isSyncing;
+    //  how long the leader waits for other writers before fsync
+    private volatile long commitWindow;
+    //  files written since the last checkpoint
+    private final Set<String> dirtyNames = new HashSet<>();
+
+    GroupCommitJournal(File journalFile, File dataDir, long commitWindow) throws IOException{
+        this.journalFile = journalFile;
+        this.dataDir = dataDir;
+        this.commitWindow = commitWindow;
+        this.channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.appendedPosition = this.channel.size();
+        this.syncedPosition = this.appendedPosition;
+        this.channel.position(this.appendedPosition);
+    }
+
+    long getCommitWindow(){
+        return this.commitWindow;
+    }
+
+    void setCommitWindow(long commitWindow){
+        if (commitWindow < 0){
+            throw new IllegalArgumentException("Commit window must not be negative");
+        }
+
+        this.commitWindow = commitWindow;
+    }
+
+    /**
+     * Reads all valid records, the latest record for a name wins
+     * Journal is cut at the first invalid record
+     *
+     * Names whose last record is a synced file are not returned, the file is durable already
+     *
+     * @return file name -> payload, payload is null for deleted files
+     * @throws IOException
+     */
+    Map<String, byte[]> recover() throws IOException{
+        Map<String, byte[]> records = new LinkedHashMap<>();
+        long validPosition = 0;
+        long journalSize = this.journalFile.length();
+
+        this.lock.lock();
+        try{
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(this.journalFile)));
+            try{
+                while (true){
+                    int nameLength = dis.readInt();
+                    int payloadLength = dis.readInt();
+                    long crc = dis.readLong();
+                    long recordSize = HEADER_SIZE + (long)nameLength + Math.max(payloadLength, 0);
+                    if ((nameLength <= 0) || (payloadLength < SYNCED) || (validPosition + recordSize > journalSize)){
+                        break;
+                    }
+
+                    byte[] name = new byte[nameLength];
+                    dis.readFully(name);
+                    byte[] payload = (payloadLength < 0) ? null : new byte[payloadLength];
+                    if (payload != null){
+                        dis.readFully(payload);
+                    }
+
+                    if (crc != checksum(name, payload)){
+                        break;
+                    }
+
+                    String fileName = new String(name, StandardCharsets.UTF_8);
+                    //  keep order of the last update
+                    records.remove(fileName);
+                    if (payloadLength != SYNCED){
+                        records.put(fileName, payload);
+                        this.dirtyNames.add(fileName);
+                    }
+
+                    validPosition += recordSize;
+                }
+            }catch (EOFException e){
+                //  torn record at the end of the journal
+            }finally{
+                dis.close();
+            }
+
+            this.channel.truncate(validPosition);
+            this.channel.position(validPosition);
+            this.appendedPosition = this.checkpointPosition + validPosition;
+            this.syncedPosition = this.appendedPosition;
+        }finally{
+            this.lock.unlock();
+        }
+
+        return records;
+    }
+
+    /**
+     * Appends record and waits until it is synced
+     *
+     * @param name file name
+     * @param payload null for delete
+     * @throws IOException
+     */
+    void write(String name, byte[] payload) throws IOException{
+        commit(append(name, payload));
+    }
+
+    /**
+     * Appends record without waiting, see commit()
+     *
+     * @param name file name
+     * @param payload null for delete
+     * @return journal position the caller has to commit
+     * @throws IOException
+     */
+    long append(String name, byte[] payload) throws IOException{
+        return append(name, (payload == null) ? DELETED : payload.length, payload);
+    }
+
+    /**
+     * Appends record of a file which is already synced together with its directory and waits until it is synced
+     * Older records of the file are not replayed anymore
+     *
+     * @param name file name
+     * @throws IOException
+     */
+    void writeSynced(String name) throws IOException{
+        commit(append(name, SYNCED, null));
+    }
+
+    private long append(String name, int payloadLength, byte[] payload) throws IOException{
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + nameBytes.length + Math.max(payloadLength, 0));
+        record.putInt(nameBytes.length);
+        record.putInt(payloadLength);
+        record.putLong(checksum(nameBytes, payload));
+        record.put(nameBytes);
+        if (payload != null){
+            record.put(payload);
+        }
+        record.flip();
+
+        this.lock.lock();
+        try{
+            while (record.hasRemaining()){
+                this.channel.write(record);
+            }
+
+            this.appendedPosition = this.checkpointPosition + this.channel.position();
+            if (payloadLength != SYNCED){
+                this.dirtyNames.add(name);
+            }
+
+            return this.appendedPosition;
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until journal is synced up to position
+     * Either joins the running sync or becomes leader of the next one
+     *
+     * @param position
+     * @throws IOException
+     */
+    void commit(long position) throws IOException{
+        this.lock.lock();
+        try{
+            while (this.syncedPosition < position){
+                if (this.isSyncing){
+                    this.synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                this.isSyncing = true;
+                long target;
+                try{
+                    this.lock.unlock();
+                    try{
+                        waitForGroup();
+                    }finally{
+                        this.lock.lock();
+                    }
+
+                    target = this.appendedPosition;
+
+                    this.lock.unlock();
+                    try{
+                        this.channel.force(false);
+                    }finally{
+                        this.lock.lock();
+                    }
+
+                    this.syncedPosition = Math.max(this.syncedPosition, target);
+                }finally{
+                    this.isSyncing = false;
+                    this.synced.signalAll();
+                }
+            }
+
+            if (this.appendedPosition - this.checkpointPosition > CHECKPOINT_SIZE){
+                checkpointLocked();
+            }
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs files written since the last checkpoint and the directory, truncates the journal
+     *
+     * @throws IOException
+     */
+    void checkpoint() throws IOException{
+        this.lock.lock();
+        try{
+            checkpointLocked();
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        checkpoint();
+        this.channel.close();
+        this.journalFile.delete();
+    }
+
+    /**
+     * Lock must be held and no sync must be running
+     *
+     * @throws IOException
+     */
+    private void checkpointLocked() throws IOException{
+        while (this.isSyncing){
+            this.synced.awaitUninterruptibly();
+        }
+
+        for (String name: this.dirtyNames){
+            File file = new File(this.dataDir, name);
+            if (file.exists()){
+                syncFile(file);
+            }
+        }
+        syncDirectory(this.dataDir);
+
+        this.dirtyNames.clear();
+        this.channel.truncate(0);
+        this.channel.position(0);
+        this.channel.force(true);
+        //  everything appended so far is durable now
+        this.checkpointPosition = this.appendedPosition;
+        this.syncedPosition = this.appendedPosition;
+    }
+
+    private void waitForGroup(){
+        long window = this.commitWindow;
+        if (window <= 0){
+            return;
+        }
+
+        try{
+            Thread.sleep(window);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Makes file's content durable
+     *
+     * @param file
+     * @throws IOException
+     */
+    static void syncFile(File file) throws IOException{
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)){
+            fileChannel.force(true);
+        }catch (FileNotFoundException | java.nio.file.NoSuchFileException e){
+            //  file has been deleted meanwhile
+        }
+    }
+
+    /**
+     * Makes renames and deletes in the directory durable
+     * Not every platform allows to open a directory, e.g. Windows, ignore it there
+     *
+     * @param dir
+     */
+    static void syncDirectory(File dir){
+        try (FileChannel dirChannel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)){
+            dirChannel.force(true);
+        }catch (IOException e){
+            //  not supported
+        }
+    }
+
+    private static long checksum(byte[] name, byte[] payload){
+        CRC32 crc = new CRC32();
+        crc.update(name, 0, name.length);
+        if (payload != null){
+            crc.update(payload, 0, payload.length);
+        }
+
+        return crc.getValue();
+    }
+}
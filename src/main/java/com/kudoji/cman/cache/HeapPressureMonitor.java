@@ -0,0 +1,144 @@
+package com.kudoji.cman.cache;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches heap occupancy after garbage collections
+ *
+ * Collection usage threshold of heap pools which support it (old generation mostly) is set to highWatermark,
+ * so GC notifies the monitor when live data doesn't fit. Pressure lasts until occupancy after GC
+ * drops below lowWatermark. Notifications come from a JMX thread, so the monitor only counts them
+ * and the cache sheds objects in its own thread.
+ *
+ * Pool thresholds are JVM-wide, several monitors keep the lowest one and check their own watermarks.
+ */
+class HeapPressureMonitor implements NotificationListener {
+    //  how often pressure end is checked, milliseconds
+    private static final long CHECK_INTERVAL = 100;
+
+    private final double highWatermark;
+    private final double lowWatermark;
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    private final NotificationEmitter emitter;
+
+    private final AtomicLong pressureCount = new AtomicLong();
+    private volatile boolean isUnderPressure;
+    private volatile long nextCheckTime;
+
+    /**
+     * @param highWatermark share of pool's maximum size, pressure starts when it's occupied after GC
+     * @param lowWatermark share of pool's maximum size, pressure ends when less is occupied after GC
+     */
+    HeapPressureMonitor(double highWatermark, double lowWatermark){
+        if ((highWatermark <= 0) || (highWatermark >= 1) || (lowWatermark <= 0) || (lowWatermark > highWatermark)){
+            throw new IllegalArgumentException("Watermarks must be 0 < low <= high < 1");
+        }
+
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()){
+            if ((pool.getType() != MemoryType.HEAP) || !pool.isCollectionUsageThresholdSupported()
+                    || (pool.getUsage().getMax() <= 0)){
+                continue;
+            }
+
+            long threshold = (long)(pool.getUsage().getMax() * highWatermark);
+            long currentThreshold = pool.getCollectionUsageThreshold();
+            if ((currentThreshold == 0) || (threshold < currentThreshold)){
+                pool.setCollectionUsageThreshold(threshold);
+            }
+            this.pools.add(pool);
+        }
+
+        this.emitter = (NotificationEmitter)ManagementFactory.getMemoryMXBean();
+        this.emitter.addNotificationListener(this, null, null);
+    }
+
+    double getHighWatermark(){
+        return this.highWatermark;
+    }
+
+    double getLowWatermark(){
+        return this.lowWatermark;
+    }
+
+    /**
+     * Amount of times heap crossed high watermark, cache sheds objects every time it grows
+     * @return
+     */
+    long getPressureCount(){
+        return this.pressureCount.get();
+    }
+
+    /**
+     * Checks whether heap is still above low watermark, occupancy is checked at most every CHECK_INTERVAL
+     * @return
+     */
+    boolean isUnderPressure(){
+        if (!this.isUnderPressure){
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= this.nextCheckTime){
+            this.nextCheckTime = now + CHECK_INTERVAL;
+            if (getOccupancy() < this.lowWatermark){
+                this.isUnderPressure = false;
+            }
+        }
+
+        return this.isUnderPressure;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback){
+        if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())){
+            return;
+        }
+
+        //  threshold could be set lower by another monitor
+        if (getOccupancy() >= this.highWatermark){
+            this.isUnderPressure = true;
+            this.pressureCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops listening to GC notifications
+     */
+    void close(){
+        try{
+            this.emitter.removeNotificationListener(this);
+        }catch (Exception e){
+            //  listener is not registered
+        }
+    }
+
+    /**
+     * The highest share of pool's maximum size occupied after the last GC
+     * @return
+     */
+    private double getOccupancy(){
+        double occupancy = 0;
+
+        for (MemoryPoolMXBean pool: this.pools){
+            MemoryUsage usage = pool.getCollectionUsage();
+            if ((usage != null) && (usage.getMax() > 0)){
+                occupancy = Math.max(occupancy, (double)usage.getUsed() / usage.getMax());
+            }
+        }
+
+        return occupancy;
+    }
+}
@@ -0,0 +1,196 @@
+package com.kudoji.cman.cache;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * Flight Recorder events, the class is loaded only if jdk.jfr is available, see CacheEvents
+ *
+ * Thresholds of operation and file events are defaults, they could be changed by recording settings,
+ * e.g. jcmd JFR.start settings=my.jfc or Recording.enable(name).withThreshold()
+ */
+final class JfrEvents {
+    private static final String CATEGORY = "Cache";
+
+    private JfrEvents(){
+    }
+
+    @Name("com.kudoji.cman.CacheOperation")
+    @Label("Cache Operation")
+    @Description("Slow get or put of a cache")
+    @Category({"cman", CATEGORY})
+    @Threshold("10 ms")
+    static final class OperationEvent extends Event{
+        @Label("Cache")
+        String cache;
+        @Label("Operation")
+        String operation;
+        @Label("Key")
+        String key;
+        @Label("Hit")
+        @Description("Whether get found the object or put stored it")
+        boolean isHit;
+    }
+
+    @Name("com.kudoji.cman.FileIo")
+    @Label("Cache File I/O")
+    @Description("Read or write of a file cache object")
+    @Category({"cman", CATEGORY})
+    @Threshold("1 ms")
+    static final class FileIoEvent extends Event{
+        @Label("File")
+        String file;
+        @Label("Write")
+        boolean isWrite;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Success")
+        boolean isSuccess;
+    }
+
+    @Name("com.kudoji.cman.CacheStrategy")
+    @Label("Cache Strategy")
+    @Description("Run of applyCacheStrategy()")
+    @Category({"cman", CATEGORY})
+    static final class StrategyEvent extends Event{
+        @Label("Strategy")
+        String strategy;
+        @Label("Entries")
+        int entries;
+        @Label("Moved To Memory")
+        int movedToMemory;
+        @Label("Moved To File")
+        int movedToFile;
+        @Label("Dropped")
+        int dropped;
+    }
+
+    @Name("com.kudoji.cman.Eviction")
+    @Label("Cache Eviction")
+    @Description("Object left a cache because of lack of space")
+    @Category({"cman", CATEGORY})
+    @StackTrace(false)
+    static final class EvictionEvent extends Event{
+        @Label("Cache")
+        String cache;
+        @Label("Key")
+        String key;
+        @Label("Cause")
+        String cause;
+    }
+
+    /**
+     * Reports whether any recording is running whenever recording state changes
+     * @param listener
+     */
+    static void listen(Consumer<Boolean> listener){
+        FlightRecorder.addListener(new FlightRecorderListener(){
+            //  is called at once if recorder is initialized already, e.g. by -XX:StartFlightRecording
+            @Override
+            public void recorderInitialized(FlightRecorder recorder){
+                listener.accept(isAnyRunning(recorder));
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording){
+                listener.accept(isAnyRunning(FlightRecorder.getFlightRecorder()));
+            }
+        });
+    }
+
+    private static boolean isAnyRunning(FlightRecorder recorder){
+        for (Recording recording: recorder.getRecordings()){
+            if (recording.getState() == RecordingState.RUNNING){
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static Object beginOperation(){
+        OperationEvent event = new OperationEvent();
+        event.begin();
+
+        return event;
+    }
+
+    static void endOperation(Object event, Object cache, String operation, Object key, boolean isHit){
+        OperationEvent operationEvent = (OperationEvent)event;
+        operationEvent.end();
+
+        if (operationEvent.shouldCommit()){
+            operationEvent.cache = cache.getClass().getSimpleName();
+            operationEvent.operation = operation;
+            operationEvent.key = String.valueOf(key);
+            operationEvent.isHit = isHit;
+            operationEvent.commit();
+        }
+    }
+
+    static Object beginFileIo(){
+        FileIoEvent event = new FileIoEvent();
+        event.begin();
+
+        return event;
+    }
+
+    static void endFileIo(Object event, String fileName, boolean isWrite, boolean isSuccess){
+        FileIoEvent fileIoEvent = (FileIoEvent)event;
+        fileIoEvent.end();
+
+        if (fileIoEvent.shouldCommit()){
+            fileIoEvent.file = fileName;
+            fileIoEvent.isWrite = isWrite;
+            fileIoEvent.bytes = new File(fileName).length();
+            fileIoEvent.isSuccess = isSuccess;
+            fileIoEvent.commit();
+        }
+    }
+
+    static Object beginStrategy(){
+        StrategyEvent event = new StrategyEvent();
+        event.begin();
+
+        return event;
+    }
+
+    static void endStrategy(Object event, Object strategy, int entries, int movedToMemory, int movedToFile, int dropped){
+        StrategyEvent strategyEvent = (StrategyEvent)event;
+        strategyEvent.end();
+
+        if (strategyEvent.shouldCommit()){
+            strategyEvent.strategy = String.valueOf(strategy);
+            strategyEvent.entries = entries;
+            strategyEvent.movedToMemory = movedToMemory;
+            strategyEvent.movedToFile = movedToFile;
+            strategyEvent.dropped = dropped;
+            strategyEvent.commit();
+        }
+    }
+
+    static void eviction(Object cache, Object key, Object cause){
+        EvictionEvent event = new EvictionEvent();
+
+        if (event.shouldCommit()){
+            event.cache = cache.getClass().getSimpleName();
+            event.key = String.valueOf(key);
+            event.cause = String.valueOf(cause);
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.kudoji.cman.cache;
+
+import java.io.File;
+
+/**
+ * File cache for long keys
+ * File name is the key itself written as 16 hex digits, so neither key.toString() nor SHA-1 is needed
+ * to find the file. Names never collide with FileCache's ones which are 40 hex digits long.
+ */
+public class LongKeyFileCache<V> extends FileCache<Long, V> {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    //  length of the key in hex digits
+    private static final int KEY_LENGTH = 16;
+
+    //  "cacheDir/" prefix of every file name
+    private final char[] prefix;
+
+    public LongKeyFileCache(){
+        super();
+
+        this.prefix = (getCacheDir() + File.separator).toCharArray();
+    }
+
+    public LongKeyFileCache(String cacheDir){
+        super(cacheDir);
+
+        this.prefix = (getCacheDir() + File.separator).toCharArray();
+    }
+
+    public boolean put(long key, V object){
+        return putToFile(getFileName(key), new CacheObject<>(key, object));
+    }
+
+    public V get(long key){
+        return getFromFile(getFileName(key));
+    }
+
+    public boolean delete(long key){
+        return deleteFromFile(getFileName(key));
+    }
+
+    public boolean isKeyPresent(long key){
+        return isFileExists(getFileName(key));
+    }
+
+    @Override
+    String getFileName(Long key){
+        return getFileName(key.longValue());
+    }
+
+    /**
+     * Gets file name for the key
+     *
+     * @param key
+     * @return Full file name relatively to cache directory
+     */
+    String getFileName(long key){
+        char[] fileName = new char[this.prefix.length + KEY_LENGTH];
+        System.arraycopy(this.prefix, 0, fileName, 0, this.prefix.length);
+
+        for (int i = fileName.length - 1; i >= this.prefix.length; i--){
+            fileName[i] = HEX[(int)(key & 0xf)];
+            key >>>= 4;
+        }
+
+        return new String(fileName);
+    }
+}
@@ -0,0 +1,374 @@
+package com.kudoji.cman.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+
+/**
+ * Memory cache for long keys
+ *
+ * Keys are kept unboxed in an open-addressing (linear probing) table, object's metadata is kept in
+ * parallel arrays, so get(long), put(long, V), delete(long) etc. don't allocate anything
+ * unless the table grows.
+ * CacheObject instances are created only by getAll() and getCacheObject()
+ */
+public class LongKeyMemoryCache<V> implements Cache<Long, V> {
+    private static final int MIN_CAPACITY = 16;
+
+    //  max cache size
+    //  default is zero - unlimited
+    private int maxSize;
+    private int size;
+
+    private long[] keys;
+    private Object[] objects;
+    private int[] frequencies;
+    private long[] createTimes;
+    private boolean[] isUsed;
+    private int mask;
+
+    public LongKeyMemoryCache(){
+        this.maxSize = 0;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Adds new element to cache
+     * @param key
+     * @param object
+     * @return false than element has not been added due to cache overflow; true - all is fine
+     */
+    public boolean put(long key, V object){
+        return put(key, object, 0, System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean put(Long key, V object){
+        return put(key.longValue(), object);
+    }
+
+    @Override
+    public boolean put(CacheObject<Long, V> cacheObject){
+        //  frequency is read first since getObject() increments it
+        int frequency = cacheObject.getFrequency();
+
+        return put(cacheObject.getKey(), cacheObject.getObject(), frequency, cacheObject.getCreateTime());
+    }
+
+    private boolean put(long key, V object, int frequency, long createTime){
+        int index = indexOf(key);
+        if (index < 0){
+            if (isFull()){
+                //  if add new element than exceed maximum limit
+                return false;
+            }
+
+            if ((this.size + 1) * 2 > this.keys.length){
+                allocate(this.keys.length * 2);
+            }
+
+            index = ~indexOf(key);
+            this.keys[index] = key;
+            this.isUsed[index] = true;
+            this.size++;
+        }
+
+        this.objects[index] = object;
+        this.frequencies[index] = frequency;
+        this.createTimes[index] = createTime;
+
+        return true;
+    }
+
+    /**
+     * Returns value from cache based on key
+     * @param key
+     * @return cached object or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key){
+        int index = indexOf(key);
+        if (index < 0){
+            return null;
+        }
+
+        this.frequencies[index]++;
+
+        return (V)this.objects[index];
+    }
+
+    @Override
+    public V get(Long key){
+        return get(key.longValue());
+    }
+
+    /**
+     * Deletes value from cache
+     * @param key
+     * @return true then value deleted, false otherwise
+     */
+    public boolean delete(long key){
+        int index = indexOf(key);
+        if (index < 0){
+            return false;
+        }
+
+        deleteAt(index);
+
+        return true;
+    }
+
+    @Override
+    public boolean delete(Long key){
+        return delete(key.longValue());
+    }
+
+    @Override
+    public void flush(){
+        allocate(MIN_CAPACITY);
+    }
+
+    @Override
+    public int size(){
+        return this.size;
+    }
+
+    @Override
+    public int getMaxSize(){
+        return this.maxSize;
+    }
+
+    @Override
+    public void setMaxSize(int maxSize){
+        if (maxSize < 0){
+            throw new IllegalArgumentException("Memory cache size must not be negative");
+        }
+
+        this.maxSize = maxSize;
+
+        //  delete all object that are out of bound
+        int index = 0;
+        while ((maxSize > 0) && (this.size > maxSize)){
+            if (this.isUsed[index]){
+                //  another entry could be shifted to this slot, check it again
+                deleteAt(index);
+            }else{
+                index = (index + 1) & this.mask;
+            }
+        }
+    }
+
+    /**
+     * Gets all object that are in memory cache
+     * @return
+     */
+    @Override
+    public List<CacheObject<Long, V>> getAll(){
+        List<CacheObject<Long, V>> result = new ArrayList<>(this.size);
+
+        for (int i = 0; i < this.keys.length; i++){
+            if (this.isUsed[i]){
+                result.add(toCacheObject(i));
+            }
+        }
+
+        return result;
+    }
+
+    public boolean isKeyPresent(long key){
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Checks whether key present in memory cache or not
+     * Method doesn't increment frequency
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean isKeyPresent(Long key){
+        return isKeyPresent(key.longValue());
+    }
+
+    public long getAge(long key){
+        int index = indexOf(key);
+        if (index < 0){
+            return -1;
+        }
+
+        return System.currentTimeMillis() - this.createTimes[index];
+    }
+
+    @Override
+    public long getAge(Long key){
+        return getAge(key.longValue());
+    }
+
+    public int getFrequency(long key){
+        int index = indexOf(key);
+        if (index < 0){
+            return -1;
+        }
+
+        return this.frequencies[index];
+    }
+
+    @Override
+    public int getFrequency(Long key){
+        return getFrequency(key.longValue());
+    }
+
+    @Override
+    public CacheObject<Long, V> getCacheObject(Long key){
+        int index = indexOf(key);
+        if (index < 0){
+            return null;
+        }
+
+        return toCacheObject(index);
+    }
+
+    @Override
+    public boolean isFull(){
+        return (this.maxSize > 0) && (this.size >= this.maxSize);
+    }
+
+    /**
+     * Looks through up to sampleSize keys and returns the least popular one
+     *
+     * @param popularity
+     * @param sampleSize
+     * @return null if cache is empty
+     */
+    @Override
+    public Long getVictim(ToIntFunction<Long> popularity, int sampleSize){
+        int victim = -1;
+        int victimPopularity = Integer.MAX_VALUE;
+        int sampled = 0;
+
+        //  sample starts from a random slot, so the same slots are not always the candidates
+        int start = ThreadLocalRandom.current().nextInt(this.keys.length);
+        for (int j = 0; (j < this.keys.length) && (sampled < sampleSize); j++){
+            int i = (start + j) % this.keys.length;
+            if (!this.isUsed[i]){
+                continue;
+            }
+
+            int keyPopularity = popularity.applyAsInt(this.keys[i]);
+            if (keyPopularity < victimPopularity){
+                victim = i;
+                victimPopularity = keyPopularity;
+            }
+            sampled++;
+        }
+
+        return (victim == -1) ? null : this.keys[victim];
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheObject<Long, V> toCacheObject(int index){
+        return new CacheObject<>(this.keys[index], (V)this.objects[index],
+                this.frequencies[index], this.createTimes[index]);
+    }
+
+    /**
+     * Returns slot index of the key or (-(insertion point) - 1) if key is absent
+     *
+     * @param key
+     * @return
+     */
+    private int indexOf(long key){
+        int index = hash(key) & this.mask;
+
+        while (this.isUsed[index]){
+            if (this.keys[index] == key){
+                return index;
+            }
+
+            index = (index + 1) & this.mask;
+        }
+
+        return ~index;
+    }
+
+    /**
+     * Removes slot and shifts following entries of the same cluster back,
+     * so table needs no tombstones
+     *
+     * @param index
+     */
+    private void deleteAt(int index){
+        int gap = index;
+        int next = (gap + 1) & this.mask;
+
+        while (this.isUsed[next]){
+            int home = hash(this.keys[next]) & this.mask;
+            //  entry can be moved to the gap only if its home slot is not between gap and next
+            if (((next - home) & this.mask) >= ((next - gap) & this.mask)){
+                this.keys[gap] = this.keys[next];
+                this.objects[gap] = this.objects[next];
+                this.frequencies[gap] = this.frequencies[next];
+                this.createTimes[gap] = this.createTimes[next];
+                gap = next;
+            }
+
+            next = (next + 1) & this.mask;
+        }
+
+        this.isUsed[gap] = false;
+        this.objects[gap] = null;
+        this.size--;
+    }
+
+    /**
+     * Allocates table of the capacity and moves existing entries there
+     *
+     * @param capacity must be power of two
+     */
+    private void allocate(int capacity){
+        long[] oldKeys = this.keys;
+        Object[] oldObjects = this.objects;
+        int[] oldFrequencies = this.frequencies;
+        long[] oldCreateTimes = this.createTimes;
+        boolean[] oldIsUsed = this.isUsed;
+        boolean isRehash = (oldKeys != null) && (capacity > oldKeys.length);
+
+        this.keys = new long[capacity];
+        this.objects = new Object[capacity];
+        this.frequencies = new int[capacity];
+        this.createTimes = new long[capacity];
+        this.isUsed = new boolean[capacity];
+        this.mask = capacity - 1;
+
+        if (!isRehash){
+            this.size = 0;
+            return;
+        }
+
+        for (int i = 0; i < oldKeys.length; i++){
+            if (oldIsUsed[i]){
+                int index = ~indexOf(oldKeys[i]);
+                this.keys[index] = oldKeys[i];
+                this.objects[index] = oldObjects[i];
+                this.frequencies[index] = oldFrequencies[i];
+                this.createTimes[index] = oldCreateTimes[i];
+                this.isUsed[index] = true;
+            }
+        }
+    }
+
+    /**
+     * Mixes key's bits, see murmur3 finalizer
+     *
+     * @param key
+     * @return
+     */
+    private static int hash(long key){
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+
+        return (int)(key ^ (key >>> 33));
+    }
+}
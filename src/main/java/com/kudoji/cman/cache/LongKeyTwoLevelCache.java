@@ -0,0 +1,71 @@
+package com.kudoji.cman.cache;
+
+/**
+ * Two-level cache for long keys
+ * Uses LongKeyMemoryCache and LongKeyFileCache which keep keys unboxed and name files without hashing,
+ * isKeyPresent(long) and getLocation(long) don't box the key.
+ * put(long), get(long) and delete(long) box it, so they allocate a Long for keys out of -128..127,
+ * LongKeyMemoryCache alone serves lookups which allocate nothing
+ */
+public class LongKeyTwoLevelCache<V> extends TwoLevelCache<Long, V> {
+    private final LongKeyMemoryCache<V> lmc;
+    private final LongKeyFileCache<V> lfc;
+
+    public LongKeyTwoLevelCache(){
+        this(CacheStrategy.FREQUENTTOMEMORY);
+    }
+
+    public LongKeyTwoLevelCache(CacheStrategy cacheStrategy){
+        this(new LongKeyMemoryCache<>(), new LongKeyFileCache<>(), cacheStrategy);
+    }
+
+    private LongKeyTwoLevelCache(LongKeyMemoryCache<V> lmc, LongKeyFileCache<V> lfc, CacheStrategy cacheStrategy){
+        super(lmc, lfc, cacheStrategy);
+
+        this.lmc = lmc;
+        this.lfc = lfc;
+    }
+
+    /**
+     * The same as put(Long, V)
+     * Tiers keep keys unboxed, the key is boxed once here, so every feature of TwoLevelCache applies
+     * @param key
+     * @param object
+     * @return true if object put either to memory or file cache, false otherwise
+     */
+    public boolean put(long key, V object){
+        return put(Long.valueOf(key), object);
+    }
+
+    /**
+     * The same as get(Long)
+     * @param key
+     * @return null if object is not found, real object otherwise
+     */
+    public V get(long key){
+        return get(Long.valueOf(key));
+    }
+
+    /**
+     * The same as delete(Long)
+     * @param key
+     * @return
+     */
+    public boolean delete(long key){
+        return delete(Long.valueOf(key));
+    }
+
+    public boolean isKeyPresent(long key){
+        return (this.lmc.isKeyPresent(key) || this.lfc.isKeyPresent(key));
+    }
+
+    public ObjectLocation getLocation(long key){
+        if (this.lmc.isKeyPresent(key)){
+            return ObjectLocation.MEMORY;
+        }else if (this.lfc.isKeyPresent(key)){
+            return ObjectLocation.FILE;
+        }
+
+        return ObjectLocation.NONE;
+    }
+}
@@ -4,16 +4,22 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
 
 //  first level cache - memory
 public class MemoryCache<K, V> implements Cache<K, V>{
     //  max cache size
     //  default is zero - unlimited
     private int maxSize;
-    private final Map<K, CacheObject<K, V>> cache;
+    //  key -> position of its object in objects, objects are kept in a list so victims could be sampled
+    //  from a random position, deleted object's place is taken by the last one
+    private final Map<K, Integer> cache;
+    private final ArrayList<CacheObject<K, V>> objects;
 
     public MemoryCache(){
         this.cache = new HashMap<>();
+        this.objects = new ArrayList<>();
         this.maxSize = 0;
     }
 
@@ -30,8 +36,7 @@ public class MemoryCache<K, V> implements Cache<K, V>{
             return false;
         }
 
-        CacheObject<K, V> cacheObject = new CacheObject<>(key, object);
-        this.cache.put(key, cacheObject);
+        store(new CacheObject<>(key, object));
 
         return true;
     }
@@ -49,11 +54,22 @@ public class MemoryCache<K, V> implements Cache<K, V>{
             return false;
         }
 
-        this.cache.put(key, cacheObject);
+        store(cacheObject);
 
         return true;
     }
 
+    private void store(CacheObject<K, V> cacheObject){
+        Integer index = this.cache.get(cacheObject.getKey());
+
+        if (index == null){
+            this.cache.put(cacheObject.getKey(), this.objects.size());
+            this.objects.add(cacheObject);
+        }else{
+            this.objects.set(index, cacheObject);
+        }
+    }
+
     /**
      * Returns value from cache based on key
      * @param key
@@ -61,7 +77,7 @@ public class MemoryCache<K, V> implements Cache<K, V>{
      */
     @Override
     public V get(K key){
-        CacheObject<K, V> cacheObject = this.cache.get(key);
+        CacheObject<K, V> cacheObject = getCacheObject(key);
 
         if (cacheObject != null){
             return cacheObject.getObject();
@@ -77,17 +93,24 @@ public class MemoryCache<K, V> implements Cache<K, V>{
      */
     @Override
     public boolean delete(K key){
-        if (this.cache.containsKey(key)){
-            this.cache.remove(key);
-            return true;
+        Integer index = this.cache.remove(key);
+        if (index == null){
+            return false;
+        }
+
+        CacheObject<K, V> last = this.objects.remove(this.objects.size() - 1);
+        if (index < this.objects.size()){
+            this.objects.set(index, last);
+            this.cache.put(last.getKey(), index);
         }
 
-        return false;
+        return true;
     }
 
     @Override
     public void flush(){
         this.cache.clear();
+        this.objects.clear();
     }
 
     @Override
@@ -126,6 +149,7 @@ public class MemoryCache<K, V> implements Cache<K, V>{
             ArrayList<K> cacheObjects = new ArrayList<>(this.cache.keySet());
             for (int i = maxSize; i < cacheSize; i++){
                 this.delete(cacheObjects.get(i));
+                CacheEvents.eviction(this, cacheObjects.get(i), RemovalNotification.Cause.EVICTED);
             }
         }
     }
@@ -136,7 +160,7 @@ public class MemoryCache<K, V> implements Cache<K, V>{
      */
     @Override
     public List<CacheObject<K, V>> getAll(){
-        return new ArrayList<>(this.cache.values());
+        return new ArrayList<>(this.objects);
     }
 
     /**
@@ -148,7 +172,7 @@ public class MemoryCache<K, V> implements Cache<K, V>{
      */
     @Override
     public boolean isKeyPresent(K key){
-        return (this.cache.get(key) != null);
+        return this.cache.containsKey(key);
     }
 
     /**
@@ -157,8 +181,51 @@ public class MemoryCache<K, V> implements Cache<K, V>{
      * @param key
      * @return
      */
-    private CacheObject<K, V> getCacheObject(K key){
-        return this.cache.get(key);
+    @Override
+    public CacheObject<K, V> getCacheObject(K key){
+        Integer index = this.cache.get(key);
+
+        return (index == null) ? null : this.objects.get(index);
+    }
+
+    /**
+     * Checks whether new key can be added to the cache or not
+     *
+     * @return
+     */
+    @Override
+    public boolean isFull(){
+        return (this.maxSize > 0) && (this.cache.size() >= this.maxSize);
+    }
+
+    /**
+     * Looks through up to sampleSize keys starting from a random one and returns the least popular of them
+     *
+     * @param popularity
+     * @param sampleSize
+     * @return null if cache is empty
+     */
+    @Override
+    public K getVictim(ToIntFunction<K> popularity, int sampleSize){
+        int size = this.objects.size();
+        if (size == 0){
+            return null;
+        }
+
+        K victim = null;
+        int victimPopularity = Integer.MAX_VALUE;
+        int start = ThreadLocalRandom.current().nextInt(size);
+
+        for (int i = 0; i < Math.min(sampleSize, size); i++){
+            K key = this.objects.get((start + i) % size).getKey();
+            int keyPopularity = popularity.applyAsInt(key);
+            if (keyPopularity < victimPopularity){
+                victim = key;
+                victimPopularity = keyPopularity;
+            }
+        }
+
+        return victim;
     }
 
     @Override
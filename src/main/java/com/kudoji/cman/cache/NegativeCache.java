@@ -0,0 +1,99 @@
+package com.kudoji.cman.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded set of recently missed keys, every key is remembered for ttl milliseconds
+ * The oldest key is forgotten when the set is full. Not thread-safe, like TwoLevelCache itself
+ */
+class NegativeCache<K> {
+    private final int maxSize;
+    private final long ttl;
+    //  key -> time when it expires, in insertion order, so the eldest entries expire first
+    private final LinkedHashMap<K, Long> expireTimes;
+
+    /**
+     * @param maxSize maximum amount of remembered keys
+     * @param ttl milliseconds
+     */
+    NegativeCache(int maxSize, long ttl){
+        if (maxSize <= 0){
+            throw new IllegalArgumentException("Negative cache size must be positive");
+        }
+        if (ttl <= 0){
+            throw new IllegalArgumentException("Negative cache ttl must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.expireTimes = new LinkedHashMap<K, Long>(){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Long> eldest){
+                return size() > NegativeCache.this.maxSize;
+            }
+        };
+    }
+
+    int getMaxSize(){
+        return this.maxSize;
+    }
+
+    long getTtl(){
+        return this.ttl;
+    }
+
+    /**
+     * Remembers the key as absent
+     * @param key
+     */
+    void add(K key){
+        //  re-insert to move the key to the end of expiration order
+        this.expireTimes.remove(key);
+        this.expireTimes.put(key, System.currentTimeMillis() + this.ttl);
+    }
+
+    /**
+     * Checks whether the key is known to be absent
+     * @param key
+     * @return
+     */
+    boolean contains(K key){
+        Long expireTime = this.expireTimes.get(key);
+        if (expireTime == null){
+            return false;
+        }
+
+        if (expireTime <= System.currentTimeMillis()){
+            removeExpired();
+            return false;
+        }
+
+        return true;
+    }
+
+    void remove(K key){
+        this.expireTimes.remove(key);
+    }
+
+    void clear(){
+        this.expireTimes.clear();
+    }
+
+    int size(){
+        return this.expireTimes.size();
+    }
+
+    /**
+     * Removes expired keys, they are the eldest ones
+     */
+    private void removeExpired(){
+        long now = System.currentTimeMillis();
+
+        Iterator<Long> iterator = this.expireTimes.values().iterator();
+        while (iterator.hasNext() && (iterator.next() <= now)){
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.kudoji.cman.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * Predicts keys which are going to be requested after a key, see TwoLevelCache.setPrefetch()
+ */
+@FunctionalInterface
+public interface PrefetchPredictor<K> {
+    /**
+     * Is called on every get() from the thread using the cache, so it must be fast
+     *
+     * @param key requested key
+     * @return keys likely requested soon, the most likely come first
+     */
+    Collection<K> predict(K key);
+
+    /**
+     * Predicts keys known by the application, e.g. page N + 1 after page N or children of an item
+     *
+     * @param successors returns keys following the key, could return null
+     * @return
+     */
+    static <K> PrefetchPredictor<K> successors(Function<K, Collection<K>> successors){
+        return key -> {
+            Collection<K> keys = successors.apply(key);
+
+            return (keys == null) ? Collections.emptyList() : keys;
+        };
+    }
+
+    /**
+     * Learns which keys follow which from the order of gets, see TransitionPredictor
+     *
+     * @param maxKeys amount of keys which successors are remembered
+     * @return
+     */
+    static <K> PrefetchPredictor<K> learned(int maxKeys){
+        return new TransitionPredictor<>(maxKeys);
+    }
+}
@@ -0,0 +1,224 @@
+package com.kudoji.cman.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Reads predicted objects from file cache on an executor, see TwoLevelCache.setPrefetch()
+ *
+ * Only file reads run on the executor, loaded objects wait in a queue until the cache thread takes them,
+ * so the cache itself stays single-threaded. Objects stay in file cache, their loaded copies wait for the first get()
+ * which takes a copy instead of reading the file, so installing them costs no I/O on the cache thread.
+ * Every load gets a ticket, cancel() drops it and the waiting copy, so an overwritten object is never returned.
+ * At most budget objects are loaded or waiting in memory for the first get(), the oldest waiting one is
+ * forgotten (wasted) to make room for new loads.
+ * All methods but the load task are called by the cache thread
+ */
+class Prefetcher<K, V> {
+    private final PrefetchPredictor<K> predictor;
+    private final Executor executor;
+    private final int budget;
+
+    //  loads in flight or waiting in the queue
+    private final Map<K, Long> tickets = new HashMap<>();
+    private final Queue<Load<K, V>> loaded = new ConcurrentLinkedQueue<>();
+    //  copies of prefetched objects which are not requested yet, the oldest come first
+    private final LinkedHashMap<K, CacheObject<K, V>> prefetched = new LinkedHashMap<>();
+    private long nextTicket;
+
+    private long loadCount;
+    private long prefetchCount;
+    private long hitCount;
+    private long wasteCount;
+
+    /**
+     * Result of one load, cacheObject is null if object is not in file cache
+     */
+    private static final class Load<K, V>{
+        private final long ticket;
+        private final K key;
+        private final CacheObject<K, V> cacheObject;
+
+        private Load(long ticket, K key, CacheObject<K, V> cacheObject){
+            this.ticket = ticket;
+            this.key = key;
+            this.cacheObject = cacheObject;
+        }
+    }
+
+    Prefetcher(PrefetchPredictor<K> predictor, Executor executor, int budget){
+        if ((predictor == null) || (executor == null)){
+            throw new IllegalArgumentException("Predictor and executor must be set");
+        }
+        if (budget <= 0){
+            throw new IllegalArgumentException("Prefetch budget must be positive");
+        }
+
+        this.predictor = predictor;
+        this.executor = executor;
+        this.budget = budget;
+    }
+
+    Collection<K> predict(K key){
+        return this.predictor.predict(key);
+    }
+
+    /**
+     * Key is requested, takes its prefetched copy and counts a hit
+     *
+     * @param key
+     * @param isMemoryHit whether the object was found in memory cache, the copy is not needed then
+     * @return null if the object is not prefetched or it is found in memory cache
+     */
+    CacheObject<K, V> take(K key, boolean isMemoryHit){
+        CacheObject<K, V> cacheObject = this.prefetched.remove(key);
+        if (cacheObject == null){
+            return null;
+        }
+
+        if (isMemoryHit){
+            this.wasteCount++;
+            return null;
+        }
+
+        this.hitCount++;
+        return cacheObject;
+    }
+
+    /**
+     * Starts loading of the object from file cache unless it is being loaded or the budget is spent
+     *
+     * @param key
+     * @param reader reads object from file cache on the executor
+     */
+    void load(K key, Function<K, CacheObject<K, V>> reader){
+        if (this.tickets.containsKey(key) || this.prefetched.containsKey(key)){
+            return;
+        }
+
+        if (this.tickets.size() + this.prefetched.size() >= this.budget){
+            if (this.prefetched.isEmpty()){
+                return;
+            }
+
+            Iterator<K> iterator = this.prefetched.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+            this.wasteCount++;
+        }
+
+        long ticket = this.nextTicket++;
+        this.tickets.put(key, ticket);
+
+        try{
+            this.executor.execute(() -> {
+                CacheObject<K, V> cacheObject = null;
+                try{
+                    cacheObject = reader.apply(key);
+                }finally{
+                    //  the ticket is released even if reading failed
+                    this.loaded.add(new Load<>(ticket, key, cacheObject));
+                }
+            });
+            this.loadCount++;
+        }catch (RejectedExecutionException e){
+            this.tickets.remove(key);
+        }
+    }
+
+    /**
+     * Takes the next loaded object, loads which were canceled or found nothing are skipped
+     * @return null if there are no loaded objects
+     */
+    CacheObject<K, V> poll(){
+        Load<K, V> load;
+
+        while ((load = this.loaded.poll()) != null){
+            Long ticket = this.tickets.get(load.key);
+            if ((ticket == null) || (ticket != load.ticket)){
+                continue;
+            }
+
+            this.tickets.remove(load.key);
+            if (load.cacheObject != null){
+                return load.cacheObject;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Copy of the object polled before waits for the first get()
+     * @param cacheObject
+     */
+    void onPrefetched(CacheObject<K, V> cacheObject){
+        this.prefetched.put(cacheObject.getKey(), cacheObject);
+        this.prefetchCount++;
+    }
+
+    /**
+     * Object is written or removed, its load in flight or waiting copy must not be returned
+     * @param key
+     */
+    void cancel(K key){
+        this.tickets.remove(key);
+        this.prefetched.remove(key);
+    }
+
+    /**
+     * Cancels reads and copies of keys which match the filter
+     *
+     * @param filter
+     */
+    void cancelIf(Predicate<K> filter){
+        this.tickets.keySet().removeIf(filter);
+        this.prefetched.keySet().removeIf(filter);
+    }
+
+    void clear(){
+        this.tickets.clear();
+        this.prefetched.clear();
+    }
+
+    /**
+     * Amount of file reads started
+     * @return
+     */
+    long getLoadCount(){
+        return this.loadCount;
+    }
+
+    /**
+     * Amount of prefetched objects which waited for a get()
+     * @return
+     */
+    long getPrefetchCount(){
+        return this.prefetchCount;
+    }
+
+    /**
+     * Amount of gets served by prefetched copies
+     * @return
+     */
+    long getHitCount(){
+        return this.hitCount;
+    }
+
+    /**
+     * Amount of prefetched copies which were forgotten or not needed since the object was in memory cache
+     * @return
+     */
+    long getWasteCount(){
+        return this.wasteCount;
+    }
+}
@@ -0,0 +1,198 @@
+package com.kudoji.cman.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Reloads objects which are getting old on an executor, see TwoLevelCache.setRefreshAhead()
+ *
+ * Only the loader runs on the executor, reloaded objects wait in a queue until the cache thread puts them
+ * in place of the old ones, so the cache itself stays single-threaded. A key is reloaded once at a time,
+ * every reload gets a ticket, cancel() drops it, so an object put while it was reloaded is never overwritten.
+ * All methods but the reload task are called by the cache thread
+ */
+class Refresher<K, V> {
+    private final Function<? super K, ? extends V> loader;
+    private final Executor executor;
+    //  milliseconds
+    private final long maxAge;
+    private final long refreshAge;
+
+    //  reloads in flight or waiting in the queue
+    private final Map<K, Long> tickets = new HashMap<>();
+    private final Queue<Reload<K, V>> reloaded = new ConcurrentLinkedQueue<>();
+    private long nextTicket;
+
+    private long reloadCount;
+    private long refreshCount;
+    private long expiredLoadCount;
+
+    /**
+     * Result of one reload, object is null if loader hasn't found it or failed
+     */
+    private static final class Reload<K, V>{
+        private final long ticket;
+        private final K key;
+        private final V object;
+
+        private Reload(long ticket, K key, V object){
+            this.ticket = ticket;
+            this.key = key;
+            this.object = object;
+        }
+    }
+
+    /**
+     * @param loader
+     * @param executor
+     * @param maxAge milliseconds
+     * @param refreshFraction share of maxAge after which objects are reloaded, from 0 exclusive to 1
+     */
+    Refresher(Function<? super K, ? extends V> loader, Executor executor, long maxAge, double refreshFraction){
+        if ((loader == null) || (executor == null)){
+            throw new IllegalArgumentException("Loader and executor must be set");
+        }
+        if (maxAge <= 0){
+            throw new IllegalArgumentException("Max age must be positive");
+        }
+        if ((refreshFraction <= 0) || (refreshFraction > 1)){
+            throw new IllegalArgumentException("Refresh fraction must be greater than 0 and not greater than 1");
+        }
+
+        this.loader = loader;
+        this.executor = executor;
+        this.maxAge = maxAge;
+        this.refreshAge = (long)(maxAge * refreshFraction);
+    }
+
+    /**
+     * Object must not be returned anymore
+     * @param age milliseconds
+     * @return
+     */
+    boolean isExpired(long age){
+        return age >= this.maxAge;
+    }
+
+    /**
+     * Object could be returned but it has to be reloaded
+     * @param age milliseconds
+     * @return
+     */
+    boolean isStale(long age){
+        return age >= this.refreshAge;
+    }
+
+    /**
+     * Starts reloading of the object unless it is being reloaded
+     * @param key
+     */
+    void refresh(K key){
+        if (this.tickets.containsKey(key)){
+            return;
+        }
+
+        long ticket = this.nextTicket++;
+        this.tickets.put(key, ticket);
+
+        try{
+            this.executor.execute(() -> {
+                V object = null;
+                try{
+                    object = this.loader.apply(key);
+                }finally{
+                    //  the ticket is released even if loader failed
+                    this.reloaded.add(new Reload<>(ticket, key, object));
+                }
+            });
+            this.reloadCount++;
+        }catch (RejectedExecutionException e){
+            this.tickets.remove(key);
+        }
+    }
+
+    /**
+     * Loads expired object on the cache thread, reload in flight is not needed anymore
+     *
+     * @param key
+     * @return null if loader hasn't found the object
+     */
+    V load(K key){
+        this.tickets.remove(key);
+        this.expiredLoadCount++;
+
+        return this.loader.apply(key);
+    }
+
+    /**
+     * Takes the next reloaded object, reloads which were canceled or found nothing are skipped
+     * Object's age starts when it is polled
+     *
+     * @return null if there are no reloaded objects
+     */
+    CacheObject<K, V> poll(){
+        Reload<K, V> reload;
+
+        while ((reload = this.reloaded.poll()) != null){
+            Long ticket = this.tickets.get(reload.key);
+            if ((ticket == null) || (ticket != reload.ticket)){
+                continue;
+            }
+
+            this.tickets.remove(reload.key);
+            if (reload.object != null){
+                return new CacheObject<>(reload.key, reload.object);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Object polled before has replaced the old one
+     */
+    void onRefreshed(){
+        this.refreshCount++;
+    }
+
+    /**
+     * Object is written or deleted, its reload in flight must not reach the cache
+     * @param key
+     */
+    void cancel(K key){
+        this.tickets.remove(key);
+    }
+
+    void clear(){
+        this.tickets.clear();
+    }
+
+    /**
+     * Amount of asynchronous reloads started
+     * @return
+     */
+    long getReloadCount(){
+        return this.reloadCount;
+    }
+
+    /**
+     * Amount of objects replaced by asynchronously reloaded ones
+     * @return
+     */
+    long getRefreshCount(){
+        return this.refreshCount;
+    }
+
+    /**
+     * Amount of gets which waited for loader since object had expired
+     * @return
+     */
+    long getExpiredLoadCount(){
+        return this.expiredLoadCount;
+    }
+}
@@ -0,0 +1,266 @@
+package com.kudoji.cman.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hosts named two-level caches (regions) which share one memory and one file capacity
+ *
+ * Every region has its own key space and its own folder inside rootDir, so regions don't collide on disk.
+ * Capacity is counted in objects like everywhere else. Every region is guaranteed its minimum sizes,
+ * the rest of the budget is split by weights and then moved by rebalance() towards regions where
+ * extra capacity pays off most:
+ * * memory of a region is worth its file cache hits, more memory would have served them from memory;
+ * * file capacity of a region is worth its capacity misses, more capacity would have kept those objects.
+ * Gets are multiplied by region's weight, so hits of a heavier region are more valuable.
+ *
+ * Regions are TwoLevelCache, so they are not thread-safe, as well as the manager.
+ * rebalance() changes regions' capacities and must be called by the thread using them
+ */
+public class RegionManager {
+    //  share of the budget moved by one rebalance()
+    private static final int REBALANCE_STEP_DIVISOR = 50;
+
+    private final String rootDir;
+    private final int maxSizeMemoryCache;
+    private final int maxSizeFileCache;
+    private final Map<String, Region> regions = new LinkedHashMap<>();
+
+    /**
+     * Capacity settings and statistics of one region
+     */
+    private static final class Region{
+        private final TwoLevelCache<?, ?> cache;
+        private final int minSizeMemoryCache;
+        private final int minSizeFileCache;
+        private final double weight;
+        //  counters seen by the previous rebalance()
+        private long fileHitCount;
+        private long capacityMissCount;
+
+        private Region(TwoLevelCache<?, ?> cache, int minSizeMemoryCache, int minSizeFileCache, double weight){
+            this.cache = cache;
+            this.minSizeMemoryCache = minSizeMemoryCache;
+            this.minSizeFileCache = minSizeFileCache;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param rootDir folder which keeps folders of regions
+     * @param maxSizeMemoryCache memory capacity of all regions
+     * @param maxSizeFileCache file capacity of all regions
+     */
+    public RegionManager(String rootDir, int maxSizeMemoryCache, int maxSizeFileCache){
+        if ((maxSizeMemoryCache <= 0) || (maxSizeFileCache <= 0)){
+            throw new IllegalArgumentException("Region manager sizes must be positive");
+        }
+
+        this.rootDir = rootDir;
+        this.maxSizeMemoryCache = maxSizeMemoryCache;
+        this.maxSizeFileCache = maxSizeFileCache;
+
+        new File(rootDir).mkdirs();
+    }
+
+    public int getMaxSizeMemoryCache(){
+        return this.maxSizeMemoryCache;
+    }
+
+    public int getMaxSizeFileCache(){
+        return this.maxSizeFileCache;
+    }
+
+    /**
+     * Creates region, capacities of all regions are split again by minimums and weights
+     *
+     * @param name name of region's folder
+     * @param cacheStrategy
+     * @param minSizeMemoryCache memory capacity the region never gets below, at least 1
+     * @param minSizeFileCache file capacity the region never gets below, at least 1
+     * @param weight value of region's hits compared to other regions
+     * @return
+     */
+    public <K, V> TwoLevelCache<K, V> createRegion(String name, TwoLevelCache.CacheStrategy cacheStrategy,
+                                                   int minSizeMemoryCache, int minSizeFileCache, double weight){
+        if ((name == null) || !name.matches("[\\w.-]+") || name.equals(".") || name.equals("..")){
+            throw new IllegalArgumentException("Wrong region name: " + name);
+        }
+        if (this.regions.containsKey(name)){
+            throw new IllegalArgumentException("Region already exists: " + name);
+        }
+        if ((minSizeMemoryCache <= 0) || (minSizeFileCache <= 0)){
+            throw new IllegalArgumentException("Region minimum sizes must be positive");
+        }
+        if (weight <= 0){
+            throw new IllegalArgumentException("Region weight must be positive");
+        }
+
+        int minSizesMemoryCache = minSizeMemoryCache;
+        int minSizesFileCache = minSizeFileCache;
+        for (Region region: this.regions.values()){
+            minSizesMemoryCache += region.minSizeMemoryCache;
+            minSizesFileCache += region.minSizeFileCache;
+        }
+        if ((minSizesMemoryCache > this.maxSizeMemoryCache) || (minSizesFileCache > this.maxSizeFileCache)){
+            throw new IllegalArgumentException("Minimum sizes of regions exceed the budget");
+        }
+
+        TwoLevelCache<K, V> cache = new TwoLevelCache<>(cacheStrategy, this.rootDir + File.separator + name);
+        this.regions.put(name, new Region(cache, minSizeMemoryCache, minSizeFileCache, weight));
+        distribute();
+
+        return cache;
+    }
+
+    /**
+     * @param name
+     * @return null if there is no such region
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> TwoLevelCache<K, V> getRegion(String name){
+        Region region = this.regions.get(name);
+
+        return (region == null) ? null : (TwoLevelCache<K, V>)region.cache;
+    }
+
+    public Collection<String> getRegionNames(){
+        return new ArrayList<>(this.regions.keySet());
+    }
+
+    /**
+     * Flushes region and deletes its folder, its capacity goes to other regions
+     *
+     * @param name
+     * @return false if there is no such region
+     */
+    public boolean removeRegion(String name){
+        Region region = this.regions.remove(name);
+        if (region == null){
+            return false;
+        }
+
+        region.cache.flush();
+        new File(this.rootDir, name).delete();
+        distribute();
+
+        return true;
+    }
+
+    /**
+     * Moves a step of memory and of file capacity from the region where it is worth the least since
+     * the previous call to the region where it is worth the most. Minimum sizes are kept
+     * Should be called periodically, e.g. every few thousand gets
+     *
+     * @return true if any capacity was moved
+     */
+    public boolean rebalance(){
+        List<Region> regions = new ArrayList<>(this.regions.values());
+        double[] memoryValues = new double[regions.size()];
+        double[] fileValues = new double[regions.size()];
+
+        for (int i = 0; i < regions.size(); i++){
+            Region region = regions.get(i);
+
+            long fileHitCount = region.cache.getFileHitCount();
+            long capacityMissCount = region.cache.getCapacityMissCount();
+            memoryValues[i] = region.weight * (fileHitCount - region.fileHitCount);
+            fileValues[i] = region.weight * (capacityMissCount - region.capacityMissCount);
+            region.fileHitCount = fileHitCount;
+            region.capacityMissCount = capacityMissCount;
+        }
+
+        boolean isMemoryMoved = move(regions, memoryValues, true);
+        boolean isFileMoved = move(regions, fileValues, false);
+
+        return isMemoryMoved || isFileMoved;
+    }
+
+    /**
+     * Sets capacities of regions to their minimums plus shares of the rest of the budget by weights
+     */
+    private void distribute(){
+        if (this.regions.isEmpty()){
+            return;
+        }
+
+        double weights = 0;
+        int freeMemoryCache = this.maxSizeMemoryCache;
+        int freeFileCache = this.maxSizeFileCache;
+        for (Region region: this.regions.values()){
+            weights += region.weight;
+            freeMemoryCache -= region.minSizeMemoryCache;
+            freeFileCache -= region.minSizeFileCache;
+        }
+
+        //  rounding leftovers go to the last region
+        int restMemoryCache = this.maxSizeMemoryCache;
+        int restFileCache = this.maxSizeFileCache;
+        int i = 0;
+        for (Region region: this.regions.values()){
+            int sizeMemoryCache;
+            int sizeFileCache;
+            if (++i == this.regions.size()){
+                sizeMemoryCache = restMemoryCache;
+                sizeFileCache = restFileCache;
+            }else{
+                sizeMemoryCache = region.minSizeMemoryCache + (int)(freeMemoryCache * region.weight / weights);
+                sizeFileCache = region.minSizeFileCache + (int)(freeFileCache * region.weight / weights);
+            }
+            restMemoryCache -= sizeMemoryCache;
+            restFileCache -= sizeFileCache;
+
+            region.cache.setMaxSizeMemoryCache(sizeMemoryCache);
+            region.cache.setMaxSizeFileCache(sizeFileCache);
+        }
+    }
+
+    /**
+     * Moves a step of capacity from the least valuable region to the most valuable one
+     *
+     * @param regions
+     * @param values capacity value of every region
+     * @param isMemoryCache which capacity to move
+     * @return false if nothing is moved
+     */
+    private boolean move(List<Region> regions, double[] values, boolean isMemoryCache){
+        int step = Math.max(1, (isMemoryCache ? this.maxSizeMemoryCache : this.maxSizeFileCache)
+                / REBALANCE_STEP_DIVISOR);
+
+        int recipient = -1;
+        int donor = -1;
+        for (int i = 0; i < regions.size(); i++){
+            Region region = regions.get(i);
+            int size = isMemoryCache ? region.cache.getConfiguredMaxSizeMemoryCache() : region.cache.getMaxSizeFileCache();
+            int minSize = isMemoryCache ? region.minSizeMemoryCache : region.minSizeFileCache;
+
+            if ((recipient < 0) || (values[i] > values[recipient])){
+                recipient = i;
+            }
+            if ((size - step >= minSize) && ((donor < 0) || (values[i] < values[donor]))){
+                donor = i;
+            }
+        }
+
+        if ((donor < 0) || (donor == recipient) || (values[donor] >= values[recipient])){
+            return false;
+        }
+
+        TwoLevelCache<?, ?> from = regions.get(donor).cache;
+        TwoLevelCache<?, ?> to = regions.get(recipient).cache;
+        if (isMemoryCache){
+            //  sizes reduced under heap pressure are not moved, they are restored later
+            from.setMaxSizeMemoryCache(from.getConfiguredMaxSizeMemoryCache() - step);
+            to.setMaxSizeMemoryCache(to.getConfiguredMaxSizeMemoryCache() + step);
+        }else{
+            from.setMaxSizeFileCache(from.getMaxSizeFileCache() - step);
+            to.setMaxSizeFileCache(to.getMaxSizeFileCache() + step);
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,338 @@
+package com.kudoji.cman.cache;
+
+import com.kudoji.cman.server.CacheClient;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cache which keeps objects on a peer cache node, see CacheServer
+ * Could be used as the third level of TwoLevelCache, see TwoLevelCache.setPeerCache()
+ *
+ * Connections are pooled, every call has a timeout and a circuit breaker stops calls to a failing peer,
+ * so an unavailable peer costs a miss only. getBatch() fetches many objects by one request.
+ *
+ * Key is sent as key.toString(), keys with whitespace or longer than 250 characters are never cached remotely.
+ * Peer doesn't report size, age and frequency of objects.
+ */
+public class RemoteCache<K, V> implements Cache<K, V> {
+    private static final int MAX_KEY_LENGTH = 250;
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int DEFAULT_TIMEOUT = 200;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_TIME = 5000;
+
+    private final String host;
+    private final int port;
+    //  connect and read timeout, milliseconds
+    private final int timeout;
+    private final Function<V, byte[]> encoder;
+    private final Function<byte[], V> decoder;
+
+    private final BlockingQueue<CacheClient> idleClients;
+    //  limits amount of open connections
+    private final Semaphore connections;
+    private final CircuitBreaker circuitBreaker;
+
+    public RemoteCache(String host, int port){
+        this(host, port, DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT);
+    }
+
+    public RemoteCache(String host, int port, int maxConnections, int timeout){
+        this(host, port, maxConnections, timeout, RemoteCache::serialize, RemoteCache::deserialize);
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @param maxConnections
+     * @param timeout milliseconds
+     * @param encoder converts object to bytes sent to the peer
+     * @param decoder converts bytes received from the peer to object
+     */
+    public RemoteCache(String host, int port, int maxConnections, int timeout,
+                       Function<V, byte[]> encoder, Function<byte[], V> decoder){
+        if (maxConnections <= 0){
+            throw new IllegalArgumentException("Connection amount must be positive");
+        }
+
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.idleClients = new ArrayBlockingQueue<>(maxConnections);
+        this.connections = new Semaphore(maxConnections);
+        this.circuitBreaker = new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+    }
+
+    @Override
+    public boolean put(K key, V object){
+        String remoteKey = toRemoteKey(key);
+        if (remoteKey == null){
+            return false;
+        }
+
+        Boolean result = call(client -> client.set(remoteKey, this.encoder.apply(object)));
+
+        return Boolean.TRUE.equals(result);
+    }
+
+    @Override
+    public boolean put(CacheObject<K, V> cacheObject){
+        return put(cacheObject.getKey(), cacheObject.getObject());
+    }
+
+    @Override
+    public V get(K key){
+        String remoteKey = toRemoteKey(key);
+        if (remoteKey == null){
+            return null;
+        }
+
+        byte[] bytes = call(client -> client.get(remoteKey));
+
+        return (bytes == null) ? null : this.decoder.apply(bytes);
+    }
+
+    /**
+     * Gets many objects by one request
+     * @param keys
+     * @return found objects only
+     */
+    public Map<K, V> getBatch(Collection<K> keys){
+        Map<String, K> remoteKeys = new HashMap<>();
+        for (K key: keys){
+            String remoteKey = toRemoteKey(key);
+            if (remoteKey != null){
+                remoteKeys.put(remoteKey, key);
+            }
+        }
+
+        Map<K, V> result = new HashMap<>();
+        if (remoteKeys.isEmpty()){
+            return result;
+        }
+
+        Map<String, byte[]> values = call(client -> client.getMulti(remoteKeys.keySet()));
+        if (values != null){
+            for (Map.Entry<String, byte[]> entry: values.entrySet()){
+                result.put(remoteKeys.get(entry.getKey()), this.decoder.apply(entry.getValue()));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean delete(K key){
+        String remoteKey = toRemoteKey(key);
+        if (remoteKey == null){
+            return false;
+        }
+
+        Boolean result = call(client -> client.delete(remoteKey));
+
+        return Boolean.TRUE.equals(result);
+    }
+
+    @Override
+    public void flush(){
+        call(client -> {
+            client.flushAll();
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * Peer doesn't report its size
+     * @return always 0
+     */
+    @Override
+    public int size(){
+        return 0;
+    }
+
+    /**
+     * Peer manages its capacity itself
+     * @return always 0
+     */
+    @Override
+    public int getMaxSize(){
+        return 0;
+    }
+
+    @Override
+    public void setMaxSize(int maxSize){
+        if (maxSize < 0){
+            throw new IllegalArgumentException("Remote cache maximum size must not be negative");
+        }
+    }
+
+    /**
+     * Peer's objects cannot be listed
+     * @return empty list
+     */
+    @Override
+    public List<CacheObject<K, V>> getAll(){
+        return new ArrayList<>();
+    }
+
+    @Override
+    public boolean isKeyPresent(K key){
+        return get(key) != null;
+    }
+
+    @Override
+    public long getAge(K key){
+        return -1;
+    }
+
+    @Override
+    public int getFrequency(K key){
+        return -1;
+    }
+
+    @Override
+    public CacheObject<K, V> getCacheObject(K key){
+        V object = get(key);
+
+        return (object == null) ? null : new CacheObject<>(key, object);
+    }
+
+    @Override
+    public boolean isFull(){
+        return false;
+    }
+
+    /**
+     * Checks whether calls to the peer are stopped due to failures
+     * @return
+     */
+    public boolean isCircuitOpen(){
+        return this.circuitBreaker.isOpen();
+    }
+
+    /**
+     * Closes idle connections
+     */
+    public void close(){
+        CacheClient client;
+        while ((client = this.idleClients.poll()) != null){
+            closeQuietly(client);
+        }
+    }
+
+    /**
+     * Runs request with pooled connection
+     *
+     * @param request
+     * @return request's result or null in case of any error
+     */
+    private <T> T call(RemoteRequest<T> request){
+        if (!this.circuitBreaker.allowRequest()){
+            return null;
+        }
+
+        CacheClient client = null;
+        boolean isAcquired = false;
+
+        try{
+            isAcquired = this.connections.tryAcquire(this.timeout, TimeUnit.MILLISECONDS);
+            if (!isAcquired){
+                //  pool is exhausted, peer is too slow
+                this.circuitBreaker.recordFailure();
+                return null;
+            }
+
+            client = this.idleClients.poll();
+            if (client == null){
+                client = new CacheClient(this.host, this.port, this.timeout);
+            }
+
+            T result = request.execute(client);
+            this.circuitBreaker.recordSuccess();
+
+            this.idleClients.offer(client);
+            client = null;
+
+            return result;
+        }catch (IOException e){
+            this.circuitBreaker.recordFailure();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            this.circuitBreaker.recordFailure();
+        }catch (RuntimeException e){
+            //  e.g. encoder failed, a half-open trial must end anyway
+            e.printStackTrace();
+            this.circuitBreaker.recordFailure();
+        }finally{
+            if (client != null){
+                //  connection state is unknown after an error
+                closeQuietly(client);
+            }
+            if (isAcquired){
+                this.connections.release();
+            }
+        }
+
+        return null;
+    }
+
+    private String toRemoteKey(K key){
+        String remoteKey = key.toString();
+        if (remoteKey.isEmpty() || (remoteKey.length() > MAX_KEY_LENGTH)){
+            return null;
+        }
+
+        for (int i = 0; i < remoteKey.length(); i++){
+            if (remoteKey.charAt(i) <= ' ' || (remoteKey.charAt(i) > '~')){
+                return null;
+            }
+        }
+
+        return remoteKey;
+    }
+
+    private static void closeQuietly(CacheClient client){
+        try{
+            client.close();
+        }catch (IOException e){
+            //  nothing to do
+        }
+    }
+
+    private static <V> byte[] serialize(V object){
+        try{
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(object);
+            oos.close();
+
+            return bos.toByteArray();
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V deserialize(byte[] bytes){
+        try{
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+
+            return (V)ois.readObject();
+        }catch (IOException | ClassNotFoundException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private interface RemoteRequest<T>{
+        T execute(CacheClient client) throws IOException;
+    }
+}
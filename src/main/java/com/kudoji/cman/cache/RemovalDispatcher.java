@@ -0,0 +1,97 @@
+package com.kudoji.cman.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers removal notifications to RemovalListener in batches on an executor
+ *
+ * Cache only offers notification to a bounded queue, so removals never wait for listener code.
+ * At most one drain task is scheduled at a time, it keeps delivering batches until the queue is empty.
+ * Notifications which don't fit the queue are dropped and counted. Thread-safe, segments share one dispatcher
+ */
+class RemovalDispatcher<K, V> {
+    static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final int BATCH_SIZE = 256;
+
+    private final RemovalListener<K, V> listener;
+    private final Executor executor;
+    private final BlockingQueue<RemovalNotification<K, V>> queue;
+    private final AtomicBoolean isScheduled = new AtomicBoolean();
+    private final LongAdder droppedCount = new LongAdder();
+
+    RemovalDispatcher(RemovalListener<K, V> listener, Executor executor, int queueCapacity){
+        if ((listener == null) || (executor == null)){
+            throw new IllegalArgumentException("Listener and executor must be set");
+        }
+
+        this.listener = listener;
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Queues notification, never blocks
+     *
+     * @param key
+     * @param object null if it is not known
+     * @param cause
+     */
+    void notify(K key, V object, RemovalNotification.Cause cause){
+        if (!this.queue.offer(new RemovalNotification<>(key, object, cause))){
+            this.droppedCount.increment();
+            return;
+        }
+
+        schedule();
+    }
+
+    /**
+     * Amount of notifications dropped since the queue was full
+     * @return
+     */
+    long getDroppedCount(){
+        return this.droppedCount.sum();
+    }
+
+    private void schedule(){
+        if (!this.isScheduled.compareAndSet(false, true)){
+            return;
+        }
+
+        try{
+            this.executor.execute(this::drain);
+        }catch (RejectedExecutionException e){
+            //  queued notifications are delivered by the next schedule
+            this.isScheduled.set(false);
+        }
+    }
+
+    private void drain(){
+        try{
+            List<RemovalNotification<K, V>> batch = new ArrayList<>(BATCH_SIZE);
+            while (this.queue.drainTo(batch, BATCH_SIZE) > 0){
+                try{
+                    this.listener.onRemoval(batch);
+                }catch (RuntimeException e){
+                    e.printStackTrace();
+                }
+                //  listener could keep the batch
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }finally{
+            this.isScheduled.set(false);
+        }
+
+        //  notification could be queued after the last drainTo() but before the flag is reset
+        if (!this.queue.isEmpty()){
+            schedule();
+        }
+    }
+}
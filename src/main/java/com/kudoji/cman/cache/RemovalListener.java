@@ -0,0 +1,16 @@
+package com.kudoji.cman.cache;
+
+import java.util.List;
+
+/**
+ * Receives objects removed from the cache, see TwoLevelCache.setRemovalListener()
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+    /**
+     * Is called from listener executor, batches of one cache are delivered one at a time in removal order
+     *
+     * @param notifications
+     */
+    void onRemoval(List<RemovalNotification<K, V>> notifications);
+}
@@ -0,0 +1,53 @@
+package com.kudoji.cman.cache;
+
+/**
+ * Object which has left the cache or its memory level, see RemovalListener
+ */
+public final class RemovalNotification<K, V> {
+    /**
+     * Why object is removed:
+     * * EXPLICIT: object is deleted by delete() or compute methods;
+     * * REPLACED: object is overwritten by put() or compute methods;
+     * * EVICTED: object is dropped because cache is full or its capacity is reduced;
+     * * DEMOTED: object is moved from memory cache to file cache, it is still cached;
+     * * EXPIRED: object is older than max age of refresh-ahead and loader hasn't found it;
+     */
+    public enum Cause{
+        EXPLICIT,
+        REPLACED,
+        EVICTED,
+        DEMOTED,
+        EXPIRED
+    }
+
+    private final K key;
+    private final V object;
+    private final Cause cause;
+
+    RemovalNotification(K key, V object, Cause cause){
+        this.key = key;
+        this.object = object;
+        this.cause = cause;
+    }
+
+    public K getKey(){
+        return this.key;
+    }
+
+    /**
+     * Removed object, null if it was removed from file cache without being read
+     * @return
+     */
+    public V getObject(){
+        return this.object;
+    }
+
+    public Cause getCause(){
+        return this.cause;
+    }
+
+    @Override
+    public String toString(){
+        return this.key + " " + this.cause;
+    }
+}
@@ -0,0 +1,661 @@
+package com.kudoji.cman.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Thread-safe two-level cache which hash-partitions keys across independent segments
+ *
+ * Every segment is a TwoLevelCache with its own memory and file caches (file cache of segment i is stored
+ * in cacheDir-i) and its own lock, so threads working with different segments don't block each other.
+ * Capacity is split between segments evenly, cache strategy is applied to all segments in parallel.
+ *
+ * putIfAbsent, computeIfAbsent, compute, merge and replace are atomic: writes of a key are serialized
+ * by striped key locks, so functions run once per key and outside the segment lock.
+ */
+public class SegmentedTwoLevelCache<K, V> implements Cache<K, V> {
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final String DEFAULT_CACHE_DIR = ".cache";
+    private static final int KEY_LOCKS_PER_SEGMENT = 16;
+
+    private final TwoLevelCache<K, V>[] segments;
+    //  size of every segment, it is updated under the segment lock after every change, so size() doesn't lock
+    private final AtomicIntegerArray sizes;
+    //  runs cache strategy for segments
+    private final ForkJoinPool pool;
+    //  key writes are serialized by these, the amount is power of two
+    private final ReentrantLock[] keyLocks;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    //  shared by segments, null if nobody listens to removals
+    private volatile RemovalDispatcher<K, V> removalDispatcher;
+
+    /**
+     * Default constructor
+     */
+    public SegmentedTwoLevelCache(){
+        this(DEFAULT_SEGMENTS, TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY, DEFAULT_CACHE_DIR, ForkJoinPool.commonPool());
+    }
+
+    public SegmentedTwoLevelCache(int segmentCount, TwoLevelCache.CacheStrategy cacheStrategy){
+        this(segmentCount, cacheStrategy, DEFAULT_CACHE_DIR, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param segmentCount
+     * @param cacheStrategy
+     * @param cacheDir prefix of segments' file cache folders
+     * @param pool pool to apply cache strategy in
+     */
+    public SegmentedTwoLevelCache(int segmentCount, TwoLevelCache.CacheStrategy cacheStrategy,
+                                  String cacheDir, ForkJoinPool pool){
+        this(segmentCount, i -> new TwoLevelCache<>(cacheStrategy, cacheDir + "-" + i), pool);
+    }
+
+    /**
+     * Creates cache which file levels are striped over folders, see StripedFileCache
+     * Every segment keeps its objects in segment-i sub folders, segments share I/O queues of the folders
+     *
+     * @param segmentCount
+     * @param cacheStrategy
+     * @param cacheDirs folders of file caches, one per device
+     * @param weights share of objects of every folder, null means equal weights
+     * @param pool pool to apply cache strategy in
+     */
+    public SegmentedTwoLevelCache(int segmentCount, TwoLevelCache.CacheStrategy cacheStrategy,
+                                  String[] cacheDirs, double[] weights, ForkJoinPool pool){
+        this(segmentCount, stripedSegments(cacheStrategy, DiskStripe.of(cacheDirs, weights)), pool);
+    }
+
+    private SegmentedTwoLevelCache(int segmentCount, IntFunction<TwoLevelCache<K, V>> segmentFactory, ForkJoinPool pool){
+        if (segmentCount <= 0){
+            throw new IllegalArgumentException("Segment count must be positive");
+        }
+
+        @SuppressWarnings("unchecked")
+        TwoLevelCache<K, V>[] segments = (TwoLevelCache<K, V>[])new TwoLevelCache<?, ?>[segmentCount];
+        this.segments = segments;
+        for (int i = 0; i < segmentCount; i++){
+            this.segments[i] = segmentFactory.apply(i);
+        }
+        this.sizes = new AtomicIntegerArray(segmentCount);
+        for (int i = 0; i < segmentCount; i++){
+            countSize(i);
+        }
+
+        this.pool = pool;
+
+        this.keyLocks = new ReentrantLock[Integer.highestOneBit(segmentCount * KEY_LOCKS_PER_SEGMENT - 1) << 1];
+        for (int i = 0; i < this.keyLocks.length; i++){
+            this.keyLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private static <K, V> IntFunction<TwoLevelCache<K, V>> stripedSegments(TwoLevelCache.CacheStrategy cacheStrategy,
+                                                                          DiskStripe[] disks){
+        return i -> new TwoLevelCache<>(new MemoryCache<>(), new StripedFileCache<>(disks, "segment-" + i), cacheStrategy);
+    }
+
+    public int getSegmentCount(){
+        return this.segments.length;
+    }
+
+    @Override
+    public boolean put(K key, V object){
+        int index = segmentIndexFor(key);
+        TwoLevelCache<K, V> segment = this.segments[index];
+        ReentrantLock keyLock = keyLockFor(key);
+
+        keyLock.lock();
+        try{
+            synchronized (segment){
+                boolean result = segment.put(key, object);
+                countSize(index);
+
+                return result;
+            }
+        }finally{
+            keyLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean put(CacheObject<K, V> cacheObject){
+        int index = segmentIndexFor(cacheObject.getKey());
+        TwoLevelCache<K, V> segment = this.segments[index];
+        ReentrantLock keyLock = keyLockFor(cacheObject.getKey());
+
+        keyLock.lock();
+        try{
+            synchronized (segment){
+                boolean result = segment.put(cacheObject);
+                countSize(index);
+
+                return result;
+            }
+        }finally{
+            keyLock.unlock();
+        }
+    }
+
+    @Override
+    public V get(K key){
+        int index = segmentIndexFor(key);
+        TwoLevelCache<K, V> segment = this.segments[index];
+        V result;
+
+        synchronized (segment){
+            //  peer hits, expired and prefetched objects change the size too
+            result = segment.get(key);
+            countSize(index);
+        }
+
+        if (result == null){
+            this.missCount.increment();
+        }else{
+            this.hitCount.increment();
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean delete(K key){
+        int index = segmentIndexFor(key);
+        TwoLevelCache<K, V> segment = this.segments[index];
+        ReentrantLock keyLock = keyLockFor(key);
+
+        keyLock.lock();
+        try{
+            synchronized (segment){
+                boolean result = segment.delete(key);
+                countSize(index);
+
+                return result;
+            }
+        }finally{
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * Sets deduplication for all segments, see TwoLevelCache.setDeduplicated()
+     * Every segment has its own folder, so equal objects are stored once per segment
+     *
+     * @param isDeduplicated
+     */
+    public void setDeduplicated(boolean isDeduplicated){
+        for (TwoLevelCache<K, V> segment: this.segments){
+            synchronized (segment){
+                segment.setDeduplicated(isDeduplicated);
+            }
+        }
+    }
+
+    /**
+     * Sets large value mode for all segments, see TwoLevelCache.setLargeValueThreshold()
+     * @param threshold bytes, zero turns the mode off
+     */
+    public void setLargeValueThreshold(int threshold){
+        for (TwoLevelCache<K, V> segment: this.segments){
+            synchronized (segment){
+                segment.setLargeValueThreshold(threshold);
+            }
+        }
+    }
+
+    /**
+     * Stores bytes read from the stream as byte[] object, see TwoLevelCache.putStream()
+     * The stream is read without the segment lock, so other keys of the segment are not blocked
+     *
+     * @param key
+     * @param in
+     * @return
+     */
+    public boolean putStream(K key, InputStream in){
+        int index = segmentIndexFor(key);
+        TwoLevelCache<K, V> segment = this.segments[index];
+        ReentrantLock keyLock = keyLockFor(key);
+        File tmpFile = null;
+
+        keyLock.lock();
+        try{
+            tmpFile = segment.writeStream(key, in);
+
+            synchronized (segment){
+                if (segment.putStreamFile(key, tmpFile)){
+                    tmpFile = null;
+                    countSize(index);
+                    return true;
+                }
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            keyLock.unlock();
+
+            if (tmpFile != null){
+                tmpFile.delete();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * See TwoLevelCache.getStream(), the object is read without the segment lock
+     * @param key
+     * @return
+     */
+    public InputStream getStream(K key){
+        TwoLevelCache<K, V> segment = segmentFor(key);
+
+        synchronized (segment){
+            return segment.getStream(key);
+        }
+    }
+
+    /**
+     * See TwoLevelCache.get(key, offset, length)
+     *
+     * @param key
+     * @param offset
+     * @param length
+     * @return
+     */
+    public byte[] get(K key, long offset, int length){
+        TwoLevelCache<K, V> segment = segmentFor(key);
+
+        synchronized (segment){
+            return segment.get(key, offset, length);
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V object){
+        return update(key, (k, current) -> (current == null) ? object : current, true);
+    }
+
+    /**
+     * Concurrent calls for the same key wait for the first one, so mapping runs once
+     *
+     * @param key
+     * @param mapping
+     * @return cached or computed object
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping){
+        return update(key, (k, current) -> (current == null) ? mapping.apply(k) : current, false);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping){
+        return update(key, remapping, false);
+    }
+
+    @Override
+    public V merge(K key, V object, BiFunction<? super V, ? super V, ? extends V> remapping){
+        return update(key, (k, current) -> (current == null) ? object : remapping.apply(current, object), false);
+    }
+
+    @Override
+    public V replace(K key, V object){
+        return update(key, (k, current) -> (current == null) ? null : object, true);
+    }
+
+    @Override
+    public boolean replace(K key, V oldObject, V newObject){
+        V current = update(key, (k, object) -> ((object != null) && object.equals(oldObject)) ? newObject : object, true);
+
+        return (current != null) && current.equals(oldObject);
+    }
+
+    @Override
+    public void flush(){
+        for (int i = 0; i < this.segments.length; i++){
+            TwoLevelCache<K, V> segment = this.segments[i];
+
+            synchronized (segment){
+                segment.flush();
+                countSize(i);
+            }
+        }
+    }
+
+    /**
+     * Calculates total cache size, segments are not locked
+     * @return sum of segments' sizes
+     */
+    @Override
+    public int size(){
+        int size = 0;
+
+        for (int i = 0; i < this.sizes.length(); i++){
+            size += this.sizes.get(i);
+        }
+
+        return size;
+    }
+
+    @Override
+    public int getMaxSize(){
+        return getMaxSizeMemoryCache() + getMaxSizeFileCache();
+    }
+
+    public int getMaxSizeMemoryCache(){
+        int maxSize = 0;
+
+        for (TwoLevelCache<K, V> segment: this.segments){
+            synchronized (segment){
+                maxSize += segment.getMaxSizeMemoryCache();
+            }
+        }
+
+        return maxSize;
+    }
+
+    public int getMaxSizeFileCache(){
+        int maxSize = 0;
+
+        for (TwoLevelCache<K, V> segment: this.segments){
+            synchronized (segment){
+                maxSize += segment.getMaxSizeFileCache();
+            }
+        }
+
+        return maxSize;
+    }
+
+    /**
+     * Sets max capacity for both caches, it is split between segments
+     * Each segment gets at least 2 objects, so the total could be a bit bigger than value
+     * @param value
+     */
+    @Override
+    public void setMaxSize(int value){
+        if (value <= 0){
+            throw new IllegalArgumentException("Two-level cache size must not be negative");
+        }
+
+        for (int i = 0; i < this.segments.length; i++){
+            TwoLevelCache<K, V> segment = this.segments[i];
+
+            synchronized (segment){
+                segment.setMaxSize(Math.max(shareOf(value, i), 2));
+                countSize(i);
+            }
+        }
+    }
+
+    public void setMaxSizeMemoryCache(int value){
+        if (value < 0){
+            throw new IllegalArgumentException("Memory cache size must not be negative");
+        }
+
+        for (int i = 0; i < this.segments.length; i++){
+            TwoLevelCache<K, V> segment = this.segments[i];
+
+            synchronized (segment){
+                //  zero means unlimited, thus a segment gets at least one object of limited cache
+                segment.setMaxSizeMemoryCache((value == 0) ? 0 : Math.max(shareOf(value, i), 1));
+                countSize(i);
+            }
+        }
+    }
+
+    public void setMaxSizeFileCache(int value){
+        if (value < 0){
+            throw new IllegalArgumentException("File cache maximum size must not be negative");
+        }
+
+        for (int i = 0; i < this.segments.length; i++){
+            TwoLevelCache<K, V> segment = this.segments[i];
+
+            synchronized (segment){
+                segment.setMaxSizeFileCache((value == 0) ? 0 : Math.max(shareOf(value, i), 1));
+                countSize(i);
+            }
+        }
+    }
+
+    @Override
+    public List<CacheObject<K, V>> getAll(){
+        List<CacheObject<K, V>> result = new ArrayList<>();
+
+        for (TwoLevelCache<K, V> segment: this.segments){
+            synchronized (segment){
+                result.addAll(segment.getAll());
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean isKeyPresent(K key){
+        TwoLevelCache<K, V> segment = segmentFor(key);
+
+        synchronized (segment){
+            return segment.isKeyPresent(key);
+        }
+    }
+
+    @Override
+    public long getAge(K key){
+        TwoLevelCache<K, V> segment = segmentFor(key);
+
+        synchronized (segment){
+            return segment.getAge(key);
+        }
+    }
+
+    @Override
+    public int getFrequency(K key){
+        TwoLevelCache<K, V> segment = segmentFor(key);
+
+        synchronized (segment){
+            return segment.getFrequency(key);
+        }
+    }
+
+    @Override
+    public CacheObject<K, V> getCacheObject(K key){
+        TwoLevelCache<K, V> segment = segmentFor(key);
+
+        synchronized (segment){
+            return segment.getCacheObject(key);
+        }
+    }
+
+    /**
+     * Cache is full when all segments are
+     * @return
+     */
+    @Override
+    public boolean isFull(){
+        for (TwoLevelCache<K, V> segment: this.segments){
+            synchronized (segment){
+                if (!segment.isFull()){
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public TwoLevelCache.ObjectLocation getLocation(K key){
+        TwoLevelCache<K, V> segment = segmentFor(key);
+
+        synchronized (segment){
+            return segment.getLocation(key);
+        }
+    }
+
+    public long getHitCount(){
+        return this.hitCount.sum();
+    }
+
+    public long getMissCount(){
+        return this.missCount.sum();
+    }
+
+    /**
+     * Sets listener of removals from all segments, see TwoLevelCache.setRemovalListener()
+     * Segments share one queue, so batches are delivered one at a time
+     *
+     * @param listener null removes it
+     * @param executor
+     */
+    public void setRemovalListener(RemovalListener<K, V> listener, Executor executor){
+        RemovalDispatcher<K, V> dispatcher = null;
+        if (listener != null){
+            dispatcher = new RemovalDispatcher<>(listener, executor, RemovalDispatcher.DEFAULT_QUEUE_CAPACITY);
+        }
+
+        this.removalDispatcher = dispatcher;
+        for (TwoLevelCache<K, V> segment: this.segments){
+            synchronized (segment){
+                segment.setRemovalDispatcher(dispatcher);
+            }
+        }
+    }
+
+    public long getDroppedRemovalCount(){
+        RemovalDispatcher<K, V> dispatcher = this.removalDispatcher;
+
+        return (dispatcher == null) ? 0 : dispatcher.getDroppedCount();
+    }
+
+    /**
+     * Sets cache strategy for all segments and applies it
+     *
+     * @param cacheStrategy
+     */
+    public void setCacheStrategy(TwoLevelCache.CacheStrategy cacheStrategy){
+        forEachSegmentInParallel(segment -> segment.setCacheStrategy(cacheStrategy));
+    }
+
+    /**
+     * Applies current cache strategy to all segments in parallel
+     * Only the segment being rebalanced is locked
+     */
+    public void applyCacheStrategy(){
+        forEachSegmentInParallel(TwoLevelCache::applyCacheStrategy);
+    }
+
+    private void forEachSegmentInParallel(Consumer<TwoLevelCache<K, V>> action){
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(this.segments.length);
+
+        for (int i = 0; i < this.segments.length; i++){
+            TwoLevelCache<K, V> segment = this.segments[i];
+            int index = i;
+
+            tasks.add(this.pool.submit(() -> {
+                synchronized (segment){
+                    action.accept(segment);
+                    countSize(index);
+                }
+            }));
+        }
+
+        for (ForkJoinTask<?> task: tasks){
+            task.join();
+        }
+    }
+
+    /**
+     * Splits value between segments, first segments get the remainder
+     *
+     * @param value
+     * @param segment
+     * @return
+     */
+    private int shareOf(int value, int segment){
+        int share = value / this.segments.length;
+
+        return (segment < value % this.segments.length) ? share + 1 : share;
+    }
+
+    /**
+     * Looks the key up, applies remapping outside the segment lock and stores its result,
+     * the whole operation holds the key's lock
+     *
+     * @param key
+     * @param remapping returns the same object to leave the key untouched
+     * @param isPreviousReturned whether previous object is returned instead of the new one
+     * @return
+     */
+    private V update(K key, BiFunction<? super K, ? super V, ? extends V> remapping, boolean isPreviousReturned){
+        int index = segmentIndexFor(key);
+        TwoLevelCache<K, V> segment = this.segments[index];
+        ReentrantLock keyLock = keyLockFor(key);
+
+        keyLock.lock();
+        try{
+            TwoLevelCache.Lookup<V> lookup;
+            synchronized (segment){
+                lookup = segment.lookup(key);
+            }
+
+            if (lookup.object == null){
+                this.missCount.increment();
+            }else{
+                this.hitCount.increment();
+            }
+
+            V object = remapping.apply(key, lookup.object);
+            if (object != lookup.object){
+                synchronized (segment){
+                    //  the key could have moved between tiers while the segment was unlocked, store() checks it
+                    segment.store(key, lookup, object);
+                    countSize(index);
+                }
+            }
+
+            return isPreviousReturned ? lookup.object : object;
+        }finally{
+            keyLock.unlock();
+        }
+    }
+
+    private ReentrantLock keyLockFor(K key){
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+
+        return this.keyLocks[h & (this.keyLocks.length - 1)];
+    }
+
+    private TwoLevelCache<K, V> segmentFor(K key){
+        return this.segments[segmentIndexFor(key)];
+    }
+
+    private int segmentIndexFor(K key){
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+
+        return Math.floorMod(h * 0x9e3779b9, this.segments.length);
+    }
+
+    /**
+     * Remembers size of the segment, its lock must be held
+     * @param index
+     */
+    private void countSize(int index){
+        this.sizes.set(index, this.segments[index].size());
+    }
+}
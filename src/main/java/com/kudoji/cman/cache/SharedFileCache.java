@@ -0,0 +1,353 @@
+package com.kudoji.cman.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * File cache which can be shared by several processes (JVMs) on one host
+ *
+ * Objects are published by atomic rename of a temp file, so readers never see a torn file and don't lock anything.
+ * Entry count, total size of files and max size live in a memory-mapped header file (cacheDir.header)
+ * which all processes share. Changes of the directory go under an exclusive FileChannel lock of the header,
+ * so all processes stay within one capacity bound and size() doesn't list the directory.
+ * A process which dies in the middle of a change leaves the header marked dirty, the next cache opened
+ * over the folder recounts it.
+ *
+ * Since FileChannel locks belong to the whole JVM, caches of one JVM over the same folder also share
+ * one in-process lock.
+ *
+ * Frequency is not saved to files by default: every reader would rewrite the same file.
+ */
+public class SharedFileCache<K, V> extends FileCache<K, V> {
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC = 0x434d414e;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int MAX_SIZE_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final int BYTES_OFFSET = 16;
+    //  non-zero while a process changes the folder and the header, see beginUpdate()
+    private static final int DIRTY_OFFSET = 24;
+
+    //  header path -> in-process lock
+    private static final ConcurrentMap<String, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final FileChannel headerChannel;
+    private final MappedByteBuffer header;
+    private final ReentrantLock localLock;
+
+    public SharedFileCache(){
+        this(".cache");
+    }
+
+    public SharedFileCache(String cacheDir){
+        super(cacheDir);
+
+        super.setDurability(Durability.ATOMIC);
+        setFrequencyPersisted(false);
+
+        File headerFile = new File(cacheDir + ".header");
+        try{
+            this.localLock = LOCAL_LOCKS.computeIfAbsent(headerFile.getCanonicalPath(), path -> new ReentrantLock());
+            this.headerChannel = FileChannel.open(headerFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.header = this.headerChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+            FileLock fileLock = lock();
+            try{
+                if ((this.header.getInt(MAGIC_OFFSET) != MAGIC) || (this.header.getInt(DIRTY_OFFSET) != 0)){
+                    //  the first process on the folder builds the header, a dirty one is left by a dead process
+                    rebuildHeader();
+                }
+            }finally{
+                unlock(fileLock);
+            }
+        }catch (IOException e){
+            throw new UncheckedIOException("Cannot open shared file cache header " + headerFile, e);
+        }
+    }
+
+    /**
+     * Shared cache must publish objects atomically, the journal is per process, so ATOMIC is the only option
+     *
+     * @param durability
+     */
+    @Override
+    public void setDurability(Durability durability){
+        if (durability != Durability.ATOMIC){
+            throw new IllegalArgumentException("Shared file cache supports ATOMIC durability only");
+        }
+    }
+
+    /**
+     * Other processes add files the filter doesn't know about, so Bloom filter is not supported
+     *
+     * @param falsePositiveRate
+     */
+    @Override
+    public void setBloomFilterFalsePositiveRate(double falsePositiveRate){
+        if (falsePositiveRate != 0){
+            throw new IllegalArgumentException("Shared file cache doesn't support Bloom filter");
+        }
+    }
+
+    /**
+     * Blob reference counts live in the process, other processes would delete blobs still referenced,
+     * so deduplication is not supported
+     *
+     * @param isDeduplicated
+     */
+    @Override
+    public void setDeduplicated(boolean isDeduplicated){
+        if (isDeduplicated){
+            throw new IllegalArgumentException("Shared file cache doesn't support deduplication");
+        }
+    }
+
+    @Override
+    boolean putToFile(String fileName, CacheObject<K, V> cacheObject){
+        if (isLargeValue(cacheObject.peekObject())){
+            return putStreamToFile(fileName, cacheObject, new ByteArrayInputStream((byte[])cacheObject.peekObject()));
+        }
+
+        File tmpFile = null;
+
+        try{
+            //  the slow part is done without the lock
+            tmpFile = writeTmpFile(new File(fileName), serializeObject(cacheObject));
+            if (putTmpFile(fileName, tmpFile)){
+                tmpFile = null;
+                return true;
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            if (tmpFile != null){
+                tmpFile.delete();
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    boolean putTmpFile(String fileName, File tmpFile) throws IOException{
+        File file = new File(fileName);
+
+        FileLock fileLock = lock();
+        try{
+            boolean isNew = !file.exists();
+            long oldLength = file.length();
+
+            if (isNew && isFull()){
+                //  cannot add new value due to cache max size
+                return false;
+            }
+
+            beginUpdate();
+            Files.move(tmpFile.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            addToHeader(isNew ? 1 : 0, file.length() - oldLength);
+            endUpdate();
+        }finally{
+            unlock(fileLock);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean delete(K key){
+        File file = new File(getFileName(key));
+
+        try{
+            FileLock fileLock = lock();
+            try{
+                long length = file.length();
+                beginUpdate();
+                if (!file.delete()){
+                    endUpdate();
+                    return false;
+                }
+
+                addToHeader(-1, -length);
+                endUpdate();
+            }finally{
+                unlock(fileLock);
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void flush(){
+        try{
+            FileLock fileLock = lock();
+            try{
+                beginUpdate();
+                super.flush();
+                rebuildHeader();
+            }finally{
+                unlock(fileLock);
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns entry count of all processes from the header
+     * @return
+     */
+    @Override
+    public int size(){
+        return (int)this.header.getLong(COUNT_OFFSET);
+    }
+
+    /**
+     * Total size of cached files in bytes
+     * @return
+     */
+    public long getTotalBytes(){
+        return this.header.getLong(BYTES_OFFSET);
+    }
+
+    @Override
+    public int getMaxSize(){
+        return this.header.getInt(MAX_SIZE_OFFSET);
+    }
+
+    /**
+     * Sets max size for all processes sharing the folder
+     * @param maxSize
+     */
+    @Override
+    public void setMaxSize(int maxSize){
+        if (maxSize < 0){
+            throw new IllegalArgumentException("File cache maximum size must not be negative");
+        }
+
+        try{
+            FileLock fileLock = lock();
+            try{
+                this.header.putInt(MAX_SIZE_OFFSET, maxSize);
+
+                if ((maxSize > 0) && (size() > maxSize)){
+                    //  delete all object that are out of bound
+                    File[] files = new File(getCacheDir()).listFiles();
+                    beginUpdate();
+                    for (int i = maxSize; i < files.length; i++){
+                        long length = files[i].length();
+                        CacheObject<K, V> evicted = readEvicted(files[i]);
+                        if (files[i].delete()){
+                            addToHeader(-1, -length);
+                            notifyEvicted(evicted);
+                        }
+                    }
+                    endUpdate();
+                }
+            }finally{
+                unlock(fileLock);
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isFull(){
+        int maxSize = getMaxSize();
+
+        return (maxSize > 0) && (size() >= maxSize);
+    }
+
+    /**
+     * Recounts entries and bytes in the folder, e.g. after a process died in the middle of an update
+     * Lock must be held
+     */
+    private void rebuildHeader(){
+        long count = 0;
+        long bytes = 0;
+
+        File[] files = new File(getCacheDir()).listFiles();
+        if (files != null){
+            for (File f: files){
+                count++;
+                bytes += f.length();
+            }
+        }
+
+        this.header.putLong(COUNT_OFFSET, count);
+        this.header.putLong(BYTES_OFFSET, bytes);
+        this.header.putInt(MAGIC_OFFSET, MAGIC);
+        endUpdate();
+    }
+
+    /**
+     * Marks the header dirty before the folder is changed, lock must be held
+     * Counts of a process which dies before endUpdate() are not trusted by caches opened later
+     */
+    private void beginUpdate(){
+        this.header.putInt(DIRTY_OFFSET, 1);
+    }
+
+    /**
+     * Folder and the header agree again, lock must be held
+     */
+    private void endUpdate(){
+        this.header.putInt(DIRTY_OFFSET, 0);
+    }
+
+    /**
+     * Lock must be held
+     */
+    private void addToHeader(long count, long bytes){
+        this.header.putLong(COUNT_OFFSET, this.header.getLong(COUNT_OFFSET) + count);
+        this.header.putLong(BYTES_OFFSET, this.header.getLong(BYTES_OFFSET) + bytes);
+    }
+
+    /**
+     * Takes in-process lock, then inter-process one
+     *
+     * @return
+     * @throws IOException
+     */
+    private FileLock lock() throws IOException{
+        this.localLock.lock();
+
+        try{
+            return this.headerChannel.lock();
+        }catch (IOException | RuntimeException e){
+            this.localLock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlock(FileLock fileLock) throws IOException{
+        try{
+            fileLock.release();
+        }finally{
+            this.localLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        this.headerChannel.close();
+    }
+}
@@ -0,0 +1,580 @@
+package com.kudoji.cman.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * File cache spread over several directories, ideally on different devices, so reads and writes
+ * use bandwidth of all devices
+ *
+ * Every directory is a FileCache of its own (a stripe) with its own journal, temp and blob folders.
+ * Directories of a key are ordered by weighted rendezvous hashing: a key goes to the first directory,
+ * weight sets the share of keys and of max size a directory gets. New writes skip directories which
+ * are slow, busy, short of space or at their max size, see DiskStripe, so such a key lives in
+ * another directory; reads look through directories in the same order. Every directory has its own
+ * I/O queue which is shared by all caches over the same DiskStripe, e.g. segments of SegmentedTwoLevelCache
+ *
+ * Like FileCache, the class is not thread-safe
+ */
+public class StripedFileCache<K, V> extends FileCache<K, V> {
+    private final DiskStripe[] disks;
+    private final List<FileCache<K, V>> stripes = new ArrayList<>();
+    private final double weights;
+    private int maxSize;
+    private Durability durability = Durability.NONE;
+    private double falsePositiveRate;
+    private boolean isDeduplicated;
+
+    /**
+     * @param dirs folders of the cache, one per device
+     * @param weights share of objects of every folder, null means equal weights
+     */
+    public StripedFileCache(String[] dirs, double[] weights){
+        this(DiskStripe.of(dirs, weights), null);
+    }
+
+    /**
+     * Creates cache in sub folders of devices' folders
+     *
+     * @param disks
+     * @param name sub folder name, null means devices' folders themselves
+     */
+    StripedFileCache(DiskStripe[] disks, String name){
+        super(dirOf(disks[0], name));
+
+        this.disks = disks;
+
+        double weights = 0;
+        for (DiskStripe disk: disks){
+            this.stripes.add(new FileCache<>(dirOf(disk, name)));
+            weights += disk.getWeight();
+        }
+        this.weights = weights;
+    }
+
+    private static String dirOf(DiskStripe disk, String name){
+        return (name == null) ? disk.getDir().getPath() : disk.getDir().getPath() + File.separator + name;
+    }
+
+    public int getStripeCount(){
+        return this.stripes.size();
+    }
+
+    /**
+     * Amount of objects in the stripe
+     *
+     * @param stripe
+     * @return
+     */
+    public int getStripeSize(int stripe){
+        return this.stripes.get(stripe).size();
+    }
+
+    @Override
+    public boolean put(K key, V object){
+        return put(new CacheObject<>(key, object));
+    }
+
+    /**
+     * Writes object to the first directory of the key which is not avoided and has space,
+     * the old object is deleted if it is kept in another directory
+     *
+     * @param cacheObject
+     * @return false if no directory took the object
+     */
+    @Override
+    public boolean put(CacheObject<K, V> cacheObject){
+        K key = cacheObject.getKey();
+        int[] order = orderOf(key);
+        int oldStripe = stripeOf(key);
+
+        int stripe = -1;
+        for (int pass = 0; (pass < 2) && (stripe < 0); pass++){
+            for (int i: order){
+                //  avoided directories are tried last
+                if ((pass == 0) == isWritable(i)){
+                    FileCache<K, V> fc = this.stripes.get(i);
+                    if (this.disks[i].run(() -> fc.put(cacheObject))){
+                        stripe = i;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (stripe < 0){
+            return false;
+        }
+
+        if ((oldStripe >= 0) && (oldStripe != stripe)){
+            FileCache<K, V> fc = this.stripes.get(oldStripe);
+            this.disks[oldStripe].run(() -> fc.delete(key));
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes object to the directory keeping the key already or to the first writable one,
+     * so there is no copy to delete
+     *
+     * @param key
+     * @param in
+     * @return
+     */
+    @Override
+    public boolean putStream(K key, InputStream in){
+        int stripe = writeStripeOf(key);
+        FileCache<K, V> fc = this.stripes.get(stripe);
+
+        return this.disks[stripe].run(() -> fc.putStream(key, in));
+    }
+
+    @Override
+    public V get(K key){
+        for (int i: orderOf(key)){
+            FileCache<K, V> fc = this.stripes.get(i);
+            V object = this.disks[i].run(() -> fc.get(key));
+            if (object != null){
+                return object;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    CacheObject<K, V> getAccessed(K key){
+        for (int i: orderOf(key)){
+            FileCache<K, V> fc = this.stripes.get(i);
+            CacheObject<K, V> cacheObject = this.disks[i].run(() -> fc.getAccessed(key));
+            if (cacheObject != null){
+                return cacheObject;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public CacheObject<K, V> getCacheObject(K key){
+        for (int i: orderOf(key)){
+            FileCache<K, V> fc = this.stripes.get(i);
+            CacheObject<K, V> cacheObject = this.disks[i].run(() -> fc.getCacheObject(key));
+            if (cacheObject != null){
+                return cacheObject;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public FileRegion getFileRegion(K key){
+        for (int i: orderOf(key)){
+            FileCache<K, V> fc = this.stripes.get(i);
+            FileRegion region = this.disks[i].run(() -> fc.getFileRegion(key));
+            if (region != null){
+                return region;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean isKeyPresent(K key){
+        return stripeOf(key) >= 0;
+    }
+
+    @Override
+    public boolean delete(K key){
+        boolean result = false;
+
+        for (int i: orderOf(key)){
+            FileCache<K, V> fc = this.stripes.get(i);
+            if (fc.mightExist(fc.getFileName(key))){
+                result |= this.disks[i].run(() -> fc.delete(key));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void flush(){
+        for (FileCache<K, V> fc: this.stripes){
+            fc.flush();
+        }
+    }
+
+    @Override
+    public int size(){
+        int size = 0;
+        for (FileCache<K, V> fc: this.stripes){
+            size += fc.size();
+        }
+
+        return size;
+    }
+
+    @Override
+    public int getMaxSize(){
+        return this.maxSize;
+    }
+
+    /**
+     * Splits max size between directories by their weights
+     * @param maxSize
+     */
+    @Override
+    public void setMaxSize(int maxSize){
+        int count = this.stripes.size();
+        if (maxSize < 0){
+            throw new IllegalArgumentException("File cache maximum size must not be negative");
+        }
+        if ((maxSize > 0) && (maxSize < count)){
+            //  zero max size of a directory would mean unlimited one
+            throw new IllegalArgumentException("File cache maximum size must not be less than amount of directories");
+        }
+
+        this.maxSize = maxSize;
+
+        //  every directory gets at least one object, rounding leftovers go to the last one
+        int rest = maxSize;
+        for (int i = 0; i < count; i++){
+            int stripeMaxSize = 0;
+            if ((maxSize > 0) && (i == count - 1)){
+                stripeMaxSize = rest;
+            }else if (maxSize > 0){
+                stripeMaxSize = (int)(maxSize * this.disks[i].getWeight() / this.weights);
+                stripeMaxSize = Math.max(1, Math.min(stripeMaxSize, rest - (count - 1 - i)));
+            }
+            rest -= stripeMaxSize;
+
+            this.stripes.get(i).setMaxSize(stripeMaxSize);
+        }
+    }
+
+    @Override
+    public boolean isFull(){
+        return (this.maxSize > 0) && (size() >= this.maxSize);
+    }
+
+    @Override
+    public List<CacheObject<K, V>> getAll(){
+        List<CacheObject<K, V>> result = new ArrayList<>();
+        for (FileCache<K, V> fc: this.stripes){
+            result.addAll(fc.getAll());
+        }
+
+        return result;
+    }
+
+    @Override
+    public Durability getDurability(){
+        return this.durability;
+    }
+
+    @Override
+    public void setDurability(Durability durability){
+        for (FileCache<K, V> fc: this.stripes){
+            fc.setDurability(durability);
+        }
+        this.durability = durability;
+    }
+
+    @Override
+    public void close() throws IOException{
+        for (FileCache<K, V> fc: this.stripes){
+            fc.close();
+        }
+        this.durability = Durability.NONE;
+    }
+
+    @Override
+    public void setCommitWindow(long commitWindow){
+        super.setCommitWindow(commitWindow);
+        for (FileCache<K, V> fc: this.stripes){
+            fc.setCommitWindow(commitWindow);
+        }
+    }
+
+    @Override
+    public void setFrequencyPersisted(boolean isFrequencyPersisted){
+        super.setFrequencyPersisted(isFrequencyPersisted);
+        for (FileCache<K, V> fc: this.stripes){
+            fc.setFrequencyPersisted(isFrequencyPersisted);
+        }
+    }
+
+    @Override
+    public double getBloomFilterFalsePositiveRate(){
+        return this.falsePositiveRate;
+    }
+
+    /**
+     * Every directory gets its own filter, so a miss costs no I/O on any device
+     * @param falsePositiveRate zero turns filter off
+     */
+    @Override
+    public void setBloomFilterFalsePositiveRate(double falsePositiveRate){
+        for (FileCache<K, V> fc: this.stripes){
+            fc.setBloomFilterFalsePositiveRate(falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    public long getBloomFilterQueryCount(){
+        long count = 0;
+        for (FileCache<K, V> fc: this.stripes){
+            count += fc.getBloomFilterQueryCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getBloomFilterNegativeCount(){
+        long count = 0;
+        for (FileCache<K, V> fc: this.stripes){
+            count += fc.getBloomFilterNegativeCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getBloomFilterFalsePositiveCount(){
+        long count = 0;
+        for (FileCache<K, V> fc: this.stripes){
+            count += fc.getBloomFilterFalsePositiveCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public boolean isDeduplicated(){
+        return this.isDeduplicated;
+    }
+
+    /**
+     * Objects are deduplicated within a directory
+     * @param isDeduplicated
+     */
+    @Override
+    public void setDeduplicated(boolean isDeduplicated){
+        for (FileCache<K, V> fc: this.stripes){
+            fc.setDeduplicated(isDeduplicated);
+        }
+        this.isDeduplicated = isDeduplicated;
+    }
+
+    @Override
+    public int getBlobCount(){
+        int count = 0;
+        for (FileCache<K, V> fc: this.stripes){
+            count += fc.getBlobCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getDeduplicatedCount(){
+        long count = 0;
+        for (FileCache<K, V> fc: this.stripes){
+            count += fc.getDeduplicatedCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public void setLargeValueThreshold(int threshold){
+        super.setLargeValueThreshold(threshold);
+        for (FileCache<K, V> fc: this.stripes){
+            fc.setLargeValueThreshold(threshold);
+        }
+    }
+
+    @Override
+    void setEvictionListener(Consumer<CacheObject<K, V>> evictionListener){
+        for (FileCache<K, V> fc: this.stripes){
+            fc.setEvictionListener(evictionListener);
+        }
+    }
+
+    /**
+     * File name in the directory new object of the key goes to
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    String getFileName(K key){
+        return this.stripes.get(writeStripeOf(key)).getFileName(key);
+    }
+
+    @Override
+    File writeTmpFile(File file, CacheObject<K, V> metadata, InputStream in) throws IOException{
+        int stripe = stripeOfFile(file.getParent());
+
+        try{
+            return this.disks[stripe].run(() -> {
+                try{
+                    return this.stripes.get(stripe).writeTmpFile(file, metadata, in);
+                }catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Moves temp file in place within the directory it was written to, even if fileName points
+     * to another directory now, since files cannot be moved between devices atomically
+     *
+     * @param fileName
+     * @param tmpFile
+     * @return false if the directory is full
+     * @throws IOException
+     */
+    @Override
+    boolean putTmpFile(String fileName, File tmpFile) throws IOException{
+        String name = new File(fileName).getName();
+        int stripe = stripeOfFile(tmpFile.getParent());
+        FileCache<K, V> stripeCache = this.stripes.get(stripe);
+
+        if (!stripeCache.putTmpFile(stripeCache.getCacheDir() + File.separator + name, tmpFile)){
+            return false;
+        }
+
+        //  copies have the same name in other directories, Bloom filters skip ones which don't keep it
+        for (int i = 0; i < this.stripes.size(); i++){
+            FileCache<K, V> fc = this.stripes.get(i);
+            String copyName = fc.getCacheDir() + File.separator + name;
+            if ((i != stripe) && fc.mightExist(copyName)){
+                this.disks[i].run(() -> fc.deleteFromFile(copyName));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Directories ordered for the key by weighted rendezvous hashing, the order is the same
+     * in every process since it depends on key's string like file names do
+     *
+     * @param key
+     * @return
+     */
+    private int[] orderOf(K key){
+        int count = this.stripes.size();
+        if (count == 1){
+            return new int[]{0};
+        }
+
+        int hash = key.toString().hashCode();
+        double[] scores = new double[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++){
+            //  uniform value in (0, 1) which depends on key and directory
+            long mixed = mix(hash * 0x9E3779B97F4A7C15L + i);
+            double uniform = ((mixed >>> 11) + 0.5) / (1L << 53);
+
+            scores[i] = -this.disks[i].getWeight() / Math.log(uniform);
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> Double.compare(scores[j], scores[i]));
+
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++){
+            result[i] = order[i];
+        }
+
+        return result;
+    }
+
+    private static long mix(long value){
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * Whether new objects could go to the directory
+     *
+     * @param stripe
+     * @return
+     */
+    private boolean isWritable(int stripe){
+        return !this.stripes.get(stripe).isFull() && !this.disks[stripe].isAvoided(this.disks);
+    }
+
+    /**
+     * Directory new object of the key goes to: the one keeping the key already or the first writable one
+     *
+     * @param key
+     * @return
+     */
+    private int writeStripeOf(K key){
+        int[] order = orderOf(key);
+
+        int stripe = stripeOf(key);
+        if (stripe >= 0){
+            return stripe;
+        }
+
+        for (int i: order){
+            if (isWritable(i)){
+                return i;
+            }
+        }
+
+        return order[0];
+    }
+
+    /**
+     * Directories whose Bloom filters don't know the key are skipped without I/O
+     *
+     * @param key
+     * @return directory keeping the key, -1 if key is not cached
+     */
+    private int stripeOf(K key){
+        for (int i: orderOf(key)){
+            FileCache<K, V> fc = this.stripes.get(i);
+            if (fc.mightExist(fc.getFileName(key)) && this.disks[i].run(() -> fc.isKeyPresent(key))){
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param dir directory of a file or its temp directory
+     * @return
+     */
+    private int stripeOfFile(String dir){
+        for (int i = 0; i < this.stripes.size(); i++){
+            String stripeDir = new File(this.stripes.get(i).getCacheDir()).getPath();
+            if (stripeDir.equals(dir) || (stripeDir + ".tmp").equals(dir)){
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Directory is not in the cache: " + dir);
+    }
+}
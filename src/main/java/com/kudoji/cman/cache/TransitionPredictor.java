@@ -0,0 +1,135 @@
+package com.kudoji.cman.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * First-order key transition table: remembers which keys were requested right after a key
+ *
+ * Every key keeps a few successors with counts. A new successor replaces the rarest one, the others
+ * are halved then, so old patterns fade out. Successors seen at least MIN_COUNT times and taking
+ * at least MIN_SHARE of key's transitions are predicted. Keys which are not requested for long
+ * are forgotten first. Not thread-safe, it is called by the thread using the cache
+ */
+class TransitionPredictor<K> implements PrefetchPredictor<K> {
+    private static final int SUCCESSORS = 4;
+    private static final int MIN_COUNT = 2;
+    private static final double MIN_SHARE = 0.3;
+
+    private final Map<K, Successors<K>> transitions;
+    private K previousKey;
+
+    /**
+     * Successors of one key, most of the keys have one or two
+     */
+    private static final class Successors<K>{
+        private final Object[] keys = new Object[SUCCESSORS];
+        private final int[] counts = new int[SUCCESSORS];
+        private int total;
+
+        private void add(K key){
+            int rarest = 0;
+            for (int i = 0; i < SUCCESSORS; i++){
+                if (key.equals(this.keys[i])){
+                    this.counts[i]++;
+                    this.total++;
+                    return;
+                }
+                if (this.counts[i] < this.counts[rarest]){
+                    rarest = i;
+                }
+            }
+
+            if (this.keys[rarest] != null){
+                this.total = 0;
+                for (int i = 0; i < SUCCESSORS; i++){
+                    this.counts[i] >>= 1;
+                    this.total += this.counts[i];
+                }
+                this.total -= this.counts[rarest];
+            }
+
+            this.keys[rarest] = key;
+            this.counts[rarest] = 1;
+            this.total++;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<K> predict(){
+            List<K> keys = null;
+
+            for (int i = 0; i < SUCCESSORS; i++){
+                if ((this.counts[i] >= MIN_COUNT) && (this.counts[i] >= this.total * MIN_SHARE)){
+                    if (keys == null){
+                        keys = new ArrayList<>(SUCCESSORS);
+                    }
+                    keys.add((K)this.keys[i]);
+                }
+            }
+
+            if (keys == null){
+                return Collections.emptyList();
+            }
+
+            keys.sort((key1, key2) -> Integer.compare(countOf(key2), countOf(key1)));
+
+            return keys;
+        }
+
+        private int countOf(Object key){
+            for (int i = 0; i < SUCCESSORS; i++){
+                if (key.equals(this.keys[i])){
+                    return this.counts[i];
+                }
+            }
+
+            return 0;
+        }
+    }
+
+    TransitionPredictor(int maxKeys){
+        if (maxKeys <= 0){
+            throw new IllegalArgumentException("Amount of keys must be positive");
+        }
+
+        this.transitions = new LinkedHashMap<K, Successors<K>>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Successors<K>> eldest){
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    int size(){
+        return this.transitions.size();
+    }
+
+    /**
+     * Learns that key follows the previous one and predicts keys following it
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public Collection<K> predict(K key){
+        K previousKey = this.previousKey;
+        this.previousKey = key;
+
+        if ((previousKey != null) && !previousKey.equals(key)){
+            Successors<K> successors = this.transitions.get(previousKey);
+            if (successors == null){
+                successors = new Successors<>();
+                this.transitions.put(previousKey, successors);
+            }
+            successors.add(key);
+        }
+
+        Successors<K> successors = this.transitions.get(key);
+
+        return (successors == null) ? Collections.emptyList() : successors.predict();
+    }
+}
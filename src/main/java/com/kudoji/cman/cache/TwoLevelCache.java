@@ -1,8 +1,24 @@
 package com.kudoji.cman.cache;
 
+import com.kudoji.cman.trace.TraceRecorder;
+
 import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * First level is memory
@@ -12,8 +28,82 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
     /**
      *
      */
-    private final MemoryCache<K, V> mc;
+    private final Cache<K, V> mc;
     private final FileCache<K, V> fc;
+    /**
+     * Popularity of all keys including evicted ones, used by FREQUENT* strategies
+     */
+    private final FrequencySketch<K> sketch;
+    /**
+     * Optional third level which is asked before declaring a miss
+     */
+    private RemoteCache<K, V> peer;
+    /**
+     * Recently missed keys, null if negative caching is off
+     */
+    private NegativeCache<K> negativeCache;
+    private long negativeHitCount;
+    /**
+     * Records accesses if set, see setTraceRecorder()
+     */
+    private TraceRecorder traceRecorder;
+    /**
+     * Amount of memory cache keys looked through to find a victim for a new key
+     */
+    private static final int ADMISSION_SAMPLE_SIZE = 8;
+    /**
+     * ARC state of ADAPTIVE strategy, null for other strategies
+     */
+    private AdaptiveReplacement<K> arc;
+    /**
+     * Adaptive memory/file split, see setMaxSizeAdaptive()
+     */
+    private boolean isMaxSizeAdaptive;
+    private int baseMaxSizeMemoryCache;
+    private int windowGetCount;
+    private int windowFileHitCount;
+    private static final int ADAPTATION_WINDOW = 1000;
+    //  share of gets served by file cache, memory grows above and shrinks below
+    private static final double GROW_FILE_HIT_RATIO = 0.05;
+    private static final double SHRINK_FILE_HIT_RATIO = 0.01;
+    /**
+     * Heap pressure mode, see setHeapWatermarks()
+     */
+    private HeapPressureMonitor heapPressureMonitor;
+    private long heapPressureCount;
+    //  memory cache max size before it was reduced due to heap pressure, -1 if it is not reduced
+    private int heapPressureMaxSize = -1;
+    //  memory cache size objects are being demoted down to, -1 if nothing is left to demote
+    private int heapPressureTargetSize = -1;
+    //  share of memory cache objects demoted every time heap crosses high watermark
+    private static final int HEAP_PRESSURE_SHED_DIVISOR = 4;
+    //  max objects demoted by one put(), the rest is demoted by next ones
+    private static final int HEAP_PRESSURE_SHED_BATCH = 64;
+    /**
+     * Delivers removals to the listener, null if nobody listens, see setRemovalListener()
+     */
+    private RemovalDispatcher<K, V> removalDispatcher;
+    /**
+     * Gets which more capacity would have served faster, see getFileHitCount() and getCapacityMissCount()
+     */
+    private long fileHitCount;
+    private long capacityMissCount;
+    //  keys recently evicted from both caches or rejected by them, a miss of such a key is a capacity miss
+    private final Set<K> evictedKeys = Collections.newSetFromMap(new LinkedHashMap<K, Boolean>(){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Boolean> eldest){
+            return size() > Math.max(MIN_EVICTED_KEYS, getMaxSize());
+        }
+    });
+    private static final int MIN_EVICTED_KEYS = 1024;
+    /**
+     * Loads predicted objects to memory cache, null if prefetch is off, see setPrefetch()
+     */
+    private Prefetcher<K, V> prefetcher;
+    /**
+     * Reloads objects before they expire, null if refresh-ahead is off, see setRefreshAhead()
+     */
+    private Refresher<K, V> refresher;
 
     /**
      * Cache strategies as follows:
@@ -21,12 +111,15 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
      * * OLDTOMEMORY: older objects will be moved to memory cache;
      * * FREQUENTTOFILE: frequent objects will be moved to file cache;
      * * FREQUENTTOMEMORY: frequent objects will be moved to memoty cache;
+     * * ADAPTIVE: memory cache keeps objects chosen by ARC which balances recency and frequency
+     *   on every access, objects demoted from memory go to file cache, file cache hits are promoted to memory;
      */
     public enum CacheStrategy{
         OLDTOFILE,
         OLDTOMEMORY,
         FREQUENTTOFILE,
         FREQUENTTOMEMORY,
+        ADAPTIVE,
     }
 
     /**
@@ -46,31 +139,113 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
      */
     private CacheStrategy cacheStrategy;
 
+    /**
+     * Result of one walk through memory and file caches
+     */
+    static final class Lookup<V>{
+        final ObjectLocation location;
+        final V object;
+
+        Lookup(ObjectLocation location, V object){
+            this.location = location;
+            this.object = object;
+        }
+    }
+
     /**
      * Default constructor
      */
     public TwoLevelCache(){
-        this.mc = new MemoryCache<>();
-        this.mc.setMaxSize(0);
+        this(CacheStrategy.FREQUENTTOMEMORY);
+    }
 
-        this.fc = new FileCache<>();
-        this.fc.setMaxSize(0);
+    public TwoLevelCache(CacheStrategy cacheStrategy){
+        this(new MemoryCache<>(), new FileCache<>(), cacheStrategy);
+    }
 
-        this.cacheStrategy = CacheStrategy.FREQUENTTOMEMORY;
+    /**
+     * Creates cache which file level is stored in cacheDir
+     *
+     * @param cacheStrategy
+     * @param cacheDir
+     */
+    public TwoLevelCache(CacheStrategy cacheStrategy, String cacheDir){
+        this(new MemoryCache<>(), new FileCache<>(cacheDir), cacheStrategy);
     }
 
-    public TwoLevelCache(CacheStrategy cacheStrategy){
-        this.mc = new MemoryCache<>();
+    /**
+     * Creates cache which file level is striped over folders, ideally on different devices, see StripedFileCache
+     *
+     * @param cacheStrategy
+     * @param cacheDirs
+     * @param weights share of objects of every folder, null means equal weights
+     */
+    public TwoLevelCache(CacheStrategy cacheStrategy, String[] cacheDirs, double[] weights){
+        this(new MemoryCache<>(), new StripedFileCache<>(cacheDirs, weights), cacheStrategy);
+    }
+
+    /**
+     * Creates cache which memory level is either MemoryCache or CompactMemoryCache
+     * The compact one needs less heap per object, see CompactMemoryCache
+     *
+     * @param cacheStrategy
+     * @param isCompactMemoryCache
+     */
+    public TwoLevelCache(CacheStrategy cacheStrategy, boolean isCompactMemoryCache){
+        this(isCompactMemoryCache ? new CompactMemoryCache<>() : new MemoryCache<>(), new FileCache<>(), cacheStrategy);
+    }
+
+    /**
+     * Creates cache which file level is shared by several processes, see SharedFileCache
+     * Max size of the file level is kept, it bounds all processes; setMaxSize(), setMaxSizeFileCache()
+     * and adaptive sizing change it for every process
+     *
+     * @param cacheStrategy
+     * @param fc
+     */
+    public TwoLevelCache(CacheStrategy cacheStrategy, SharedFileCache<K, V> fc){
+        this(new MemoryCache<>(), fc, cacheStrategy, false);
+    }
+
+    /**
+     * Creates cache over specialized memory and file caches
+     *
+     * @param mc
+     * @param fc
+     * @param cacheStrategy
+     */
+    TwoLevelCache(Cache<K, V> mc, FileCache<K, V> fc, CacheStrategy cacheStrategy){
+        this(mc, fc, cacheStrategy, true);
+    }
+
+    /**
+     * @param mc
+     * @param fc
+     * @param cacheStrategy
+     * @param isFileCacheUnlimited whether max size of file cache is reset to unlimited
+     */
+    private TwoLevelCache(Cache<K, V> mc, FileCache<K, V> fc, CacheStrategy cacheStrategy, boolean isFileCacheUnlimited){
+        this.mc = mc;
         this.mc.setMaxSize(0);
 
-        this.fc = new FileCache<>();
-        this.fc.setMaxSize(0);
+        this.fc = fc;
+        if (isFileCacheUnlimited){
+            this.fc.setMaxSize(0);
+        }
+        //  frequency is tracked by the sketch, no need to rewrite files on get()
+        this.fc.setFrequencyPersisted(false);
+
+        this.sketch = new FrequencySketch<>();
 
         this.cacheStrategy = cacheStrategy;
+        if (cacheStrategy == CacheStrategy.ADAPTIVE){
+            this.arc = new AdaptiveReplacement<>(0);
+        }
     }
 
     /**
      * First element always cached in memory. If memory cache overfilled, try file cache
+     * With FREQUENTTOMEMORY strategy an object more popular than memory cache's victim takes victim's place
      * @param key
      * @param object
      * @return true if object put either to memory or file cache, false otherwise
@@ -78,46 +253,978 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
     @Override
     public boolean put(K key, V object) {
         boolean result = false;
+        Object event = CacheEvents.beginOperation();
+
+        this.sketch.increment(key);
+        trace(TraceRecorder.Operation.PUT, hashOf(key), object);
+        forgetMiss(key);
+        cancelPrefetch(key);
+        cancelRefresh(key);
+        checkHeapPressure();
+
+        boolean isLarge = this.fc.isLargeValue(object);
+        if ((this.removalDispatcher != null) && !isLarge){
+            notifyReplaced(key);
+        }
+
+        if (isLarge){
+            result = putLarge(new CacheObject<>(key, object));
+        }else if (this.arc != null){
+            result = putAdaptive(new CacheObject<>(key, object));
+        }else{
+            admit(key);
 
-        result = this.mc.put(key, object);
+            result = this.mc.put(key, object);
+
+            if (!result){
+                //  memory cache is full, try file cache
+                result = this.fc.put(key, object);
+            }
+        }
 
         if (!result){
-            //  memory cache is full, try file cache
-            result = this.fc.put(key, object);
+            //  both caches are full, more capacity would have kept the object
+            this.evictedKeys.add(key);
         }
 
+        CacheEvents.endOperation(event, this, "put", key, result);
+
         return result;
     }
 
     @Override
     public boolean put(CacheObject<K, V> cacheObject){
         boolean result = false;
+        Object event = CacheEvents.beginOperation();
+
+        K key = cacheObject.getKey();
+        this.sketch.increment(key);
+        trace(TraceRecorder.Operation.PUT, hashOf(key), cacheObject.peekObject());
+        forgetMiss(key);
+        cancelPrefetch(key);
+        cancelRefresh(key);
+        checkHeapPressure();
+
+        boolean isLarge = this.fc.isLargeValue(cacheObject.peekObject());
+        if ((this.removalDispatcher != null) && !isLarge){
+            notifyReplaced(key);
+        }
+
+        if (isLarge){
+            result = putLarge(cacheObject);
+        }else if (this.arc != null){
+            result = putAdaptive(cacheObject);
+        }else{
+            admit(key);
+
+            result = this.mc.put(cacheObject);
 
-        result = this.mc.put(cacheObject);
+            if (!result){
+                //  memory cache is full, try file cache
+                result = this.fc.put(cacheObject);
+            }
+        }
 
         if (!result){
-            //  memory cache is full, try file cache
-            result = this.fc.put(cacheObject);
+            //  both caches are full, more capacity would have kept the object
+            this.evictedKeys.add(key);
         }
 
+        CacheEvents.endOperation(event, this, "put", key, result);
+
         return result;
     }
 
     /**
      * Retrieve object by key. First checks value in memory cache. If fails, tries file cache
+     * and then peer cache if it is set. Object found in peer cache is cached locally
+     * With negative caching on, a missed key is not looked up again until its ttl expires or it is put,
+     * use isKnownAbsent() to tell such keys from unknown ones
      * @param key
-     * @return null if object is not found in both caches, real object otherwise
+     * @return null if object is not found in all caches, real object otherwise
      */
     @Override
     public V get(K key) {
         V result = null;
 
+        //  misses are counted too, the key could be cached afterwards
+        this.sketch.increment(key);
+
+        if (isKnownAbsent(key)){
+            countNegativeHit();
+            trace(TraceRecorder.Operation.GET, hashOf(key), null);
+            return null;
+        }
+
+        Object event = CacheEvents.beginOperation();
+
+        if (this.prefetcher != null){
+            installPrefetched();
+        }
+        if (this.refresher != null){
+            installRefreshed();
+        }
+
         //  check memory cache first
         result = this.mc.get(key);
 
-        if (result == null){
+        //  copy of file cache object read ahead, it saves the file read
+        CacheObject<K, V> prefetched = null;
+        if (this.prefetcher != null){
+            prefetched = this.prefetcher.take(key, result != null);
+        }
+
+        //  object read from file cache, it keeps create time
+        CacheObject<K, V> fileObject = null;
+        if ((result != null) && (this.arc != null)){
+            this.arc.onHit(key);
+        }else if ((result == null) && (this.arc != null)){
+            fileObject = promote(key, prefetched);
+        }else if ((result == null) && (prefetched != null)){
+            prefetched.getObject();
+            fileObject = prefetched;
+        }else if (result == null){
             //  key is not in memory cache, try file one
-            result = this.fc.get(key);
+            fileObject = this.fc.getAccessed(key);
+            if ((fileObject != null) && !this.fc.isLargeValue(fileObject.peekObject())){
+                this.fileHitCount++;
+            }
+        }
+        if (fileObject != null){
+            result = fileObject.peekObject();
+        }
+
+        if ((result == null) && (this.peer != null)){
+            result = this.peer.get(key);
+
+            if ((result != null) && this.fc.isLargeValue(result)){
+                this.fc.put(key, result);
+            }else if ((result != null) && (this.arc != null)){
+                putAdaptive(new CacheObject<>(key, result));
+            }else if (result != null){
+                admit(key);
+                if (!this.mc.put(key, result)){
+                    this.fc.put(key, result);
+                }
+            }
+        }
+
+        if ((result != null) && (this.refresher != null)){
+            //  memory cache knows age without I/O, objects from the peer are new
+            long age = (fileObject != null) ? fileObject.getAge() : this.mc.getAge(key);
+            result = refreshIfStale(key, result, age);
+        }
+
+        if (result == null){
+            rememberMiss(key);
+
+            if (this.evictedKeys.contains(key)){
+                this.capacityMissCount++;
+            }
+        }
+
+        trace(TraceRecorder.Operation.GET, hashOf(key), result);
+
+        if (this.isMaxSizeAdaptive && (++this.windowGetCount >= ADAPTATION_WINDOW)){
+            adaptMaxSize();
+        }
+
+        if (this.prefetcher != null){
+            prefetch(key);
+        }
+
+        CacheEvents.endOperation(event, this, "get", key, result != null);
+
+        return result;
+    }
+
+    /**
+     * Turns on negative caching: keys missed by get() are remembered as absent for ttl milliseconds,
+     * so repeated lookups of them touch neither memory nor file cache. put() forgets the key at once
+     * Objects added to the peer cache by another node become visible after ttl only
+     *
+     * @param maxSize maximum amount of remembered keys, zero turns negative caching off
+     * @param ttl milliseconds
+     */
+    public void setNegativeCache(int maxSize, long ttl){
+        if (maxSize == 0){
+            this.negativeCache = null;
+            return;
+        }
+
+        this.negativeCache = new NegativeCache<>(maxSize, ttl);
+    }
+
+    /**
+     * Checks whether recent get() hasn't found the key and it hasn't been put since
+     * Unlike get() null result, false means "unknown", not "absent"
+     *
+     * @param key
+     * @return always false if negative caching is off
+     */
+    public boolean isKnownAbsent(K key){
+        return (this.negativeCache != null) && this.negativeCache.contains(key);
+    }
+
+    /**
+     * Turns on prefetch: every get() asks predictor which keys come next and objects of predicted keys
+     * are read from file cache on executor, so the following gets are served from memory.
+     * Read objects stay in file cache, their copies wait in memory and the first get() takes a copy instead
+     * of reading the file, nothing is demoted to make room. At most budget objects are being read or wait in memory
+     * for their first get(),
+     * see getPrefetchHitCount()
+     *
+     * @param predictor e.g. PrefetchPredictor.successors() or PrefetchPredictor.learned(), null turns prefetch off
+     * @param executor runs file reads
+     * @param budget
+     */
+    public void setPrefetch(PrefetchPredictor<K> predictor, Executor executor, int budget){
+        if (predictor == null){
+            this.prefetcher = null;
+            return;
+        }
+
+        this.prefetcher = new Prefetcher<>(predictor, executor, budget);
+    }
+
+    /**
+     * Amount of objects read ahead from file cache
+     * @return
+     */
+    public long getPrefetchCount(){
+        return (this.prefetcher == null) ? 0 : this.prefetcher.getPrefetchCount();
+    }
+
+    /**
+     * Amount of gets served by prefetched objects, hit rate of prefetch is getPrefetchHitCount() / getPrefetchCount()
+     * @return
+     */
+    public long getPrefetchHitCount(){
+        return (this.prefetcher == null) ? 0 : this.prefetcher.getHitCount();
+    }
+
+    /**
+     * Starts reading of objects predicted after the key
+     * @param key
+     */
+    private void prefetch(K key){
+        for (K predicted: this.prefetcher.predict(key)){
+            if (!predicted.equals(key) && !this.mc.isKeyPresent(predicted)){
+                this.prefetcher.load(predicted, this.fc::getCacheObject);
+            }
+        }
+    }
+
+    /**
+     * Keeps copies of objects read by prefetch until they are requested, objects themselves stay in file cache
+     * Objects which were put or deleted meanwhile are canceled, ones moved to memory or large ones are skipped,
+     * so no file is touched here
+     */
+    private void installPrefetched(){
+        CacheObject<K, V> cacheObject;
+
+        while ((cacheObject = this.prefetcher.poll()) != null){
+            if (this.mc.isKeyPresent(cacheObject.getKey()) || this.fc.isLargeValue(cacheObject.peekObject())){
+                continue;
+            }
+
+            this.prefetcher.onPrefetched(cacheObject);
+        }
+    }
+
+    private void cancelPrefetch(K key){
+        if (this.prefetcher != null){
+            this.prefetcher.cancel(key);
+        }
+    }
+
+    /**
+     * Cancels prefetch of objects which file cache has evicted, it is called once file cache max size is reduced
+     */
+    private void cancelEvictedPrefetches(){
+        if (this.prefetcher != null){
+            this.prefetcher.cancelIf(key -> !this.fc.isKeyPresent(key));
+        }
+    }
+
+    /**
+     * Turns on refresh-ahead: objects older than maxAge are expired and get() waits for loader to load them again.
+     * Once object is older than refreshFraction of maxAge, get() returns it at once and reloads it on executor,
+     * a following get() puts the new object in place of the old one in the cache which holds it.
+     * This way hot objects are reloaded before they expire and gets don't wait for loader,
+     * see getRefreshCount() and getExpiredLoadCount()
+     *
+     * @param loader returns object of the key or null if it is absent, null turns refresh-ahead off
+     * @param executor runs loader
+     * @param maxAge milliseconds
+     * @param refreshFraction share of maxAge, from 0 exclusive to 1, 1 means objects are loaded on expiration only
+     */
+    public void setRefreshAhead(Function<? super K, ? extends V> loader, Executor executor, long maxAge, double refreshFraction){
+        if (loader == null){
+            this.refresher = null;
+            return;
+        }
+
+        this.refresher = new Refresher<>(loader, executor, maxAge, refreshFraction);
+    }
+
+    /**
+     * Amount of objects replaced by reloaded ones before they expired
+     * @return
+     */
+    public long getRefreshCount(){
+        return (this.refresher == null) ? 0 : this.refresher.getRefreshCount();
+    }
+
+    /**
+     * Amount of gets which waited for loader since object had expired
+     * @return
+     */
+    public long getExpiredLoadCount(){
+        return (this.refresher == null) ? 0 : this.refresher.getExpiredLoadCount();
+    }
+
+    /**
+     * Reloads object which is old enough: stale object is returned as is and reloaded on executor,
+     * expired one is loaded at once
+     *
+     * @param key
+     * @param object found object
+     * @param age age of found object, milliseconds
+     * @return object for get(), null if loader hasn't found expired object
+     */
+    private V refreshIfStale(K key, V object, long age){
+        if (this.refresher.isExpired(age)){
+            V loaded = this.refresher.load(key);
+            if (loaded == null){
+                expire(key);
+            }else{
+                replace(new CacheObject<>(key, loaded));
+            }
+
+            return loaded;
+        }
+
+        if (this.refresher.isStale(age)){
+            this.refresher.refresh(key);
+        }
+
+        return object;
+    }
+
+    /**
+     * Puts reloaded objects in place of the old ones
+     */
+    private void installRefreshed(){
+        CacheObject<K, V> cacheObject;
+
+        while ((cacheObject = this.refresher.poll()) != null){
+            if (replace(cacheObject)){
+                this.refresher.onRefreshed();
+            }
+        }
+    }
+
+    /**
+     * Replaces object in the cache which holds the key, popularity of the key is kept
+     * It is done by the cache thread, so get() returns either the old or the new object and the key is never missed
+     * Large object takes place of memory one in file cache
+     *
+     * @param cacheObject
+     * @return false if the key has been deleted meanwhile
+     */
+    private boolean replace(CacheObject<K, V> cacheObject){
+        K key = cacheObject.getKey();
+        cancelPrefetch(key);
+        boolean isInMemory = this.mc.isKeyPresent(key);
+
+        if (!isInMemory && !this.fc.isKeyPresent(key)){
+            return false;
+        }
+
+        if (this.removalDispatcher != null){
+            notifyReplaced(key);
+        }
+
+        if (isInMemory && !this.fc.isLargeValue(cacheObject.peekObject())){
+            return this.mc.put(cacheObject);
+        }
+
+        if (isInMemory){
+            this.mc.delete(key);
+            if (this.arc != null){
+                this.arc.remove(key);
+            }
+        }
+
+        return this.fc.put(cacheObject);
+    }
+
+    /**
+     * Deletes expired object which loader hasn't found
+     * @param key
+     */
+    private void expire(K key){
+        cancelPrefetch(key);
+        if (this.arc != null){
+            this.arc.remove(key);
+        }
+
+        CacheObject<K, V> cacheObject = (this.removalDispatcher != null) ? this.mc.getCacheObject(key) : null;
+
+        if (this.mc.delete(key) | this.fc.delete(key)){
+            notifyRemoval(key, (cacheObject != null) ? cacheObject.peekObject() : null, RemovalNotification.Cause.EXPIRED);
+        }
+    }
+
+    private void cancelRefresh(K key){
+        if (this.refresher != null){
+            this.refresher.cancel(key);
+        }
+    }
+
+    /**
+     * Amount of get() calls answered by negative cache
+     * @return
+     */
+    public long getNegativeHitCount(){
+        return this.negativeHitCount;
+    }
+
+    /**
+     * Amount of gets served by file cache, more memory cache capacity would have served them from memory
+     * @return
+     */
+    public long getFileHitCount(){
+        return this.fileHitCount;
+    }
+
+    /**
+     * Amount of missed gets of keys which were evicted or not put due to lack of space,
+     * so more capacity would have kept them
+     * Only recently evicted keys are remembered, as many as both caches hold, so the count is an estimate
+     * @return
+     */
+    public long getCapacityMissCount(){
+        return this.capacityMissCount;
+    }
+
+    public TraceRecorder getTraceRecorder(){
+        return this.traceRecorder;
+    }
+
+    /**
+     * Sets recorder of get/put/delete calls, null stops recording
+     * Recorded trace could be replayed by PolicySimulator to choose strategy and tier sizes
+     *
+     * @param traceRecorder
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder){
+        this.traceRecorder = traceRecorder;
+    }
+
+    void trace(TraceRecorder.Operation operation, int keyHash, Object object){
+        TraceRecorder recorder = this.traceRecorder;
+        if (recorder != null){
+            recorder.record(operation, keyHash, TraceRecorder.sizeOf(object));
+        }
+    }
+
+    private static int hashOf(Object key){
+        return (key == null) ? 0 : key.hashCode();
+    }
+
+    /**
+     * Sets listener of objects which are deleted, replaced, evicted or demoted from memory to file cache, null removes it
+     * Notifications are queued and delivered in batches on executor, so removal never waits for the listener.
+     * Notifications which don't fit the queue are dropped, see getDroppedRemovalCount()
+     * Objects removed from file cache are reported without reading them, so object is null then,
+     * except ones evicted when file cache max size is reduced. flush() isn't reported
+     *
+     * @param listener
+     * @param executor
+     */
+    public void setRemovalListener(RemovalListener<K, V> listener, Executor executor){
+        if (listener == null){
+            setRemovalDispatcher(null);
+        }else{
+            setRemovalDispatcher(new RemovalDispatcher<>(listener, executor, RemovalDispatcher.DEFAULT_QUEUE_CAPACITY));
+        }
+    }
+
+    /**
+     * Amount of removal notifications dropped since listener's queue was full
+     * @return
+     */
+    public long getDroppedRemovalCount(){
+        RemovalDispatcher<K, V> dispatcher = this.removalDispatcher;
+
+        return (dispatcher == null) ? 0 : dispatcher.getDroppedCount();
+    }
+
+    void setRemovalDispatcher(RemovalDispatcher<K, V> removalDispatcher){
+        this.removalDispatcher = removalDispatcher;
+
+        if (removalDispatcher == null){
+            this.fc.setEvictionListener(null);
+        }else{
+            this.fc.setEvictionListener(cacheObject ->
+                    removalDispatcher.notify(cacheObject.getKey(), cacheObject.peekObject(), RemovalNotification.Cause.EVICTED));
+        }
+    }
+
+    void notifyRemoval(K key, V object, RemovalNotification.Cause cause){
+        RemovalDispatcher<K, V> dispatcher = this.removalDispatcher;
+        if (dispatcher != null){
+            dispatcher.notify(key, object, cause);
+        }
+    }
+
+    /**
+     * Reports object which put() is going to overwrite
+     * @param key
+     */
+    private void notifyReplaced(K key){
+        CacheObject<K, V> cacheObject = this.mc.getCacheObject(key);
+
+        if (cacheObject != null){
+            notifyRemoval(key, cacheObject.peekObject(), RemovalNotification.Cause.REPLACED);
+        }else if (this.fc.isKeyPresent(key)){
+            notifyRemoval(key, null, RemovalNotification.Cause.REPLACED);
+        }
+    }
+
+    void rememberMiss(K key){
+        if (this.negativeCache != null){
+            this.negativeCache.add(key);
+        }
+    }
+
+    void forgetMiss(K key){
+        this.evictedKeys.remove(key);
+        if (this.negativeCache != null){
+            this.negativeCache.remove(key);
+        }
+    }
+
+    void countNegativeHit(){
+        this.negativeHitCount++;
+    }
+
+    /**
+     * Methods below walk memory and file caches once and write the result to the cache where the key was found,
+     * so a file cache object is rewritten in place and is not copied to memory cache.
+     * Peer cache is not asked. The class itself is not thread-safe, SegmentedTwoLevelCache runs them atomically
+     * Large objects are not read to heap, the methods throw IllegalArgumentException for them, see getStream()
+     */
+    @Override
+    public V putIfAbsent(K key, V object){
+        Lookup<V> lookup = lookup(key);
+        if (lookup.object == null){
+            store(key, lookup, object);
+        }
+
+        return lookup.object;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping){
+        Lookup<V> lookup = lookup(key);
+        if (lookup.object != null){
+            return lookup.object;
+        }
+
+        V object = mapping.apply(key);
+        if (object != null){
+            store(key, lookup, object);
+        }
+
+        return object;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping){
+        Lookup<V> lookup = lookup(key);
+        V object = remapping.apply(key, lookup.object);
+        store(key, lookup, object);
+
+        return object;
+    }
+
+    @Override
+    public V merge(K key, V object, BiFunction<? super V, ? super V, ? extends V> remapping){
+        Lookup<V> lookup = lookup(key);
+        V result = (lookup.object == null) ? object : remapping.apply(lookup.object, object);
+        store(key, lookup, result);
+
+        return result;
+    }
+
+    @Override
+    public V replace(K key, V object){
+        Lookup<V> lookup = lookup(key);
+        if (lookup.object != null){
+            store(key, lookup, object);
+        }
+
+        return lookup.object;
+    }
+
+    @Override
+    public boolean replace(K key, V oldObject, V newObject){
+        Lookup<V> lookup = lookup(key);
+        if ((lookup.object == null) || !lookup.object.equals(oldObject)){
+            return false;
+        }
+
+        store(key, lookup, newObject);
+
+        return true;
+    }
+
+    /**
+     * Finds object in memory or file cache, counts access like get()
+     *
+     * @param key
+     * @return
+     * @throws IllegalArgumentException if file cache keeps a large object under the key
+     */
+    Lookup<V> lookup(K key){
+        this.sketch.increment(key);
+
+        V object = null;
+        ObjectLocation location = ObjectLocation.NONE;
+
+        if (!isKnownAbsent(key)){
+            object = this.mc.get(key);
+            if (object != null){
+                location = ObjectLocation.MEMORY;
+                if (this.arc != null){
+                    this.arc.onHit(key);
+                }
+            }else if (this.fc.isLargeValueCached(key)){
+                throw new IllegalArgumentException("Large object is not read to heap, use getStream()");
+            }else{
+                object = this.fc.get(key);
+                if (object != null){
+                    location = ObjectLocation.FILE;
+                }
+            }
+        }
+
+        trace(TraceRecorder.Operation.GET, hashOf(key), object);
+
+        return new Lookup<>(location, object);
+    }
+
+    /**
+     * Writes object to the cache which holds the key found by lookup, null object deletes the key
+     *
+     * @param key
+     * @param lookup
+     * @param object
+     */
+    void store(K key, Lookup<V> lookup, V object){
+        cancelPrefetch(key);
+        cancelRefresh(key);
+
+        if (object == null){
+            if (lookup.location != ObjectLocation.NONE){
+                delete(key);
+            }
+            return;
+        }
+
+        //  object is replaced in place, the tier is checked again: SegmentedTwoLevelCache unlocks the segment
+        //  between lookup and store, so get() could promote the key or a put of another key could demote it
+        if (lookup.location != ObjectLocation.NONE){
+            boolean isInMemory = this.mc.isKeyPresent(key);
+            if (isInMemory && !this.fc.isLargeValue(object) && this.mc.put(key, object)){
+                trace(TraceRecorder.Operation.PUT, hashOf(key), object);
+                notifyRemoval(key, lookup.object, RemovalNotification.Cause.REPLACED);
+                return;
+            }
+            if (!isInMemory && this.fc.isKeyPresent(key) && this.fc.put(key, object)){
+                trace(TraceRecorder.Operation.PUT, hashOf(key), object);
+                notifyRemoval(key, lookup.object, RemovalNotification.Cause.REPLACED);
+                return;
+            }
+        }
+
+        //  the key has moved or the tier has rejected the object
+        put(key, object);
+    }
+
+    public RemoteCache<K, V> getPeerCache(){
+        return this.peer;
+    }
+
+    /**
+     * Sets cache of a peer node which is asked on local miss, null removes it
+     * Deletes are sent to the peer as well, so it doesn't return deleted objects back
+     *
+     * @param peer
+     */
+    public void setPeerCache(RemoteCache<K, V> peer){
+        this.peer = peer;
+    }
+
+    /**
+     * Opens file region of byte[] object located in file cache, see FileCache.getFileRegion()
+     * Counts access like get() does
+     *
+     * @param key
+     * @return null if object is in memory cache, not cached or it is not byte[]
+     */
+    public FileRegion getFileRegion(K key){
+        this.sketch.increment(key);
+
+        if (isKnownAbsent(key) || this.mc.isKeyPresent(key)){
+            return null;
+        }
+
+        FileRegion region = this.fc.getFileRegion(key);
+
+        TraceRecorder recorder = this.traceRecorder;
+        if ((region != null) && (recorder != null)){
+            //  otherwise caller falls back to get() which is traced
+            recorder.record(TraceRecorder.Operation.GET, hashOf(key), (int)region.getCount());
+        }
+
+        return region;
+    }
+
+    /**
+     * Returns byte[] object as read-only buffer without copying it to heap, see FileCache.getBytes()
+     * Object in memory cache is wrapped, object in file cache is mapped and is not promoted to memory cache
+     * Counts access like get() does
+     *
+     * @param key
+     * @return null if object is not cached or it is not byte[]
+     */
+    public ByteBuffer getBytes(K key){
+        this.sketch.increment(key);
+
+        if (isKnownAbsent(key)){
+            return null;
+        }
+
+        ByteBuffer buffer;
+
+        CacheObject<K, V> cacheObject = this.mc.getCacheObject(key);
+        if (cacheObject != null){
+            byte[] bytes = peekBytes(cacheObject);
+            buffer = (bytes == null) ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }else{
+            buffer = this.fc.getBytes(key);
+        }
+
+        TraceRecorder recorder = this.traceRecorder;
+        if ((buffer != null) && (recorder != null)){
+            //  otherwise caller falls back to get() which is traced
+            recorder.record(TraceRecorder.Operation.GET, hashOf(key), buffer.remaining());
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Sends byte[] object to blocking target, object in file cache is sent by FileChannel.transferTo()
+     * Counts access like get() does
+     *
+     * @param key
+     * @param target
+     * @return amount of bytes transferred, -1 if object is not cached or it is not byte[]
+     * @throws IOException if target fails
+     */
+    public long transferTo(K key, WritableByteChannel target) throws IOException{
+        if (!this.mc.isKeyPresent(key)){
+            FileRegion region = getFileRegion(key);
+            if (region == null){
+                return -1;
+            }
+
+            try{
+                return region.transferFully(target);
+            }finally{
+                region.close();
+            }
+        }
+
+        ByteBuffer buffer = getBytes(key);
+        if (buffer == null){
+            return -1;
+        }
+
+        long transferred = 0;
+        while (buffer.hasRemaining()){
+            transferred += target.write(buffer);
+        }
+
+        return transferred;
+    }
+
+    public int getLargeValueThreshold(){
+        return this.fc.getLargeValueThreshold();
+    }
+
+    /**
+     * Turns on large value mode, see FileCache.setLargeValueThreshold()
+     * byte[] objects of threshold bytes and larger are kept in file cache only, they are never put to
+     * or promoted to memory cache. Such objects should be read by getStream() or get(key, offset, length)
+     *
+     * @param threshold bytes, zero turns the mode off
+     */
+    public void setLargeValueThreshold(int threshold){
+        this.fc.setLargeValueThreshold(threshold);
+    }
+
+    /**
+     * Turns on file cache's deduplication, see FileCache.setDeduplicated()
+     * Equal objects put under different keys take disk space once, memory cache keeps them as is
+     *
+     * @param isDeduplicated
+     */
+    public void setDeduplicated(boolean isDeduplicated){
+        this.fc.setDeduplicated(isDeduplicated);
+    }
+
+    /**
+     * Amount of blobs file cache keeps, see FileCache.getBlobCount()
+     * @return
+     */
+    public int getBlobCount(){
+        return this.fc.getBlobCount();
+    }
+
+    /**
+     * Stores bytes read from the stream as byte[] object in file cache, see FileCache.putStream()
+     * Object is never held in heap as a whole
+     *
+     * @param key
+     * @param in
+     * @return true if object is put to file cache, false otherwise
+     */
+    public boolean putStream(K key, InputStream in){
+        File tmpFile = null;
+
+        try{
+            tmpFile = writeStream(key, in);
+            if (putStreamFile(key, tmpFile)){
+                tmpFile = null;
+                return true;
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            if (tmpFile != null){
+                tmpFile.delete();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes bytes from the stream to a temp file of file cache, it doesn't touch the cache itself
+     *
+     * @param key
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    File writeStream(K key, InputStream in) throws IOException{
+        return this.fc.writeTmpFile(new File(this.fc.getFileName(key)), new CacheObject<>(key, null), in);
+    }
+
+    /**
+     * Puts temp file written by writeStream() in place of key's object
+     *
+     * @param key
+     * @param tmpFile
+     * @return false if file cache is full
+     * @throws IOException
+     */
+    boolean putStreamFile(K key, File tmpFile) throws IOException{
+        this.sketch.increment(key);
+        trace(TraceRecorder.Operation.PUT, hashOf(key), null);
+        forgetMiss(key);
+        cancelPrefetch(key);
+        cancelRefresh(key);
+
+        CacheObject<K, V> memoryObject = this.mc.getCacheObject(key);
+        boolean isReplaced = (this.removalDispatcher != null) && ((memoryObject != null) || this.fc.isKeyPresent(key));
+
+        if (!this.fc.putTmpFile(this.fc.getFileName(key), tmpFile)){
+            return false;
+        }
+        dropMemoryCopy(key, memoryObject, isReplaced);
+
+        return true;
+    }
+
+    /**
+     * Opens stream over byte[] object, object in file cache is read as the stream is read, see FileCache.getStream()
+     * Counts access like get() does
+     *
+     * @param key
+     * @return stream caller has to close, null if object is not cached or it is not byte[]
+     */
+    public InputStream getStream(K key){
+        if (!this.mc.isKeyPresent(key)){
+            FileRegion region = getFileRegion(key);
+
+            return (region == null) ? null : Channels.newInputStream(region);
+        }
+
+        this.sketch.increment(key);
+
+        byte[] bytes = peekBytes(this.mc.getCacheObject(key));
+        if (bytes == null){
+            return null;
+        }
+        trace(TraceRecorder.Operation.GET, hashOf(key), bytes);
+
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Reads range of byte[] object, only the range is loaded from file cache, see FileCache.get(key, offset, length)
+     * Counts access like get() does
+     *
+     * @param key
+     * @param offset
+     * @param length
+     * @return fewer bytes if object ends before the range does, null if object is not cached or it is not byte[]
+     */
+    public byte[] get(K key, long offset, int length){
+        if ((offset < 0) || (length < 0)){
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+
+        this.sketch.increment(key);
+
+        if (isKnownAbsent(key)){
+            return null;
+        }
+
+        byte[] result;
+
+        CacheObject<K, V> cacheObject = this.mc.getCacheObject(key);
+        if (cacheObject != null){
+            byte[] bytes = peekBytes(cacheObject);
+            if (bytes != null){
+                int from = (int)Math.min(offset, bytes.length);
+                result = Arrays.copyOfRange(bytes, from, (int)Math.min((long)from + length, bytes.length));
+            }else{
+                result = null;
+            }
+        }else{
+            result = this.fc.get(key, offset, length);
+        }
+
+        if (result != null){
+            trace(TraceRecorder.Operation.GET, hashOf(key), result);
         }
 
         return result;
@@ -132,11 +1239,30 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
     public boolean delete(K key) {
         boolean result = false;
 
+        trace(TraceRecorder.Operation.DELETE, hashOf(key), null);
+        this.evictedKeys.remove(key);
+        if (this.arc != null){
+            this.arc.remove(key);
+        }
+
+        cancelPrefetch(key);
+        cancelRefresh(key);
+
+        CacheObject<K, V> cacheObject = (this.removalDispatcher != null) ? this.mc.getCacheObject(key) : null;
+
         result = this.mc.delete(key);
         if (!result){
             result = this.fc.delete(key);
         }
 
+        if (result){
+            notifyRemoval(key, (cacheObject != null) ? cacheObject.peekObject() : null, RemovalNotification.Cause.EXPLICIT);
+        }
+
+        if (this.peer != null){
+            result |= this.peer.delete(key);
+        }
+
         return result;
     }
 
@@ -144,6 +1270,24 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
     public void flush() {
         this.mc.flush();
         this.fc.flush();
+        this.evictedKeys.clear();
+
+        if (this.arc != null){
+            this.arc.clear();
+        }
+
+        if (this.negativeCache != null){
+            //  everything is absent now, but the keys are unknown
+            this.negativeCache.clear();
+        }
+
+        if (this.prefetcher != null){
+            this.prefetcher.clear();
+        }
+
+        if (this.refresher != null){
+            this.refresher.clear();
+        }
     }
 
     /**
@@ -172,6 +1316,14 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
         return this.mc.getMaxSize();
     }
 
+    /**
+     * Memory cache max capacity set by setMaxSizeMemoryCache(), it differs from the current one under heap pressure
+     * @return
+     */
+    int getConfiguredMaxSizeMemoryCache(){
+        return (this.heapPressureMaxSize >= 0) ? this.heapPressureMaxSize : this.mc.getMaxSize();
+    }
+
     /**
      * File cache max capacity
      * @return
@@ -195,21 +1347,131 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
         int maxSizeMemoryCache = value / 2;
 
         try{
-            this.mc.setMaxSize(maxSizeMemoryCache);
+            setMaxSizeMemoryCache(maxSizeMemoryCache);
         }catch (IllegalArgumentException e){
             return;
         }
 
         //  max size for memory cache set successfully
         this.fc.setMaxSize(value - maxSizeMemoryCache); // rest goes to file cache
+        cancelEvictedPrefetches();
+        this.sketch.ensureCapacity(getMaxSize());
+    }
+
+    /**
+     * Turns on file cache's Bloom filter, see FileCache.setBloomFilterFalsePositiveRate()
+     * @param falsePositiveRate zero turns filter off
+     */
+    public void setBloomFilterFalsePositiveRate(double falsePositiveRate){
+        this.fc.setBloomFilterFalsePositiveRate(falsePositiveRate);
+    }
+
+    /**
+     * Amount of file cache lookups answered without I/O
+     * @return
+     */
+    public long getBloomFilterNegativeCount(){
+        return this.fc.getBloomFilterNegativeCount();
     }
 
     public void setMaxSizeMemoryCache(int value){
+        int configuredValue = value;
+        if (this.heapPressureMaxSize >= 0){
+            //  new size is applied once pressure is over, till then the reduced size could only shrink
+            this.heapPressureMaxSize = value;
+            int reducedValue = this.mc.getMaxSize();
+            if ((value <= 0) || (value > reducedValue)){
+                value = reducedValue;
+            }
+        }
+
+        if (value > 0){
+            //  demote the coldest objects instead of letting memory cache drop them
+            while (this.mc.size() > value){
+                K victim = (this.arc != null) ? this.arc.evict() : this.mc.getVictim(this.sketch::frequency, ADMISSION_SAMPLE_SIZE);
+                if (victim == null){
+                    break;
+                }
+                demote(victim);
+            }
+        }
+
+        //  memory cache drops objects which couldn't be demoted, they have to be reported
+        List<CacheObject<K, V>> cacheObjects = null;
+        if ((this.removalDispatcher != null) && (value > 0) && (this.mc.size() > value)){
+            cacheObjects = this.mc.getAll();
+        }
+
         this.mc.setMaxSize(value);
+        if (this.arc != null){
+            this.arc.setCapacity(value);
+        }
+        this.baseMaxSizeMemoryCache = configuredValue;
+
+        if (cacheObjects != null){
+            for (CacheObject<K, V> cacheObject: cacheObjects){
+                if (!this.mc.isKeyPresent(cacheObject.getKey())){
+                    notifyRemoval(cacheObject.getKey(), cacheObject.peekObject(), RemovalNotification.Cause.EVICTED);
+                }
+            }
+        }
+        this.sketch.ensureCapacity(getMaxSize());
+    }
+
+    /**
+     * Turns on heap pressure mode: when occupied heap after GC crosses highWatermark, the coldest quarter of
+     * memory cache objects is demoted to file cache and memory cache capacity is reduced accordingly,
+     * this repeats while GC keeps reporting pressure. Capacity is restored once occupancy drops below lowWatermark.
+     * This way the cache degrades to disk instead of causing long GC pauses and OutOfMemoryError.
+     * Pressure is handled by next puts, each of them demotes a bounded batch, GC notifications only mark it
+     *
+     * @param highWatermark share of heap, zero turns heap pressure mode off
+     * @param lowWatermark share of heap
+     */
+    public void setHeapWatermarks(double highWatermark, double lowWatermark){
+        if (this.heapPressureMonitor != null){
+            this.heapPressureMonitor.close();
+            this.heapPressureMonitor = null;
+        }
+        restoreMaxSizeMemoryCache();
+
+        if (highWatermark == 0){
+            return;
+        }
+
+        this.heapPressureMonitor = new HeapPressureMonitor(highWatermark, lowWatermark);
+        this.heapPressureCount = this.heapPressureMonitor.getPressureCount();
+    }
+
+    /**
+     * Whether memory cache capacity is reduced due to heap pressure
+     * @return
+     */
+    public boolean isUnderHeapPressure(){
+        return this.heapPressureMaxSize >= 0;
+    }
+
+    public boolean isMaxSizeAdaptive(){
+        return this.isMaxSizeAdaptive;
+    }
+
+    /**
+     * Lets ADAPTIVE strategy move capacity between memory and file caches, total capacity stays the same.
+     * Memory cache grows up to 3/4 of the total while many gets are served by file cache
+     * and shrinks back to the configured size when few are. Both caches must be limited
+     *
+     * @param isMaxSizeAdaptive
+     */
+    public void setMaxSizeAdaptive(boolean isMaxSizeAdaptive){
+        this.isMaxSizeAdaptive = isMaxSizeAdaptive;
+        this.windowGetCount = 0;
+        this.windowFileHitCount = 0;
     }
 
     public void setMaxSizeFileCache(int value){
         this.fc.setMaxSize(value);
+        cancelEvictedPrefetches();
+        this.sketch.ensureCapacity(getMaxSize());
     }
 
     /**
@@ -250,15 +1512,20 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
         return cacheObjectAge;
     }
 
+    /**
+     * Gets object's estimated popularity (from 0 to 15) or -1 if object is not cached
+     * Popularity decays over time
+     *
+     * @param key
+     * @return
+     */
     @Override
     public int getFrequency(K key){
-        int cacheObjectFrequency = this.mc.getFrequency(key);
-
-        if (cacheObjectFrequency == -1){
-            return this.fc.getFrequency(key);
+        if (!isKeyPresent(key)){
+            return -1;
         }
 
-        return cacheObjectFrequency;
+        return this.sketch.frequency(key);
     }
 
     /**
@@ -283,6 +1550,9 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
      */
     public void setCacheStrategy(CacheStrategy cacheStrategy){
         this.cacheStrategy = cacheStrategy;
+        if (cacheStrategy != CacheStrategy.ADAPTIVE){
+            this.arc = null;
+        }
 
         applyCacheStrategy();
     }
@@ -291,34 +1561,44 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
      * Applies current cache strategy
      */
     public void applyCacheStrategy(){
+        Object event = CacheEvents.beginStrategy();
+        Moves moves;
+
         switch (this.cacheStrategy){
             case FREQUENTTOFILE:
-                applyFrequentToFileCacheStrategy();
+                moves = applyFrequentToFileCacheStrategy();
                 break;
             case FREQUENTTOMEMORY:
-                applyFrequentToMemoryCacheStrategy();
+                moves = applyFrequentToMemoryCacheStrategy();
                 break;
             case OLDTOFILE:
-                applyOldToFileCacheStrategy();
+                moves = applyOldToFileCacheStrategy();
                 break;
             case OLDTOMEMORY:
-                applyOldToMemoryCacheStrategy();
+                moves = applyOldToMemoryCacheStrategy();
+                break;
+            case ADAPTIVE:
+                moves = applyAdaptiveStrategy();
                 break;
             default:
+                moves = new Moves();
                 break;
         }
+
+        CacheEvents.endStrategy(event, this.cacheStrategy, moves.entries, moves.movedToMemory, moves.movedToFile,
+                moves.dropped);
     }
 
     /**
      * Moves frequent objects to file cache
      */
-    private void applyFrequentToFileCacheStrategy(){
+    private Moves applyFrequentToFileCacheStrategy(){
         List<CacheObject<K, V>> cacheObjects = this.getAll();
 
         //  sort list by frequency BUT most frequent elements MUST at the BOTTOM of the list
         cacheObjects.sort((cacheObject1, cacheObject2) -> {
-            int frequencyCacheObject1 = cacheObject1.getFrequency();
-            int frequencyCacheObject2 = cacheObject2.getFrequency();
+            int frequencyCacheObject1 = this.sketch.frequency(cacheObject1.getKey());
+            int frequencyCacheObject2 = this.sketch.frequency(cacheObject2.getKey());
 
             if (frequencyCacheObject1 < frequencyCacheObject2){
                 return -1;
@@ -329,19 +1609,19 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
             }
         });
 
-        fillCache(cacheObjects);
+        return fillCache(cacheObjects);
     }
 
     /**
      * Moves frequent objects to memory cache
      */
-    private void applyFrequentToMemoryCacheStrategy(){
+    private Moves applyFrequentToMemoryCacheStrategy(){
         List<CacheObject<K, V>> cacheObjects = this.getAll();
 
         //  sort list by frequency BUT most frequent elements MUST at the TOP of the list
         cacheObjects.sort((cacheObject1, cacheObject2) -> {
-            int frequencyCacheObject1 = cacheObject1.getFrequency();
-            int frequencyCacheObject2 = cacheObject2.getFrequency();
+            int frequencyCacheObject1 = this.sketch.frequency(cacheObject1.getKey());
+            int frequencyCacheObject2 = this.sketch.frequency(cacheObject2.getKey());
 
             if (frequencyCacheObject1 > frequencyCacheObject2){
                 return -1;
@@ -352,13 +1632,13 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
             }
         });
 
-        fillCache(cacheObjects);
+        return fillCache(cacheObjects);
     }
 
     /**
      * Moves old objects to file cache
      */
-    private void applyOldToFileCacheStrategy(){
+    private Moves applyOldToFileCacheStrategy(){
         List<CacheObject<K, V>> cacheObjects = this.getAll();
 
         //  sort list by age BUT most youngest elements MUST at the TOP of the list
@@ -375,13 +1655,13 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
             }
         });
 
-        fillCache(cacheObjects);
+        return fillCache(cacheObjects);
     }
 
     /**
      * Moves old objects to memory cache
      */
-    private void applyOldToMemoryCacheStrategy(){
+    private Moves applyOldToMemoryCacheStrategy(){
         List<CacheObject<K, V>> cacheObjects = this.getAll();
 
         //  sort list by age BUT most youngest elements MUST at the BOTTOM of the list
@@ -398,30 +1678,447 @@ public class TwoLevelCache<K, V> implements Cache<K, V>{
             }
         });
 
-        fillCache(cacheObjects);
+        return fillCache(cacheObjects);
+    }
+
+    /**
+     * Starts ARC over objects which are in memory cache now, they all are considered recent
+     * ADAPTIVE strategy places objects on every access, so nothing is moved later on
+     */
+    private Moves applyAdaptiveStrategy(){
+        Moves moves = new Moves();
+        if (this.arc != null){
+            return moves;
+        }
+
+        this.arc = new AdaptiveReplacement<>(this.mc.getMaxSize());
+        for (CacheObject<K, V> cacheObject: this.mc.getAll()){
+            this.arc.onInsert(cacheObject.getKey(), false);
+            moves.entries++;
+        }
+
+        return moves;
+    }
+
+    /**
+     * Returns byte[] object of memory cache without copying it, counts hit for ADAPTIVE strategy
+     *
+     * @param cacheObject
+     * @return null if object is not cached or it is not byte[]
+     */
+    private byte[] peekBytes(CacheObject<K, V> cacheObject){
+        if (cacheObject == null){
+            return null;
+        }
+
+        if (this.arc != null){
+            this.arc.onHit(cacheObject.getKey());
+        }
+
+        Object object = cacheObject.peekObject();
+
+        return (object instanceof byte[]) ? (byte[])object : null;
+    }
+
+    /**
+     * Puts large object to file cache only, see setLargeValueThreshold()
+     *
+     * @param cacheObject
+     * @return
+     */
+    private boolean putLarge(CacheObject<K, V> cacheObject){
+        K key = cacheObject.getKey();
+
+        CacheObject<K, V> memoryObject = this.mc.getCacheObject(key);
+        boolean isReplaced = (this.removalDispatcher != null) && ((memoryObject != null) || this.fc.isKeyPresent(key));
+
+        if (!this.fc.put(cacheObject)){
+            return false;
+        }
+        dropMemoryCopy(key, memoryObject, isReplaced);
+
+        return true;
+    }
+
+    /**
+     * Object written to file cache only replaces memory copy, it is dropped once the file is written,
+     * so a failed write, e.g. when file cache is full, keeps the old object
+     *
+     * @param key
+     * @param memoryObject memory copy before the write, null if there was none
+     * @param isReplaced whether the replacement has to be reported
+     */
+    private void dropMemoryCopy(K key, CacheObject<K, V> memoryObject, boolean isReplaced){
+        if (this.arc != null){
+            this.arc.remove(key);
+        }
+        if (memoryObject != null){
+            this.mc.delete(key);
+        }
+
+        if (isReplaced){
+            notifyRemoval(key, (memoryObject == null) ? null : memoryObject.peekObject(),
+                    RemovalNotification.Cause.REPLACED);
+        }
+    }
+
+    /**
+     * Puts object to memory cache demoting ARC's victim to file cache if needed
+     *
+     * @param cacheObject
+     * @return
+     */
+    private boolean putAdaptive(CacheObject<K, V> cacheObject){
+        K key = cacheObject.getKey();
+
+        if (this.arc.contains(key)){
+            this.arc.onHit(key);
+        }else{
+            K victim = this.arc.onInsert(key, this.mc.isFull());
+            if (victim != null){
+                demote(victim);
+            }
+
+            //  the only copy is in memory now
+            this.fc.delete(key);
+        }
+
+        if (this.mc.put(cacheObject)){
+            return true;
+        }
+
+        //  keys are out of sync with memory cache, shouldn't happen
+        this.arc.remove(key);
+
+        return this.fc.put(cacheObject);
+    }
+
+    /**
+     * Moves object from file cache to memory cache
+     *
+     * @param key
+     * @param prefetched copy read ahead, null if the file has to be read
+     * @return read object or null if it is not in file cache
+     */
+    private CacheObject<K, V> promote(K key, CacheObject<K, V> prefetched){
+        CacheObject<K, V> cacheObject = (prefetched != null) ? prefetched : this.fc.getCacheObject(key);
+        if (cacheObject == null){
+            return null;
+        }
+
+        if (this.fc.isLargeValue(cacheObject.peekObject())){
+            //  large objects stay in file cache
+            return cacheObject;
+        }
+
+        putAdaptive(cacheObject);
+        if (prefetched == null){
+            this.windowFileHitCount++;
+            this.fileHitCount++;
+        }
+
+        return cacheObject;
+    }
+
+    /**
+     * Moves object from memory cache to file cache, object is dropped if file cache is full
+     * @param key
+     */
+    private void demote(K key){
+        CacheObject<K, V> cacheObject = this.mc.getCacheObject(key);
+
+        this.mc.delete(key);
+        if (cacheObject == null){
+            return;
+        }
+
+        if (this.fc.put(cacheObject)){
+            evict(key, cacheObject.peekObject(), RemovalNotification.Cause.DEMOTED);
+        }else{
+            evict(key, cacheObject.peekObject(), RemovalNotification.Cause.EVICTED);
+        }
+    }
+
+    /**
+     * Moves capacity between memory and file caches according to the share of gets served by file cache
+     * during the last window
+     */
+    private void adaptMaxSize(){
+        double fileHitRatio = (double)this.windowFileHitCount / this.windowGetCount;
+        this.windowGetCount = 0;
+        this.windowFileHitCount = 0;
+
+        if ((this.arc == null) || (this.heapPressureMaxSize >= 0)){
+            //  memory cache doesn't grow under heap pressure
+            return;
+        }
+
+        int maxSizeMemoryCache = this.mc.getMaxSize();
+        int maxSizeFileCache = this.fc.getMaxSize();
+        if ((maxSizeMemoryCache == 0) || (maxSizeFileCache == 0)){
+            return;
+        }
+
+        int total = maxSizeMemoryCache + maxSizeFileCache;
+        int step = Math.max(1, total / 20);
+        int baseMaxSizeMemoryCache = this.baseMaxSizeMemoryCache;
+
+        if ((fileHitRatio > GROW_FILE_HIT_RATIO) && (maxSizeMemoryCache + step <= total * 3 / 4)
+                && (maxSizeFileCache > step)){
+            this.fc.setMaxSize(maxSizeFileCache - step);
+            cancelEvictedPrefetches();
+            this.mc.setMaxSize(maxSizeMemoryCache + step);
+            this.arc.setCapacity(maxSizeMemoryCache + step);
+        }else if ((fileHitRatio < SHRINK_FILE_HIT_RATIO) && (maxSizeMemoryCache - step >= baseMaxSizeMemoryCache)){
+            this.fc.setMaxSize(maxSizeFileCache + step);
+            setMaxSizeMemoryCache(maxSizeMemoryCache - step);
+            //  configured size stays the base
+            this.baseMaxSizeMemoryCache = baseMaxSizeMemoryCache;
+        }
+    }
+
+    /**
+     * Sheds memory cache objects if GC reported pressure since last check, restores capacity when it is over
+     */
+    void checkHeapPressure(){
+        HeapPressureMonitor monitor = this.heapPressureMonitor;
+        if (monitor == null){
+            return;
+        }
+
+        long pressureCount = monitor.getPressureCount();
+        if (pressureCount != this.heapPressureCount){
+            this.heapPressureCount = pressureCount;
+            startShedding();
+        }else if ((this.heapPressureMaxSize >= 0) && !monitor.isUnderPressure()){
+            restoreMaxSizeMemoryCache();
+            return;
+        }
+
+        if (this.heapPressureTargetSize >= 0){
+            shedMemoryCache();
+        }
+    }
+
+    /**
+     * Coldest quarter of memory cache objects has to be demoted to file cache
+     */
+    private void startShedding(){
+        int size = this.mc.size();
+        if (size <= 1){
+            return;
+        }
+
+        if (this.heapPressureMaxSize < 0){
+            this.heapPressureMaxSize = this.mc.getMaxSize();
+        }
+        this.heapPressureTargetSize = Math.max(1, size - Math.max(1, size / HEAP_PRESSURE_SHED_DIVISOR));
+    }
+
+    /**
+     * Demotes a batch of the coldest memory cache objects to file cache and keeps memory cache at the new size
+     */
+    private void shedMemoryCache(){
+        for (int i = 0; (i < HEAP_PRESSURE_SHED_BATCH) && (this.mc.size() > this.heapPressureTargetSize); i++){
+            K victim = (this.arc != null) ? this.arc.evict() : this.mc.getVictim(this.sketch::frequency, ADMISSION_SAMPLE_SIZE);
+            if (victim == null){
+                break;
+            }
+            demote(victim);
+        }
+
+        int maxSize = Math.max(this.heapPressureTargetSize, this.mc.size());
+        if (maxSize <= this.heapPressureTargetSize){
+            this.heapPressureTargetSize = -1;
+        }
+        if ((this.mc.getMaxSize() <= 0) || (maxSize < this.mc.getMaxSize())){
+            this.mc.setMaxSize(maxSize);
+            if (this.arc != null){
+                this.arc.setCapacity(maxSize);
+            }
+        }
+    }
+
+    private void restoreMaxSizeMemoryCache(){
+        if (this.heapPressureMaxSize < 0){
+            return;
+        }
+
+        this.mc.setMaxSize(this.heapPressureMaxSize);
+        if (this.arc != null){
+            this.arc.setCapacity(this.heapPressureMaxSize);
+        }
+        this.heapPressureMaxSize = -1;
+        this.heapPressureTargetSize = -1;
+    }
+
+    @Override
+    public CacheObject<K, V> getCacheObject(K key){
+        CacheObject<K, V> cacheObject = this.mc.getCacheObject(key);
+
+        if (cacheObject == null){
+            return this.fc.getCacheObject(key);
+        }
+
+        return cacheObject;
+    }
+
+    /**
+     * Cache is full when both memory and file caches are
+     * @return
+     */
+    @Override
+    public boolean isFull(){
+        return this.mc.isFull() && this.fc.isFull();
+    }
+
+    /**
+     * Admission filter for memory cache: in case memory cache is full and the key is more popular than
+     * the coldest of sampled memory cache keys, the victim is demoted to file cache.
+     * This way one-hit wonders don't displace hot objects.
+     *
+     * @param key
+     */
+    void admit(K key){
+        if ((this.cacheStrategy != CacheStrategy.FREQUENTTOMEMORY) || !this.mc.isFull() || this.mc.isKeyPresent(key)){
+            return;
+        }
+
+        K victim = this.mc.getVictim(this.sketch::frequency, ADMISSION_SAMPLE_SIZE);
+        if ((victim == null) || (this.sketch.frequency(key) <= this.sketch.frequency(victim))){
+            return;
+        }
+
+        CacheObject<K, V> cacheObject = this.mc.getCacheObject(victim);
+        if (this.fc.put(cacheObject)){
+            this.mc.delete(victim);
+            evict(victim, cacheObject.peekObject(), RemovalNotification.Cause.DEMOTED);
+        }
     }
 
     /**
-     * Fills memory and file caches by cacheObject according their capacity
-     * Objects from the top goes to MemoryCache first, remaining to FileCache
+     * Places cacheObjects to memory and file caches according their capacity
+     * Objects from the top go to MemoryCache first, remaining to FileCache, objects which don't fit are dropped
+     * before the rest is moved
+     * Large objects go to FileCache only, see setLargeValueThreshold()
+     *
+     * Objects are moved in place: a copy is written to the new cache before the old one is deleted,
+     * so every key stays readable and persisted objects stay on disk during the move.
+     * Memory cache could hold a few extra objects until the move ends, file cache limit is kept
+     * since it could be shared with other processes
      *
      * @param cacheObjects
+     * @return what has been moved
      */
-    private void fillCache(List<CacheObject<K, V>> cacheObjects){
-        //  flush caches
-        this.mc.flush();
-        this.fc.flush();
+    private Moves fillCache(List<CacheObject<K, V>> cacheObjects){
+        Moves moves = new Moves();
+        moves.entries = cacheObjects.size();
 
-//        for (CacheObject cacheObject: cacheObjects){
-//            System.out.println(cacheObject.getKey() + "\t" + cacheObject.getFrequency());
-//        }
+        int maxSizeMemoryCache = this.mc.getMaxSize();
+        int maxSizeFileCache = this.fc.getMaxSize();
 
+        List<CacheObject<K, V>> memoryObjects = new ArrayList<>();
+        List<CacheObject<K, V>> fileObjects = new ArrayList<>();
+        List<CacheObject<K, V>> droppedObjects = new ArrayList<>();
         for (CacheObject<K, V> cacheObject: cacheObjects){
-            if (!this.mc.put(cacheObject)){
-                //  memory cache is full
-                //  put the rest of objects to the file cache
-                this.fc.put(cacheObject);
+            if (((maxSizeMemoryCache == 0) || (memoryObjects.size() < maxSizeMemoryCache))
+                    && !this.fc.isLargeValue(cacheObject.peekObject())){
+                memoryObjects.add(cacheObject);
+            }else if ((maxSizeFileCache == 0) || (fileObjects.size() < maxSizeFileCache)){
+                fileObjects.add(cacheObject);
+            }else{
+                droppedObjects.add(cacheObject);
+            }
+        }
+
+        this.mc.setMaxSize(0);
+
+        try{
+            //  dropped objects go first, they free file cache for demoted ones
+            for (CacheObject<K, V> cacheObject: droppedObjects){
+                K key = cacheObject.getKey();
+
+                if (this.mc.delete(key) | this.fc.delete(key)){
+                    evict(key, cacheObject.peekObject(), RemovalNotification.Cause.EVICTED);
+                    moves.dropped++;
+                }
+            }
+
+            //  next object to promote
+            int promoted = 0;
+
+            for (CacheObject<K, V> cacheObject: fileObjects){
+                K key = cacheObject.getKey();
+
+                if (!this.mc.isKeyPresent(key)){
+                    continue;
+                }
+
+                //  file cache is full, promote objects to free it
+                while (this.fc.isFull() && (promoted < memoryObjects.size())){
+                    if (moveToMemoryCache(memoryObjects.get(promoted++))){
+                        moves.movedToMemory++;
+                    }
+                }
+
+                if (this.fc.put(cacheObject)){
+                    this.mc.delete(key);
+                    evict(key, cacheObject.peekObject(), RemovalNotification.Cause.DEMOTED);
+                    moves.movedToFile++;
+                }
+            }
+
+            while (promoted < memoryObjects.size()){
+                if (moveToMemoryCache(memoryObjects.get(promoted++))){
+                    moves.movedToMemory++;
+                }
             }
+        }finally{
+            this.mc.setMaxSize(maxSizeMemoryCache);
+        }
+
+        return moves;
+    }
+
+    /**
+     * Copies object to memory cache and deletes it from file cache, see fillCache()
+     * @param cacheObject
+     * @return true if object has been moved, false if it is in memory cache already or it doesn't fit
+     */
+    private boolean moveToMemoryCache(CacheObject<K, V> cacheObject){
+        K key = cacheObject.getKey();
+
+        if (!this.mc.isKeyPresent(key) && this.mc.put(cacheObject)){
+            this.fc.delete(key);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Reports object which left memory cache for file cache or left both caches because of lack of space
+     *
+     * @param key
+     * @param object
+     * @param cause DEMOTED or EVICTED
+     */
+    private void evict(K key, V object, RemovalNotification.Cause cause){
+        if (cause == RemovalNotification.Cause.EVICTED){
+            this.evictedKeys.add(key);
+            cancelPrefetch(key);
         }
+        CacheEvents.eviction(this, key, cause);
+        notifyRemoval(key, object, cause);
+    }
+
+    /**
+     * Objects moved by a run of cache strategy, see applyCacheStrategy()
+     */
+    private static final class Moves {
+        int entries;
+        int movedToMemory;
+        int movedToFile;
+        int dropped;
     }
 }
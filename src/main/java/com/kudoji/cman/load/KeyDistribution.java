@@ -0,0 +1,179 @@
+package com.kudoji.cman.load;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates keys from 0 to keyCount - 1 for load generator
+ */
+public abstract class KeyDistribution {
+    protected final long keyCount;
+
+    protected KeyDistribution(long keyCount){
+        if (keyCount <= 0){
+            throw new IllegalArgumentException("Key count must be positive");
+        }
+
+        this.keyCount = keyCount;
+    }
+
+    public long getKeyCount(){
+        return this.keyCount;
+    }
+
+    /**
+     * Must be thread-safe
+     * @param random thread's own generator
+     * @return
+     */
+    public abstract long nextKey(Random random);
+
+    /**
+     * Creates distribution by name: uniform, zipfian, hotspot or sequential
+     *
+     * @param name
+     * @param keyCount
+     * @return
+     */
+    public static KeyDistribution of(String name, long keyCount){
+        switch (name){
+            case "uniform":
+                return uniform(keyCount);
+            case "zipfian":
+                return zipfian(keyCount, Zipfian.DEFAULT_THETA);
+            case "hotspot":
+                return hotspot(keyCount, Hotspot.DEFAULT_HOT_KEY_FRACTION, Hotspot.DEFAULT_HOT_OPERATION_FRACTION);
+            case "sequential":
+                return sequential(keyCount);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + name);
+        }
+    }
+
+    public static KeyDistribution uniform(long keyCount){
+        return new KeyDistribution(keyCount){
+            @Override
+            public long nextKey(Random random){
+                return (long)(random.nextDouble() * this.keyCount);
+            }
+        };
+    }
+
+    /**
+     * Key of rank i is requested proportionally to 1 / i^theta, key 0 is the most popular
+     *
+     * @param keyCount
+     * @param theta skew, 0.99 is typical for web caches
+     * @return
+     */
+    public static KeyDistribution zipfian(long keyCount, double theta){
+        return new Zipfian(keyCount, theta);
+    }
+
+    /**
+     * hotOperationFraction of requests go to hotKeyFraction of keys, the rest go to other keys uniformly
+     *
+     * @param keyCount
+     * @param hotKeyFraction
+     * @param hotOperationFraction
+     * @return
+     */
+    public static KeyDistribution hotspot(long keyCount, double hotKeyFraction, double hotOperationFraction){
+        return new Hotspot(keyCount, hotKeyFraction, hotOperationFraction);
+    }
+
+    /**
+     * Keys are requested one after another in a loop shared by all threads, like a scan
+     *
+     * @param keyCount
+     * @return
+     */
+    public static KeyDistribution sequential(long keyCount){
+        AtomicLong next = new AtomicLong();
+
+        return new KeyDistribution(keyCount){
+            @Override
+            public long nextKey(Random random){
+                return Math.floorMod(next.getAndIncrement(), this.keyCount);
+            }
+        };
+    }
+
+    /**
+     * Zipfian generator from "Quickly Generating Billion-Record Synthetic Databases" by Gray et al.
+     */
+    private static class Zipfian extends KeyDistribution{
+        private static final double DEFAULT_THETA = 0.99;
+
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        private Zipfian(long keyCount, double theta){
+            super(keyCount);
+
+            if ((theta <= 0) || (theta >= 1)){
+                throw new IllegalArgumentException("Zipfian theta must be between 0 and 1");
+            }
+
+            this.theta = theta;
+            this.zetaN = zeta(keyCount, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / this.zetaN);
+        }
+
+        @Override
+        public long nextKey(Random random){
+            double u = random.nextDouble();
+            double uz = u * this.zetaN;
+
+            if (uz < 1){
+                return 0;
+            }else if (uz < 1 + Math.pow(0.5, this.theta)){
+                return Math.min(1, this.keyCount - 1);
+            }
+
+            long key = (long)(this.keyCount * Math.pow(this.eta * u - this.eta + 1, this.alpha));
+
+            return Math.min(key, this.keyCount - 1);
+        }
+
+        private static double zeta(long n, double theta){
+            double sum = 0;
+            for (long i = 1; i <= n; i++){
+                sum += 1 / Math.pow(i, theta);
+            }
+
+            return sum;
+        }
+    }
+
+    private static class Hotspot extends KeyDistribution{
+        private static final double DEFAULT_HOT_KEY_FRACTION = 0.2;
+        private static final double DEFAULT_HOT_OPERATION_FRACTION = 0.8;
+
+        private final long hotKeyCount;
+        private final double hotOperationFraction;
+
+        private Hotspot(long keyCount, double hotKeyFraction, double hotOperationFraction){
+            super(keyCount);
+
+            if ((hotKeyFraction <= 0) || (hotKeyFraction > 1) || (hotOperationFraction < 0) || (hotOperationFraction > 1)){
+                throw new IllegalArgumentException("Hotspot fractions must be between 0 and 1");
+            }
+
+            this.hotKeyCount = Math.max(1, (long)(keyCount * hotKeyFraction));
+            this.hotOperationFraction = hotOperationFraction;
+        }
+
+        @Override
+        public long nextKey(Random random){
+            if ((this.hotKeyCount == this.keyCount) || (random.nextDouble() < this.hotOperationFraction)){
+                return (long)(random.nextDouble() * this.hotKeyCount);
+            }
+
+            return this.hotKeyCount + (long)(random.nextDouble() * (this.keyCount - this.hotKeyCount));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.kudoji.cman.load;
+
+/**
+ * Histogram of latencies with logarithmic buckets, every power of two is split into 32 buckets,
+ * so percentiles are precise to about 3%. Not thread-safe, every load thread records to its own one
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[Long.SIZE * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * @param value nanoseconds
+     */
+    void record(long value){
+        if (value < 0){
+            value = 0;
+        }
+
+        this.counts[indexOf(value)]++;
+        this.count++;
+        if (value > this.max){
+            this.max = value;
+        }
+    }
+
+    void add(LatencyHistogram histogram){
+        for (int i = 0; i < this.counts.length; i++){
+            this.counts[i] += histogram.counts[i];
+        }
+        this.count += histogram.count;
+        this.max = Math.max(this.max, histogram.max);
+    }
+
+    long getCount(){
+        return this.count;
+    }
+
+    long getMax(){
+        return this.max;
+    }
+
+    /**
+     * Value which percentile of recorded values don't exceed
+     *
+     * @param percentile from 0 to 100
+     * @return nanoseconds, 0 if nothing is recorded
+     */
+    long getPercentile(double percentile){
+        if (this.count == 0){
+            return 0;
+        }
+
+        long target = Math.max(1, (long)Math.ceil(percentile / 100 * this.count));
+        long cumulative = 0;
+        for (int i = 0; i < this.counts.length; i++){
+            cumulative += this.counts[i];
+            if (cumulative >= target){
+                return Math.min(upperValueOf(i), this.max);
+            }
+        }
+
+        return this.max;
+    }
+
+    private static int indexOf(long value){
+        if (value < SUB_BUCKETS){
+            return (int)value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperValueOf(int index){
+        if (index < SUB_BUCKETS){
+            return index;
+        }
+
+        int group = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (group - 1);
+
+        return (SUB_BUCKETS + subBucket) * width + width - 1;
+    }
+}
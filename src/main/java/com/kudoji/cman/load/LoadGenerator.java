@@ -0,0 +1,333 @@
+package com.kudoji.cman.load;
+
+import com.kudoji.cman.cache.FileCache;
+import com.kudoji.cman.cache.MemoryCache;
+import com.kudoji.cman.cache.SegmentedTwoLevelCache;
+import com.kudoji.cman.cache.TwoLevelCache;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * Runs get/put load against a cache for capacity planning, see LoadReport
+ *
+ * Every thread picks a key by key distribution and either reads it or writes a value of random size.
+ * A missed read is followed by a write of the key (read-through), like an application would do.
+ * Caches which are not thread-safe (all but segmented) are accessed under one lock when threads > 1.
+ */
+public class LoadGenerator {
+    private static final int DEFAULT_THREADS = 4;
+    private static final long DEFAULT_DURATION = 10_000;
+    private static final double DEFAULT_READ_RATIO = 0.9;
+    private static final int DEFAULT_VALUE_SIZE = 100;
+
+    /**
+     * Caches load could be run against
+     */
+    public enum CacheType{
+        MEMORY,
+        FILE,
+        TWOLEVEL,
+        SEGMENTED
+    }
+
+    private final CacheType cacheType;
+    private final KeyDistribution keyDistribution;
+
+    private int threads = DEFAULT_THREADS;
+    //  milliseconds
+    private long duration = DEFAULT_DURATION;
+    private double readRatio = DEFAULT_READ_RATIO;
+    private int minValueSize = DEFAULT_VALUE_SIZE;
+    private int maxValueSize = DEFAULT_VALUE_SIZE;
+    private int maxSizeMemoryCache;
+    private int maxSizeFileCache;
+    private String cacheDir = ".cache-load";
+    private boolean isPreloaded;
+    private TwoLevelCache.CacheStrategy cacheStrategy = TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY;
+
+    /**
+     * Operations of the cache under load
+     */
+    private static class Target{
+        private final Function<Long, byte[]> get;
+        private final BiPredicate<Long, byte[]> put;
+        //  null if cache has one tier
+        private final Function<Long, TwoLevelCache.ObjectLocation> location;
+        private final TwoLevelCache.ObjectLocation tier;
+        private final Runnable flush;
+        private final boolean isThreadSafe;
+
+        private Target(Function<Long, byte[]> get, BiPredicate<Long, byte[]> put,
+                       Function<Long, TwoLevelCache.ObjectLocation> location, TwoLevelCache.ObjectLocation tier,
+                       Runnable flush, boolean isThreadSafe){
+            this.get = get;
+            this.put = put;
+            this.location = location;
+            this.tier = tier;
+            this.flush = flush;
+            this.isThreadSafe = isThreadSafe;
+        }
+    }
+
+    /**
+     * Results of one load thread
+     */
+    private static class ThreadResult{
+        private final LatencyHistogram getLatencies = new LatencyHistogram();
+        private final LatencyHistogram putLatencies = new LatencyHistogram();
+        private long memoryHits;
+        private long fileHits;
+        private long misses;
+    }
+
+    public LoadGenerator(CacheType cacheType, KeyDistribution keyDistribution){
+        this.cacheType = cacheType;
+        this.keyDistribution = keyDistribution;
+    }
+
+    public void setThreads(int threads){
+        if (threads <= 0){
+            throw new IllegalArgumentException("Thread amount must be positive");
+        }
+
+        this.threads = threads;
+    }
+
+    /**
+     * @param duration milliseconds
+     */
+    public void setDuration(long duration){
+        if (duration <= 0){
+            throw new IllegalArgumentException("Duration must be positive");
+        }
+
+        this.duration = duration;
+    }
+
+    /**
+     * @param readRatio share of reads, from 0 to 1
+     */
+    public void setReadRatio(double readRatio){
+        if ((readRatio < 0) || (readRatio > 1)){
+            throw new IllegalArgumentException("Read ratio must be between 0 and 1");
+        }
+
+        this.readRatio = readRatio;
+    }
+
+    /**
+     * Values sizes are distributed uniformly between min and max
+     *
+     * @param minValueSize bytes
+     * @param maxValueSize bytes
+     */
+    public void setValueSize(int minValueSize, int maxValueSize){
+        if ((minValueSize < 0) || (maxValueSize < minValueSize)){
+            throw new IllegalArgumentException("Wrong value size range");
+        }
+
+        this.minValueSize = minValueSize;
+        this.maxValueSize = maxValueSize;
+    }
+
+    /**
+     * Sets cache capacity, zero means unlimited
+     * Memory cache uses maxSizeMemoryCache, file cache uses maxSizeFileCache
+     *
+     * @param maxSizeMemoryCache
+     * @param maxSizeFileCache
+     */
+    public void setMaxSize(int maxSizeMemoryCache, int maxSizeFileCache){
+        this.maxSizeMemoryCache = maxSizeMemoryCache;
+        this.maxSizeFileCache = maxSizeFileCache;
+    }
+
+    /**
+     * Folder of the file tier, it is flushed before and after the run
+     * @param cacheDir
+     */
+    public void setCacheDir(String cacheDir){
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Strategy of two-level and segmented caches
+     * @param cacheStrategy
+     */
+    public void setCacheStrategy(TwoLevelCache.CacheStrategy cacheStrategy){
+        this.cacheStrategy = cacheStrategy;
+    }
+
+    /**
+     * Whether every key is put before the run, so the run starts with warm cache
+     * @param isPreloaded
+     */
+    public void setPreloaded(boolean isPreloaded){
+        this.isPreloaded = isPreloaded;
+    }
+
+    /**
+     * Runs the load
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public LoadReport run() throws InterruptedException{
+        Target target = createTarget();
+        target.flush.run();
+
+        if (this.isPreloaded){
+            Random random = ThreadLocalRandom.current();
+            for (long key = 0; key < this.keyDistribution.getKeyCount(); key++){
+                target.put.test(key, createValue(random));
+            }
+        }
+
+        Object lock = (target.isThreadSafe || (this.threads == 1)) ? null : new Object();
+        ThreadResult[] results = new ThreadResult[this.threads];
+        Thread[] workers = new Thread[this.threads];
+
+        long startTime = System.nanoTime();
+        long endTime = startTime + this.duration * 1_000_000;
+        for (int i = 0; i < this.threads; i++){
+            ThreadResult result = new ThreadResult();
+            results[i] = result;
+            workers[i] = new Thread(() -> runThread(target, lock, endTime, result), "cman-load-" + i);
+            workers[i].start();
+        }
+
+        for (Thread worker: workers){
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        LatencyHistogram getLatencies = new LatencyHistogram();
+        LatencyHistogram putLatencies = new LatencyHistogram();
+        long memoryHits = 0;
+        long fileHits = 0;
+        long misses = 0;
+        for (ThreadResult result: results){
+            getLatencies.add(result.getLatencies);
+            putLatencies.add(result.putLatencies);
+            memoryHits += result.memoryHits;
+            fileHits += result.fileHits;
+            misses += result.misses;
+        }
+
+        target.flush.run();
+
+        return new LoadReport(elapsed, getLatencies, putLatencies, memoryHits, fileHits, misses);
+    }
+
+    private void runThread(Target target, Object lock, long endTime, ThreadResult result){
+        Random random = ThreadLocalRandom.current();
+
+        while (System.nanoTime() < endTime){
+            Long key = this.keyDistribution.nextKey(random);
+
+            if (random.nextDouble() < this.readRatio){
+                TwoLevelCache.ObjectLocation location;
+                byte[] value;
+                long time;
+
+                if (lock == null){
+                    location = (target.location == null) ? target.tier : target.location.apply(key);
+                    time = System.nanoTime();
+                    value = target.get.apply(key);
+                    time = System.nanoTime() - time;
+                }else{
+                    //  time spent waiting for the lock is a part of the latency
+                    long waitStart = System.nanoTime();
+                    synchronized (lock){
+                        long wait = System.nanoTime() - waitStart;
+                        location = (target.location == null) ? target.tier : target.location.apply(key);
+                        time = System.nanoTime();
+                        value = target.get.apply(key);
+                        time = System.nanoTime() - time + wait;
+                    }
+                }
+                result.getLatencies.record(time);
+
+                if (value == null){
+                    result.misses++;
+                    put(target, lock, key, createValue(random), result);
+                }else if (location == TwoLevelCache.ObjectLocation.MEMORY){
+                    result.memoryHits++;
+                }else{
+                    result.fileHits++;
+                }
+            }else{
+                put(target, lock, key, createValue(random), result);
+            }
+        }
+    }
+
+    private void put(Target target, Object lock, Long key, byte[] value, ThreadResult result){
+        long time;
+
+        if (lock == null){
+            time = System.nanoTime();
+            target.put.test(key, value);
+            time = System.nanoTime() - time;
+        }else{
+            time = System.nanoTime();
+            synchronized (lock){
+                target.put.test(key, value);
+            }
+            time = System.nanoTime() - time;
+        }
+
+        result.putLatencies.record(time);
+    }
+
+    private byte[] createValue(Random random){
+        int size = this.minValueSize;
+        if (this.maxValueSize > this.minValueSize){
+            size += random.nextInt(this.maxValueSize - this.minValueSize + 1);
+        }
+
+        byte[] value = new byte[size];
+        random.nextBytes(value);
+
+        return value;
+    }
+
+    private Target createTarget(){
+        switch (this.cacheType){
+            case MEMORY:{
+                MemoryCache<Long, byte[]> mc = new MemoryCache<>();
+                mc.setMaxSize(this.maxSizeMemoryCache);
+
+                return new Target(mc::get, mc::put, null, TwoLevelCache.ObjectLocation.MEMORY, mc::flush, false);
+            }
+            case FILE:{
+                FileCache<Long, byte[]> fc = new FileCache<>(this.cacheDir);
+                fc.setMaxSize(this.maxSizeFileCache);
+
+                return new Target(fc::get, fc::put, null, TwoLevelCache.ObjectLocation.FILE, fc::flush, false);
+            }
+            case TWOLEVEL:{
+                TwoLevelCache<Long, byte[]> tlc = new TwoLevelCache<>(this.cacheStrategy, this.cacheDir);
+                tlc.setMaxSizeMemoryCache(this.maxSizeMemoryCache);
+                tlc.setMaxSizeFileCache(this.maxSizeFileCache);
+
+                return new Target(tlc::get, tlc::put, tlc::getLocation, null, tlc::flush, false);
+            }
+            case SEGMENTED:{
+                SegmentedTwoLevelCache<Long, byte[]> stlc = new SegmentedTwoLevelCache<>(
+                        Math.max(1, Runtime.getRuntime().availableProcessors()),
+                        this.cacheStrategy, this.cacheDir, ForkJoinPool.commonPool());
+                stlc.setMaxSizeMemoryCache(this.maxSizeMemoryCache);
+                stlc.setMaxSizeFileCache(this.maxSizeFileCache);
+
+                return new Target(stlc::get, stlc::put, stlc::getLocation, null, stlc::flush, true);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown cache type: " + this.cacheType);
+        }
+    }
+}
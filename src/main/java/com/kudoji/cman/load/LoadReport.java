@@ -0,0 +1,94 @@
+package com.kudoji.cman.load;
+
+import java.io.PrintStream;
+
+/**
+ * Results of LoadGenerator run
+ * Latencies are in nanoseconds, hit ratios are shares of all reads
+ */
+public class LoadReport {
+    private final long elapsed;
+    private final LatencyHistogram getLatencies;
+    private final LatencyHistogram putLatencies;
+    private final long memoryHits;
+    private final long fileHits;
+    private final long misses;
+
+    LoadReport(long elapsed, LatencyHistogram getLatencies, LatencyHistogram putLatencies,
+               long memoryHits, long fileHits, long misses){
+        this.elapsed = elapsed;
+        this.getLatencies = getLatencies;
+        this.putLatencies = putLatencies;
+        this.memoryHits = memoryHits;
+        this.fileHits = fileHits;
+        this.misses = misses;
+    }
+
+    public long getOperations(){
+        return this.getLatencies.getCount() + this.putLatencies.getCount();
+    }
+
+    public long getGets(){
+        return this.getLatencies.getCount();
+    }
+
+    public long getPuts(){
+        return this.putLatencies.getCount();
+    }
+
+    /**
+     * Operations per second
+     * @return
+     */
+    public double getThroughput(){
+        return (this.elapsed == 0) ? 0 : getOperations() * 1e9 / this.elapsed;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return
+     */
+    public long getGetLatency(double percentile){
+        return this.getLatencies.getPercentile(percentile);
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return
+     */
+    public long getPutLatency(double percentile){
+        return this.putLatencies.getPercentile(percentile);
+    }
+
+    public double getMemoryHitRatio(){
+        return ratio(this.memoryHits);
+    }
+
+    public double getFileHitRatio(){
+        return ratio(this.fileHits);
+    }
+
+    public double getHitRatio(){
+        return ratio(this.memoryHits + this.fileHits);
+    }
+
+    public void print(PrintStream out){
+        out.printf("operations: %d (get: %d, put: %d) in %.1f s%n", getOperations(), getGets(), getPuts(), this.elapsed / 1e9);
+        out.printf("throughput: %.0f ops/s%n", getThroughput());
+        printLatencies(out, "get", this.getLatencies);
+        printLatencies(out, "put", this.putLatencies);
+        out.printf("hit ratio: %.4f (memory: %.4f, file: %.4f)%n", getHitRatio(), getMemoryHitRatio(), getFileHitRatio());
+    }
+
+    private void printLatencies(PrintStream out, String operation, LatencyHistogram latencies){
+        out.printf("%s latency, us: p50 %.1f, p99 %.1f, p999 %.1f, max %.1f%n", operation,
+                latencies.getPercentile(50) / 1e3, latencies.getPercentile(99) / 1e3,
+                latencies.getPercentile(99.9) / 1e3, latencies.getMax() / 1e3);
+    }
+
+    private double ratio(long value){
+        long gets = this.memoryHits + this.fileHits + this.misses;
+
+        return (gets == 0) ? 0 : (double)value / gets;
+    }
+}
@@ -0,0 +1,167 @@
+package com.kudoji.cman.server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Blocking client of CacheServer (or any server speaking memcached text protocol)
+ * Not thread-safe, use one client per thread
+ */
+public class CacheClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    public CacheClient(String host, int port) throws IOException{
+        this(host, port, 0);
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @param timeout read timeout in milliseconds, zero means infinite
+     * @throws IOException
+     */
+    public CacheClient(String host, int port, int timeout) throws IOException{
+        this.socket = new Socket();
+        this.socket.connect(new InetSocketAddress(host, port), timeout);
+        this.socket.setSoTimeout(timeout);
+        this.socket.setTcpNoDelay(true);
+
+        this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        this.out = new BufferedOutputStream(this.socket.getOutputStream());
+    }
+
+    /**
+     * Returns object or null if it is not cached
+     * @param key
+     * @return
+     * @throws IOException
+     */
+    public byte[] get(String key) throws IOException{
+        return getMulti(Collections.singletonList(key)).get(key);
+    }
+
+    /**
+     * Gets several objects by one request
+     * @param keys
+     * @return found objects only
+     * @throws IOException
+     */
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws IOException{
+        StringBuilder command = new StringBuilder("get");
+        for (String key: keys){
+            command.append(' ').append(key);
+        }
+        writeLine(command.toString());
+        this.out.flush();
+
+        return readValues();
+    }
+
+    public boolean set(String key, byte[] value) throws IOException{
+        writeSet(key, value);
+        this.out.flush();
+
+        return "STORED".equals(readLine());
+    }
+
+    /**
+     * Sends all set commands at once and reads responses after that
+     * @param values
+     * @return keys which have been stored
+     * @throws IOException
+     */
+    public Set<String> setAll(Map<String, byte[]> values) throws IOException{
+        for (Map.Entry<String, byte[]> entry: values.entrySet()){
+            writeSet(entry.getKey(), entry.getValue());
+        }
+        this.out.flush();
+
+        Set<String> stored = new HashSet<>();
+        for (String key: values.keySet()){
+            if ("STORED".equals(readLine())){
+                stored.add(key);
+            }
+        }
+
+        return stored;
+    }
+
+    public boolean delete(String key) throws IOException{
+        writeLine("delete " + key);
+        this.out.flush();
+
+        return "DELETED".equals(readLine());
+    }
+
+    public void flushAll() throws IOException{
+        writeLine("flush_all");
+        this.out.flush();
+
+        String response = readLine();
+        if (!"OK".equals(response)){
+            throw new IOException("Unexpected response: " + response);
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        this.socket.close();
+    }
+
+    private void writeSet(String key, byte[] value) throws IOException{
+        writeLine("set " + key + " 0 0 " + value.length);
+        this.out.write(value);
+        this.out.write('\r');
+        this.out.write('\n');
+    }
+
+    private Map<String, byte[]> readValues() throws IOException{
+        Map<String, byte[]> values = new HashMap<>();
+
+        while (true){
+            String line = readLine();
+            if ("END".equals(line)){
+                return values;
+            }
+
+            //  VALUE key flags bytes
+            String[] tokens = line.split(" ");
+            if (!"VALUE".equals(tokens[0]) || (tokens.length < 4)){
+                throw new IOException("Unexpected response: " + line);
+            }
+
+            byte[] value = new byte[Integer.parseInt(tokens[3])];
+            this.in.readFully(value);
+            readLine();
+
+            values.put(tokens[1], value);
+        }
+    }
+
+    private void writeLine(String line) throws IOException{
+        this.out.write(line.getBytes(StandardCharsets.US_ASCII));
+        this.out.write('\r');
+        this.out.write('\n');
+    }
+
+    private String readLine() throws IOException{
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        int b;
+        while ((b = this.in.read()) != '\n'){
+            if (b < 0){
+                throw new EOFException("Connection is closed");
+            }
+            if (b != '\r'){
+                line.write(b);
+            }
+        }
+
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,480 @@
+package com.kudoji.cman.server;
+
+import com.kudoji.cman.cache.FileRegion;
+import com.kudoji.cman.cache.TwoLevelCache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * TCP server which exposes TwoLevelCache over a subset of memcached text protocol:
+ * * get|gets key [key ...]: returns all found objects, flags are always 0;
+ * * set key flags exptime bytes [noreply]: flags and exptime are ignored;
+ * * delete key [noreply];
+ * * flush_all, version, quit.
+ *
+ * Server is non-blocking, one selector thread serves all connections, so the cache is accessed by one thread.
+ * Clients could pipeline commands: all complete commands in the read buffer are executed in order and
+ * responses are queued. byte[] objects located in file cache are sent by FileChannel.transferTo()
+ * unless the queue is full, then they are read to heap.
+ * Once too many responses are queued, the rest of commands waits in the read buffer until the client reads them.
+ */
+public class CacheServer implements Closeable {
+    public static final int DEFAULT_PORT = 11211;
+    //  max object size accepted by set
+    private static final int MAX_VALUE_SIZE = 64 * 1024 * 1024;
+    //  max command line length
+    private static final int MAX_LINE_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    //  gathering write takes at most so many buffers
+    private static final int MAX_GATHER = 64;
+    //  commands are not executed and the socket is not read while so many responses are queued,
+    //  every FileRegion keeps a file open
+    private static final int MAX_QUEUED_REPLIES = 256;
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "END\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STORED = "STORED\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_STORED = "NOT_STORED\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DELETED = "DELETED\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND = "NOT_FOUND\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OK = "OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR = "ERROR\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VERSION = "VERSION cman\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final TwoLevelCache<String, byte[]> cache;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private Thread thread;
+    private volatile boolean isRunning;
+
+    public CacheServer(TwoLevelCache<String, byte[]> cache, int port) throws IOException{
+        this(cache, new InetSocketAddress(port));
+    }
+
+    public CacheServer(TwoLevelCache<String, byte[]> cache, InetSocketAddress address) throws IOException{
+        this.cache = cache;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Returns port the server listens to, useful when it is bound to port 0
+     * @return
+     */
+    public int getPort(){
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts selector thread
+     */
+    public synchronized void start(){
+        if (this.thread != null){
+            return;
+        }
+
+        this.isRunning = true;
+        this.thread = new Thread(this::run, "cman-server-" + getPort());
+        this.thread.start();
+    }
+
+    /**
+     * Waits until server is closed
+     * @throws InterruptedException
+     */
+    public void join() throws InterruptedException{
+        Thread serverThread = this.thread;
+        if (serverThread != null){
+            serverThread.join();
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        this.isRunning = false;
+        this.selector.wakeup();
+
+        try{
+            join();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(){
+        try{
+            while (this.isRunning){
+                this.selector.select();
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try{
+                        if (!key.isValid()){
+                            continue;
+                        }
+
+                        if (key.isAcceptable()){
+                            accept();
+                        }else{
+                            Connection connection = (Connection)key.attachment();
+                            if (key.isReadable()){
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()){
+                                connection.write();
+                            }
+                        }
+                    }catch (IOException e){
+                        if (key.attachment() != null){
+                            ((Connection)key.attachment()).close();
+                        }
+                    }
+                }
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }finally{
+            for (SelectionKey key: this.selector.keys()){
+                if (key.attachment() != null){
+                    ((Connection)key.attachment()).close();
+                }
+            }
+
+            try{
+                this.serverChannel.close();
+                this.selector.close();
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException{
+        SocketChannel channel = this.serverChannel.accept();
+        if (channel == null){
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Client's connection: read buffer and queue of responses
+     * Queue keeps ByteBuffer and FileRegion instances
+     */
+    private class Connection{
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer in;
+        private final ArrayDeque<Object> out;
+        private boolean isClosing;
+        //  read buffer has commands which wait until queued responses are written
+        private boolean isPaused;
+
+        Connection(SocketChannel channel, SelectionKey key){
+            this.channel = channel;
+            this.key = key;
+            this.in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            this.out = new ArrayDeque<>();
+        }
+
+        void read() throws IOException{
+            int count = this.channel.read(this.in);
+            if (count < 0){
+                close();
+                return;
+            }
+
+            executeBuffered();
+            write();
+        }
+
+        /**
+         * Executes complete commands from the read buffer until too many responses are queued
+         */
+        private void executeBuffered(){
+            this.in.flip();
+            int required = 0;
+            while (!this.isClosing && this.in.hasRemaining() && (this.out.size() < MAX_QUEUED_REPLIES)){
+                required = execute();
+                if (required > 0){
+                    //  command is not complete
+                    break;
+                }
+            }
+            this.isPaused = !this.isClosing && (required == 0) && this.in.hasRemaining();
+            this.in.compact();
+
+            if (required > this.in.capacity()){
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(required, this.in.capacity() * 2));
+                this.in.flip();
+                bigger.put(this.in);
+                this.in = bigger;
+            }
+        }
+
+        /**
+         * Writes queued responses, the rest is written once socket is ready
+         *
+         * @throws IOException
+         */
+        void write() throws IOException{
+            flush();
+            while (this.isPaused && (this.out.size() < MAX_QUEUED_REPLIES)){
+                //  no read event comes for commands which are already in the buffer
+                executeBuffered();
+                flush();
+            }
+
+            if (this.out.isEmpty()){
+                if (this.isClosing){
+                    close();
+                    return;
+                }
+                this.key.interestOps(SelectionKey.OP_READ);
+            }else if (this.isPaused){
+                this.key.interestOps(SelectionKey.OP_WRITE);
+            }else{
+                this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Writes as much of queued responses as the socket takes
+         *
+         * @throws IOException
+         */
+        private void flush() throws IOException{
+            ByteBuffer[] buffers = new ByteBuffer[MAX_GATHER];
+
+            while (!this.out.isEmpty()){
+                Object head = this.out.peek();
+
+                if (head instanceof FileRegion){
+                    FileRegion region = (FileRegion)head;
+                    region.transferTo(this.channel);
+                    if (region.getRemaining() > 0){
+                        break;
+                    }
+
+                    region.close();
+                    this.out.poll();
+                    continue;
+                }
+
+                //  gather consecutive buffers into one write
+                int count = 0;
+                for (Object item: this.out){
+                    if (!(item instanceof ByteBuffer) || (count == MAX_GATHER)){
+                        break;
+                    }
+                    buffers[count++] = (ByteBuffer)item;
+                }
+
+                this.channel.write(buffers, 0, count);
+                while (!this.out.isEmpty() && (this.out.peek() instanceof ByteBuffer)
+                        && !((ByteBuffer)this.out.peek()).hasRemaining()){
+                    this.out.poll();
+                }
+
+                if (buffers[count - 1].hasRemaining()){
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Executes one command from the read buffer
+         *
+         * @return 0 if command is executed or bytes needed to complete the command
+         */
+        private int execute(){
+            int start = this.in.position();
+            int lineEnd = findLineEnd(start);
+            if (lineEnd < 0){
+                if (this.in.remaining() > MAX_LINE_SIZE){
+                    reply(ERROR);
+                    this.isClosing = true;
+                    return 0;
+                }
+
+                return this.in.remaining() + 1;
+            }
+
+            byte[] lineBytes = new byte[lineEnd - start];
+            this.in.get(lineBytes);
+            //  skip \r\n
+            this.in.position(lineEnd + 2);
+
+            String[] tokens = new String(lineBytes, StandardCharsets.US_ASCII).trim().split(" +");
+            String command = tokens[0];
+
+            switch (command){
+                case "get":
+                case "gets":
+                    executeGet(tokens);
+                    return 0;
+                case "set":
+                    return executeSet(tokens, start);
+                case "delete":
+                    if (tokens.length < 2){
+                        reply(ERROR);
+                        return 0;
+                    }
+                    boolean isDeleted = cache.delete(tokens[1]);
+                    if (!isNoReply(tokens, 2)){
+                        reply(isDeleted ? DELETED : NOT_FOUND);
+                    }
+                    return 0;
+                case "flush_all":
+                    cache.flush();
+                    reply(OK);
+                    return 0;
+                case "version":
+                    reply(VERSION);
+                    return 0;
+                case "quit":
+                    this.isClosing = true;
+                    return 0;
+                default:
+                    reply(ERROR);
+                    return 0;
+            }
+        }
+
+        private void executeGet(String[] tokens){
+            for (int i = 1; i < tokens.length; i++){
+                String cacheKey = tokens[i];
+                TwoLevelCache.ObjectLocation location = cache.getLocation(cacheKey);
+                if (location == TwoLevelCache.ObjectLocation.NONE){
+                    continue;
+                }
+
+                FileRegion region = null;
+                //  one get could name thousands of keys, once the queue is full values are copied to heap,
+                //  so the amount of open files stays bounded
+                if ((location == TwoLevelCache.ObjectLocation.FILE) && (this.out.size() < MAX_QUEUED_REPLIES)){
+                    region = cache.getFileRegion(cacheKey);
+                }
+
+                if (region != null){
+                    replyValueHeader(cacheKey, region.getCount());
+                    this.out.add(region);
+                    reply(CRLF);
+                }else{
+                    byte[] value = cache.get(cacheKey);
+                    if (value != null){
+                        replyValueHeader(cacheKey, value.length);
+                        this.out.add(ByteBuffer.wrap(value));
+                        reply(CRLF);
+                    }
+                }
+            }
+
+            reply(END);
+        }
+
+        /**
+         * @param tokens
+         * @param start position of the command in the read buffer
+         * @return 0 if command is executed or bytes needed to complete the command
+         */
+        private int executeSet(String[] tokens, int start){
+            int length;
+            try{
+                length = Integer.parseInt(tokens[4]);
+            }catch (ArrayIndexOutOfBoundsException | NumberFormatException e){
+                reply(ERROR);
+                return 0;
+            }
+
+            if ((length < 0) || (length > MAX_VALUE_SIZE)){
+                reply("SERVER_ERROR object too large for cache\r\n".getBytes(StandardCharsets.US_ASCII));
+                this.isClosing = true;
+                return 0;
+            }
+
+            if (this.in.remaining() < length + 2){
+                //  wait for the whole object, command is executed again then
+                int lineLength = this.in.position() - start;
+                this.in.position(start);
+
+                return lineLength + length + 2;
+            }
+
+            byte[] value = new byte[length];
+            this.in.get(value);
+            this.in.position(this.in.position() + 2);
+
+            boolean isStored = cache.put(tokens[1], value);
+            if (!isNoReply(tokens, 5)){
+                reply(isStored ? STORED : NOT_STORED);
+            }
+
+            return 0;
+        }
+
+        private int findLineEnd(int from){
+            for (int i = from; i < this.in.limit() - 1; i++){
+                if ((this.in.get(i) == '\r') && (this.in.get(i + 1) == '\n')){
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private boolean isNoReply(String[] tokens, int index){
+            return (tokens.length > index) && "noreply".equals(tokens[index]);
+        }
+
+        private void replyValueHeader(String cacheKey, long length){
+            reply(("VALUE " + cacheKey + " 0 " + length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private void reply(byte[] bytes){
+            this.out.add(ByteBuffer.wrap(bytes));
+        }
+
+        void close(){
+            this.key.cancel();
+
+            List<Object> pending = new ArrayList<>(this.out);
+            this.out.clear();
+            for (Object item: pending){
+                if (item instanceof FileRegion){
+                    try{
+                        ((FileRegion)item).close();
+                    }catch (IOException e){
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            try{
+                this.channel.close();
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.kudoji.cman.trace;
+
+import com.kudoji.cman.cache.TwoLevelCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays a trace against TwoLevelCache with every cache strategy and every combination of tier sizes,
+ * so strategy and sizes could be chosen from production traces
+ *
+ * Replay treats the cache as read-through: a missed get() is followed by put() of the recorded size.
+ * Cache strategy is applied every strategyInterval operations, like an application would do periodically.
+ * Latency is estimated from hit ratios and configured costs of memory hit, file hit and miss.
+ */
+public class PolicySimulator {
+    private static final int DEFAULT_STRATEGY_INTERVAL = 1000;
+    //  defaults are rough costs of a heap lookup, a file read and a backing store request, nanoseconds
+    private static final long DEFAULT_MEMORY_HIT_LATENCY = 1_000;
+    private static final long DEFAULT_FILE_HIT_LATENCY = 100_000;
+    private static final long DEFAULT_MISS_LATENCY = 10_000_000;
+
+    private final int[] keyHashes;
+    private final int[] sizes;
+    private final byte[] operations;
+
+    private int strategyInterval = DEFAULT_STRATEGY_INTERVAL;
+    private long memoryHitLatency = DEFAULT_MEMORY_HIT_LATENCY;
+    private long fileHitLatency = DEFAULT_FILE_HIT_LATENCY;
+    private long missLatency = DEFAULT_MISS_LATENCY;
+
+    /**
+     * Result of one replay
+     */
+    public static class Result{
+        private final TwoLevelCache.CacheStrategy cacheStrategy;
+        private final int maxSizeMemoryCache;
+        private final int maxSizeFileCache;
+        private final long gets;
+        private final long memoryHits;
+        private final long fileHits;
+        private final long latency;
+
+        Result(TwoLevelCache.CacheStrategy cacheStrategy, int maxSizeMemoryCache, int maxSizeFileCache,
+               long gets, long memoryHits, long fileHits, long latency){
+            this.cacheStrategy = cacheStrategy;
+            this.maxSizeMemoryCache = maxSizeMemoryCache;
+            this.maxSizeFileCache = maxSizeFileCache;
+            this.gets = gets;
+            this.memoryHits = memoryHits;
+            this.fileHits = fileHits;
+            this.latency = latency;
+        }
+
+        public TwoLevelCache.CacheStrategy getCacheStrategy(){
+            return this.cacheStrategy;
+        }
+
+        public int getMaxSizeMemoryCache(){
+            return this.maxSizeMemoryCache;
+        }
+
+        public int getMaxSizeFileCache(){
+            return this.maxSizeFileCache;
+        }
+
+        public long getGets(){
+            return this.gets;
+        }
+
+        public double getMemoryHitRatio(){
+            return (this.gets == 0) ? 0 : (double)this.memoryHits / this.gets;
+        }
+
+        public double getFileHitRatio(){
+            return (this.gets == 0) ? 0 : (double)this.fileHits / this.gets;
+        }
+
+        public double getHitRatio(){
+            return getMemoryHitRatio() + getFileHitRatio();
+        }
+
+        /**
+         * Estimated average get() latency, nanoseconds
+         * @return
+         */
+        public long getAverageLatency(){
+            return (this.gets == 0) ? 0 : this.latency / this.gets;
+        }
+
+        @Override
+        public String toString(){
+            return String.format(Locale.ROOT, "%s,%d,%d,%.4f,%.4f,%.4f,%d", this.cacheStrategy, this.maxSizeMemoryCache,
+                    this.maxSizeFileCache, getMemoryHitRatio(), getFileHitRatio(), getHitRatio(), getAverageLatency());
+        }
+    }
+
+    /**
+     * Loads the whole trace into memory
+     *
+     * @param fileName trace written by TraceRecorder
+     * @throws IOException
+     */
+    public PolicySimulator(String fileName) throws IOException{
+        List<TraceRecord> records = new ArrayList<>();
+
+        try (TraceReader reader = new TraceReader(fileName)){
+            TraceRecord record;
+            while ((record = reader.next()) != null){
+                records.add(record);
+            }
+        }
+
+        this.keyHashes = new int[records.size()];
+        this.sizes = new int[records.size()];
+        this.operations = new byte[records.size()];
+        for (int i = 0; i < records.size(); i++){
+            TraceRecord record = records.get(i);
+            this.keyHashes[i] = record.getKeyHash();
+            this.sizes[i] = record.getSize();
+            this.operations[i] = (byte)record.getOperation().ordinal();
+        }
+    }
+
+    /**
+     * Amount of loaded records
+     * @return
+     */
+    public int size(){
+        return this.operations.length;
+    }
+
+    /**
+     * Amount of distinct keys in the trace, helps to choose tier sizes
+     * @return
+     */
+    public int getKeyCount(){
+        return (int)Arrays.stream(this.keyHashes).distinct().count();
+    }
+
+    public void setStrategyInterval(int strategyInterval){
+        if (strategyInterval <= 0){
+            throw new IllegalArgumentException("Strategy interval must be positive");
+        }
+
+        this.strategyInterval = strategyInterval;
+    }
+
+    /**
+     * Sets costs used to estimate latency, nanoseconds
+     *
+     * @param memoryHitLatency
+     * @param fileHitLatency
+     * @param missLatency
+     */
+    public void setLatencies(long memoryHitLatency, long fileHitLatency, long missLatency){
+        this.memoryHitLatency = memoryHitLatency;
+        this.fileHitLatency = fileHitLatency;
+        this.missLatency = missLatency;
+    }
+
+    /**
+     * Replays the trace for every strategy and every combination of sizes
+     *
+     * @param maxSizesMemoryCache
+     * @param maxSizesFileCache zero means unlimited file cache
+     * @return
+     * @throws IOException
+     */
+    public List<Result> simulate(int[] maxSizesMemoryCache, int[] maxSizesFileCache) throws IOException{
+        List<Result> results = new ArrayList<>();
+
+        for (TwoLevelCache.CacheStrategy cacheStrategy: TwoLevelCache.CacheStrategy.values()){
+            for (int maxSizeMemoryCache: maxSizesMemoryCache){
+                for (int maxSizeFileCache: maxSizesFileCache){
+                    results.add(simulate(cacheStrategy, maxSizeMemoryCache, maxSizeFileCache));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Replays the trace against a fresh cache located in a temporary folder
+     *
+     * @param cacheStrategy
+     * @param maxSizeMemoryCache
+     * @param maxSizeFileCache zero means unlimited file cache
+     * @return
+     * @throws IOException
+     */
+    public Result simulate(TwoLevelCache.CacheStrategy cacheStrategy, int maxSizeMemoryCache, int maxSizeFileCache)
+            throws IOException{
+        File cacheDir = Files.createTempDirectory("cman-simulation").toFile();
+
+        try{
+            TwoLevelCache<Integer, Integer> tlc = new TwoLevelCache<>(cacheStrategy, cacheDir.getPath());
+            tlc.setMaxSizeMemoryCache(maxSizeMemoryCache);
+            tlc.setMaxSizeFileCache(maxSizeFileCache);
+
+            long gets = 0;
+            long memoryHits = 0;
+            long fileHits = 0;
+            long latency = 0;
+            TraceRecorder.Operation[] operations = TraceRecorder.Operation.values();
+
+            for (int i = 0; i < this.operations.length; i++){
+                Integer key = this.keyHashes[i];
+
+                switch (operations[this.operations[i]]){
+                    case GET:
+                        gets++;
+                        TwoLevelCache.ObjectLocation location = tlc.getLocation(key);
+                        if (tlc.get(key) == null){
+                            latency += this.missLatency;
+                            tlc.put(key, this.sizes[i]);
+                        }else if (location == TwoLevelCache.ObjectLocation.MEMORY){
+                            memoryHits++;
+                            latency += this.memoryHitLatency;
+                        }else{
+                            fileHits++;
+                            latency += this.fileHitLatency;
+                        }
+                        break;
+                    case PUT:
+                        tlc.put(key, this.sizes[i]);
+                        break;
+                    case DELETE:
+                        tlc.delete(key);
+                        break;
+                    default:
+                        break;
+                }
+
+                if ((i + 1) % this.strategyInterval == 0){
+                    tlc.applyCacheStrategy();
+                }
+            }
+
+            tlc.flush();
+
+            return new Result(cacheStrategy, maxSizeMemoryCache, maxSizeFileCache, gets, memoryHits, fileHits, latency);
+        }finally{
+            File[] files = cacheDir.listFiles();
+            if (files != null){
+                for (File file: files){
+                    file.delete();
+                }
+            }
+            cacheDir.delete();
+        }
+    }
+
+    /**
+     * Prints results as CSV
+     *
+     * @param results
+     * @param out
+     */
+    public static void print(List<Result> results, PrintStream out){
+        out.println("strategy,memory size,file size,memory hit ratio,file hit ratio,hit ratio,average latency ns");
+        for (Result result: results){
+            out.println(result);
+        }
+    }
+}
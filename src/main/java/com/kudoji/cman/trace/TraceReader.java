@@ -0,0 +1,55 @@
+package com.kudoji.cman.trace;
+
+import java.io.*;
+
+/**
+ * Reads trace written by TraceRecorder
+ */
+public class TraceReader implements Closeable {
+    private final DataInputStream in;
+
+    public TraceReader(String fileName) throws IOException{
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+
+        if (this.in.readInt() != TraceRecorder.MAGIC){
+            this.in.close();
+            throw new IOException("Not a trace file: " + fileName);
+        }
+
+        int version = this.in.readInt();
+        if (version != TraceRecorder.VERSION){
+            this.in.close();
+            throw new IOException("Unsupported trace version: " + version);
+        }
+    }
+
+    /**
+     * Reads next record
+     * @return null at the end of trace
+     * @throws IOException
+     */
+    public TraceRecord next() throws IOException{
+        long timestamp;
+        try{
+            timestamp = this.in.readLong();
+        }catch (EOFException e){
+            return null;
+        }
+
+        int keyHash = this.in.readInt();
+        int size = this.in.readInt();
+        int operation = this.in.readUnsignedByte();
+
+        TraceRecorder.Operation[] operations = TraceRecorder.Operation.values();
+        if (operation >= operations.length){
+            throw new IOException("Unknown operation: " + operation);
+        }
+
+        return new TraceRecord(timestamp, keyHash, size, operations[operation]);
+    }
+
+    @Override
+    public void close() throws IOException{
+        this.in.close();
+    }
+}
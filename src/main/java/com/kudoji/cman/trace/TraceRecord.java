@@ -0,0 +1,43 @@
+package com.kudoji.cman.trace;
+
+/**
+ * One cache access read from a trace, see TraceRecorder
+ */
+public class TraceRecord {
+    private final long timestamp;
+    private final int keyHash;
+    private final int size;
+    private final TraceRecorder.Operation operation;
+
+    public TraceRecord(long timestamp, int keyHash, int size, TraceRecorder.Operation operation){
+        this.timestamp = timestamp;
+        this.keyHash = keyHash;
+        this.size = size;
+        this.operation = operation;
+    }
+
+    /**
+     * Nanoseconds since recording started
+     * @return
+     */
+    public long getTimestamp(){
+        return this.timestamp;
+    }
+
+    public int getKeyHash(){
+        return this.keyHash;
+    }
+
+    public int getSize(){
+        return this.size;
+    }
+
+    public TraceRecorder.Operation getOperation(){
+        return this.operation;
+    }
+
+    @Override
+    public String toString(){
+        return this.operation + " " + this.keyHash + " " + this.size + " " + this.timestamp;
+    }
+}
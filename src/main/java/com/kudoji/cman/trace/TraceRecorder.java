@@ -0,0 +1,201 @@
+package com.kudoji.cman.trace;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes cache accesses to a compact binary trace, see TraceReader and PolicySimulator
+ *
+ * record() never blocks and never does I/O: records are put to a lock-free ring buffer
+ * which is drained to the file by a background thread. In case the buffer is full the record is dropped.
+ *
+ * File format: int magic, int version, then records of
+ * long timestamp (nanoseconds since recording started), int key hash, int size, byte operation
+ */
+public class TraceRecorder implements Closeable {
+    static final int MAGIC = 0x434d5452;
+    static final int VERSION = 1;
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Recorded operations
+     */
+    public enum Operation{
+        GET,
+        PUT,
+        DELETE
+    }
+
+    private final long[] timestamps;
+    private final int[] keyHashes;
+    private final int[] sizes;
+    private final byte[] operations;
+    private final int mask;
+    //  slot i holds record with sequence n when published[i] == n + 1
+    private final AtomicLongArray published;
+    //  next sequence to claim by producers
+    private final AtomicLong tail = new AtomicLong();
+    //  next sequence to write by writer thread
+    private volatile long head;
+    private volatile boolean isRunning = true;
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final long startTime;
+    private final DataOutputStream out;
+    private final Thread writer;
+    private IOException writeException;
+
+    public TraceRecorder(String fileName) throws IOException{
+        this(fileName, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param fileName trace file, it is overwritten
+     * @param capacity amount of records buffered in memory, rounded up to power of two
+     * @throws IOException
+     */
+    public TraceRecorder(String fileName, int capacity) throws IOException{
+        if (capacity <= 0){
+            throw new IllegalArgumentException("Trace buffer capacity must be positive");
+        }
+
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.timestamps = new long[size];
+        this.keyHashes = new int[size];
+        this.sizes = new int[size];
+        this.operations = new byte[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+
+        this.startTime = System.nanoTime();
+
+        this.writer = new Thread(this::drain, "cman-trace-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Records cache access
+     *
+     * @param operation
+     * @param keyHash
+     * @param size object size, see sizeOf()
+     * @return false if the record is dropped because buffer is full or recorder is closed
+     */
+    public boolean record(Operation operation, int keyHash, int size){
+        if (!this.isRunning){
+            return false;
+        }
+
+        long sequence;
+        do{
+            sequence = this.tail.get();
+            if (sequence - this.head >= this.operations.length){
+                this.droppedCount.increment();
+                return false;
+            }
+        }while (!this.tail.compareAndSet(sequence, sequence + 1));
+
+        int index = (int)(sequence & this.mask);
+        this.timestamps[index] = System.nanoTime() - this.startTime;
+        this.keyHashes[index] = keyHash;
+        this.sizes[index] = size;
+        this.operations[index] = (byte)operation.ordinal();
+        this.published.lazySet(index, sequence + 1);
+
+        return true;
+    }
+
+    /**
+     * Amount of records dropped since buffer was full
+     * @return
+     */
+    public long getDroppedCount(){
+        return this.droppedCount.sum();
+    }
+
+    /**
+     * Estimates object size: length of byte[] and String, 0 for other objects
+     *
+     * @param object
+     * @return
+     */
+    public static int sizeOf(Object object){
+        if (object instanceof byte[]){
+            return ((byte[])object).length;
+        }else if (object instanceof String){
+            return ((String)object).length();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Writes buffered records and closes the file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException{
+        if (!this.isRunning){
+            return;
+        }
+
+        this.isRunning = false;
+        LockSupport.unpark(this.writer);
+
+        try{
+            this.writer.join();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        this.out.close();
+        if (this.writeException != null){
+            throw this.writeException;
+        }
+    }
+
+    /**
+     * Writer thread's loop
+     */
+    private void drain(){
+        boolean isFlushed = true;
+
+        try{
+            while (true){
+                long sequence = this.head;
+                int index = (int)(sequence & this.mask);
+
+                if (this.published.get(index) == sequence + 1){
+                    this.out.writeLong(this.timestamps[index]);
+                    this.out.writeInt(this.keyHashes[index]);
+                    this.out.writeInt(this.sizes[index]);
+                    this.out.writeByte(this.operations[index]);
+                    this.head = sequence + 1;
+                    isFlushed = false;
+                }else if (!this.isRunning && (sequence == this.tail.get())){
+                    break;
+                }else if (!this.isRunning){
+                    //  record is claimed but not published yet
+                    Thread.yield();
+                }else{
+                    if (!isFlushed){
+                        this.out.flush();
+                        isFlushed = true;
+                    }
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+        }catch (IOException e){
+            this.writeException = e;
+            this.isRunning = false;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import com.kudoji.cman.cache.TwoLevelCache;
+import com.kudoji.cman.server.CacheClient;
+import com.kudoji.cman.server.CacheServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CacheServerTest {
+    private TwoLevelCache<String, byte[]> tlc;
+    private CacheServer server;
+    private CacheClient client;
+
+    @Before
+    public void beforeTest() throws IOException{
+        this.tlc = new TwoLevelCache<>(TwoLevelCache.CacheStrategy.OLDTOFILE, ".cache-server");
+        this.tlc.flush();
+        this.tlc.setMaxSizeMemoryCache(1);
+
+        this.server = new CacheServer(this.tlc, new InetSocketAddress("127.0.0.1", 0));
+        this.server.start();
+        this.client = new CacheClient("127.0.0.1", this.server.getPort(), 5000);
+    }
+
+    @After
+    public void afterTest() throws IOException{
+        this.client.close();
+        this.server.close();
+        this.tlc.flush();
+    }
+
+    @Test
+    public void testSetGet() throws IOException{
+        assertNull(client.get("key1"));
+
+        assertTrue(client.set("key1", "object1".getBytes()));
+        assertArrayEquals("object1".getBytes(), client.get("key1"));
+
+        assertTrue(client.delete("key1"));
+        assertFalse(client.delete("key1"));
+        assertNull(client.get("key1"));
+    }
+
+    @Test
+    public void testFileTier() throws IOException{
+        byte[] big = new byte[300 * 1024];
+        Arrays.fill(big, (byte)7);
+
+        assertTrue(client.set("key1", "object1".getBytes()));
+        //  memory cache is full, the object goes to file cache
+        assertTrue(client.set("key2", big));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation("key2"));
+
+        assertArrayEquals(big, client.get("key2"));
+    }
+
+    @Test
+    public void testPipelining() throws IOException{
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++){
+            values.put("key" + i, ("object" + i).getBytes());
+        }
+
+        assertEquals(values.keySet(), client.setAll(values));
+
+        Map<String, byte[]> found = client.getMulti(Arrays.asList("key0", "key49", "absent"));
+        assertEquals(2, found.size());
+        assertArrayEquals("object49".getBytes(), found.get("key49"));
+    }
+
+    @Test
+    public void testGetManyKeys() throws IOException{
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        for (int i = 0; i < 500; i++){
+            values.put("key" + i, ("object" + i).getBytes());
+        }
+        assertEquals(values.keySet(), client.setAll(values));
+
+        //  far more values than replies allowed in the queue, the rest are sent from heap
+        Map<String, byte[]> found = client.getMulti(new ArrayList<>(values.keySet()));
+        assertEquals(values.size(), found.size());
+        for (Map.Entry<String, byte[]> entry: values.entrySet()){
+            assertArrayEquals(entry.getValue(), found.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testPipeliningBackpressure() throws IOException{
+        byte[] big = new byte[64 * 1024];
+        Arrays.fill(big, (byte)7);
+
+        assertTrue(client.set("key1", "object1".getBytes()));
+        assertTrue(client.set("key2", big));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation("key2"));
+
+        //  many more gets than responses the server queues, none is read until all are sent
+        int gets = 2000;
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < gets; i++){
+            commands.append("get key2\r\n");
+        }
+        byte[] request = commands.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] response = ("VALUE key2 0 " + big.length + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        long expected = (long)gets * (response.length + big.length + "\r\nEND\r\n".length());
+
+        try (Socket socket = new Socket("127.0.0.1", this.server.getPort())){
+            socket.setSoTimeout(5000);
+            OutputStream output = socket.getOutputStream();
+            output.write(request);
+            output.flush();
+
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long received = 0;
+            while (received < expected){
+                int count = input.read(buffer);
+                assertTrue(count > 0);
+                received += count;
+            }
+            assertEquals(expected, received);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import com.kudoji.cman.cache.CacheObject;
+import com.kudoji.cman.cache.CompactMemoryCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactMemoryCacheTest {
+    private CompactMemoryCache<String, String> mc;
+
+    private static final String key1 = "key1";
+    private static final String key2 = "key2";
+    private static final String object1 = "object1";
+    private static final String object2 = "object2";
+
+    @Before
+    public void beforeTest(){
+        this.mc = new CompactMemoryCache<>();
+    }
+
+    @Test
+    public void testPut(){
+        assertTrue(mc.put(key1, object1));
+        assertTrue(mc.put(key1, object2));
+        assertEquals(object2, mc.get(key1));
+        assertEquals(1, mc.size());
+
+        assertTrue(mc.put(key2, object2));
+        assertEquals(2, mc.size());
+
+        mc.setMaxSize(1);
+        assertEquals(1, mc.size());
+
+        CacheObject<String, String> cacheObject = new CacheObject<>("key3", object1);
+        assertFalse(mc.put(cacheObject));
+
+        mc.setMaxSize(10);
+        assertTrue(mc.put(cacheObject));
+        assertEquals(2, mc.size());
+    }
+
+    @Test
+    public void testMetadata(){
+        CacheObject<String, String> cacheObject = new CacheObject<>(key1, object1);
+        cacheObject.incFrequency();
+        cacheObject.incFrequency();
+
+        mc.put(cacheObject);
+        assertEquals(2, mc.getFrequency(key1));
+
+        mc.get(key1);
+        assertEquals(3, mc.getFrequency(key1));
+        assertTrue(mc.getAge(key1) >= 0);
+
+        List<CacheObject<String, String>> cacheObjects = mc.getAll();
+        assertEquals(1, cacheObjects.size());
+        assertEquals(key1, cacheObjects.get(0).getKey());
+        assertEquals(3, cacheObjects.get(0).getFrequency());
+        assertEquals(cacheObject.getCreateTime(), cacheObjects.get(0).getCreateTime());
+
+        assertEquals(-1, mc.getFrequency(key2));
+        assertEquals(-1, mc.getAge(key2));
+    }
+
+    @Test
+    public void testGetDelete(){
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++){
+            String key = "key" + random.nextInt(500);
+            if (random.nextBoolean()){
+                mc.put(key, "value" + i);
+                expected.put(key, "value" + i);
+            }else{
+                assertEquals(expected.remove(key) != null, mc.delete(key));
+            }
+        }
+
+        assertEquals(expected.size(), mc.size());
+        for (Map.Entry<String, String> entry: expected.entrySet()){
+            assertEquals(entry.getValue(), mc.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testFlush(){
+        mc.put(key1, object1);
+        mc.flush();
+
+        assertEquals(0, mc.size());
+        assertNull(mc.get(key1));
+    }
+}
@@ -2,6 +2,18 @@ import com.kudoji.cman.cache.CacheObject;
 import com.kudoji.cman.cache.FileCache;
 import org.junit.BeforeClass;
 import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public class FileCacheTest {
@@ -71,4 +83,243 @@ public class FileCacheTest {
         fc.put(cacheObject);
         assertEquals(object2, fc.get(key1));
     }
+
+    @Test
+    public void testGroupCommit() throws InterruptedException{
+        fc = new FileCache<>();
+        fc.flush();
+        fc.setDurability(FileCache.Durability.GROUP_COMMIT);
+        fc.setCommitWindow(5);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++){
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10; i++){
+                    assertTrue(fc.put("key" + thread + "_" + i, object1));
+                }
+            }));
+        }
+        for (Thread thread: threads){
+            thread.start();
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+
+        assertEquals(80, fc.size());
+        assertEquals(object1, fc.get("key7_9"));
+
+        assertTrue(fc.delete("key7_9"));
+        assertNull(fc.get("key7_9"));
+
+        fc.setDurability(FileCache.Durability.NONE);
+        fc.flush();
+    }
+
+    @Test
+    public void testJournalReplay() throws IOException{
+        fc = new FileCache<>();
+        fc.flush();
+        fc.setDurability(FileCache.Durability.GROUP_COMMIT);
+        fc.setCommitWindow(0);
+
+        assertTrue(fc.put(key1, object1));
+
+        //  imitate torn file after crash
+        for (File f: new File(".cache").listFiles()){
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(new byte[]{1, 2, 3});
+            fos.close();
+        }
+
+        //  the journal is replayed when the cache is created
+        FileCache<String, String> recovered = new FileCache<>();
+        assertEquals(object1, recovered.get(key1));
+        assertFalse(new File(".cache.journal").exists());
+
+        //  newer objects are not overwritten by the old journal later on
+        assertTrue(recovered.put(key1, object2));
+        recovered.setDurability(FileCache.Durability.GROUP_COMMIT);
+        assertEquals(object2, recovered.get(key1));
+
+        recovered.close();
+        assertFalse(new File(".cache.journal").exists());
+        fc.close();
+        fc.flush();
+    }
+
+    @Test
+    public void testJournalSyncedFile() throws IOException{
+        fc = new FileCache<>();
+        fc.flush();
+        fc.setDurability(FileCache.Durability.GROUP_COMMIT);
+        fc.setCommitWindow(0);
+
+        assertTrue(fc.put(key1, object1));
+        //  streamed file bypasses the journal, the journaled object must not come back
+        assertTrue(fc.putStream(key1, new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        File file = new File(".cache").listFiles()[0];
+        byte[] streamed = Files.readAllBytes(file.toPath());
+        assertTrue(new File(".cache.journal").length() > 0);
+
+        //  imitate crash: the journal is left and replayed by a new instance
+        FileCache<String, String> recovered = new FileCache<>();
+        assertArrayEquals(streamed, Files.readAllBytes(file.toPath()));
+
+        recovered.close();
+        fc.close();
+        fc.flush();
+    }
+
+    @Test
+    public void testBloomFilter(){
+        fc = new FileCache<>();
+        fc.flush();
+        fc.put(key1, object1);
+
+        fc.setBloomFilterFalsePositiveRate(0.01);
+        assertEquals(object1, fc.get(key1));
+
+        fc.put(key2, object2);
+        assertEquals(object2, fc.get(key2));
+        assertTrue(fc.isKeyPresent(key2));
+
+        long negatives = fc.getBloomFilterNegativeCount();
+        long falsePositives = fc.getBloomFilterFalsePositiveCount();
+        for (int i = 0; i < 100; i++){
+            assertNull(fc.get("absent" + i));
+        }
+        negatives = fc.getBloomFilterNegativeCount() - negatives;
+        falsePositives = fc.getBloomFilterFalsePositiveCount() - falsePositives;
+        assertTrue(negatives > 90);
+        assertEquals(100, negatives + falsePositives);
+
+        assertTrue(fc.delete(key1));
+        assertFalse(fc.isKeyPresent(key1));
+        assertFalse(fc.delete(key1));
+
+        fc.flush();
+        assertNull(fc.get(key2));
+        fc.put(key3, object3);
+        assertEquals(object3, fc.get(key3));
+
+        fc.setBloomFilterFalsePositiveRate(0);
+        fc.flush();
+    }
+
+    @Test
+    public void testBloomFilterRebuild() throws InterruptedException{
+        fc = new FileCache<>();
+        fc.flush();
+        fc.setBloomFilterFalsePositiveRate(0.01);
+
+        //  writers cross filter's capacity several times, every rebuild races with them
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++){
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++){
+                    fc.put("key" + thread + "_" + i, object1);
+                }
+            }));
+        }
+        for (Thread thread: threads){
+            thread.start();
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+
+        for (int t = 0; t < 4; t++){
+            for (int i = 0; i < 1000; i++){
+                assertTrue(fc.isKeyPresent("key" + t + "_" + i));
+            }
+        }
+
+        fc.setBloomFilterFalsePositiveRate(0);
+        fc.flush();
+    }
+
+    @Test
+    public void testGetBytes() throws IOException{
+        FileCache<String, Object> bfc = new FileCache<>(".cache-bytes");
+        bfc.flush();
+
+        byte[] small = new byte[100];
+        byte[] large = new byte[100_000];
+        for (int i = 0; i < large.length; i++){
+            large[i] = (byte)i;
+        }
+        System.arraycopy(large, 0, small, 0, small.length);
+
+        bfc.put(key1, small);
+        bfc.put(key2, large);
+        bfc.put(key3, object3);
+
+        for (byte[] bytes: new byte[][]{small, large}){
+            String key = (bytes == small) ? key1 : key2;
+
+            ByteBuffer buffer = bfc.getBytes(key);
+            assertTrue(buffer.isReadOnly());
+            assertEquals(ByteBuffer.wrap(bytes), buffer);
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            assertEquals(bytes.length, bfc.transferTo(key, Channels.newChannel(os)));
+            assertArrayEquals(bytes, os.toByteArray());
+        }
+
+        //  not byte[] or not cached
+        assertNull(bfc.getBytes(key3));
+        assertEquals(-1, bfc.transferTo(key3, Channels.newChannel(new ByteArrayOutputStream())));
+        assertNull(bfc.getBytes("absent"));
+
+        bfc.flush();
+    }
+
+    @Test
+    public void testDeduplication() throws IOException{
+        FileCache<String, Object> dfc = new FileCache<>(".cache-dedup");
+        dfc.flush();
+        dfc.setDeduplicated(true);
+
+        byte[] bytes = new byte[1_000];
+        for (int i = 0; i < bytes.length; i++){
+            bytes[i] = (byte)i;
+        }
+
+        for (int i = 0; i < 5; i++){
+            assertTrue(dfc.put("bytes" + i, bytes.clone()));
+            assertTrue(dfc.put("string" + i, "same value"));
+        }
+        assertEquals(10, dfc.size());
+        assertEquals(2, dfc.getBlobCount());
+        assertEquals(8, dfc.getDeduplicatedCount());
+
+        assertArrayEquals(bytes, (byte[])dfc.get("bytes3"));
+        assertEquals("same value", dfc.get("string3"));
+        assertEquals(ByteBuffer.wrap(bytes), dfc.getBytes("bytes4"));
+
+        //  replaced value releases its blob when the last reference is gone
+        for (int i = 0; i < 5; i++){
+            dfc.put("string" + i, "value " + i);
+        }
+        assertEquals(6, dfc.getBlobCount());
+
+        for (int i = 0; i < 4; i++){
+            dfc.delete("bytes" + i);
+        }
+        assertEquals(6, dfc.getBlobCount());
+        dfc.delete("bytes4");
+        assertEquals(5, dfc.getBlobCount());
+
+        //  references are counted again from files
+        FileCache<String, Object> reopened = new FileCache<>(".cache-dedup");
+        reopened.setDeduplicated(true);
+        assertEquals(5, reopened.getBlobCount());
+        assertEquals("value 2", reopened.get("string2"));
+
+        reopened.flush();
+        assertEquals(0, reopened.getBlobCount());
+    }
 }
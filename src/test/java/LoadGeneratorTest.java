@@ -0,0 +1,53 @@
+import com.kudoji.cman.load.KeyDistribution;
+import com.kudoji.cman.load.LoadGenerator;
+import com.kudoji.cman.load.LoadReport;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+    @Test
+    public void testKeyDistributions(){
+        Random random = new Random(1);
+
+        KeyDistribution zipfian = KeyDistribution.of("zipfian", 1000);
+        int hot = 0;
+        for (int i = 0; i < 10000; i++){
+            long key = zipfian.nextKey(random);
+            assertTrue((key >= 0) && (key < 1000));
+            if (key < 10){
+                hot++;
+            }
+        }
+        //  1% of keys get far more than 1% of requests
+        assertTrue(hot > 3000);
+
+        KeyDistribution sequential = KeyDistribution.of("sequential", 3);
+        assertEquals(0, sequential.nextKey(random));
+        assertEquals(1, sequential.nextKey(random));
+        assertEquals(2, sequential.nextKey(random));
+        assertEquals(0, sequential.nextKey(random));
+
+        KeyDistribution hotspot = KeyDistribution.hotspot(1000, 0.1, 1);
+        for (int i = 0; i < 1000; i++){
+            assertTrue(hotspot.nextKey(random) < 100);
+        }
+    }
+
+    @Test
+    public void testRun() throws InterruptedException{
+        LoadGenerator generator = new LoadGenerator(LoadGenerator.CacheType.MEMORY, KeyDistribution.uniform(100));
+        generator.setThreads(2);
+        generator.setDuration(200);
+        generator.setPreloaded(true);
+
+        LoadReport report = generator.run();
+        assertTrue(report.getGets() > 0);
+        assertTrue(report.getPuts() > 0);
+        assertEquals(1.0, report.getMemoryHitRatio(), 0.0001);
+        assertTrue(report.getGetLatency(50) <= report.getGetLatency(99.9));
+        assertTrue(report.getThroughput() > 0);
+    }
+}
@@ -0,0 +1,50 @@
+import com.kudoji.cman.cache.LongKeyFileCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class LongKeyFileCacheTest {
+    private LongKeyFileCache<String> fc;
+
+    private static final String cacheDir = ".cache-long";
+    private static final String object1 = "object1";
+    private static final String object2 = "object2";
+
+    @Before
+    public void beforeTest(){
+        this.fc = new LongKeyFileCache<>(cacheDir);
+        this.fc.flush();
+    }
+
+    @Test
+    public void testPutGetDelete(){
+        assertTrue(fc.put(1L, object1));
+        assertTrue(fc.put(1L, object2));
+        assertTrue(fc.put(-1L, object1));
+        assertEquals(2, fc.size());
+
+        assertEquals(object2, fc.get(1L));
+        assertEquals(object1, fc.get(Long.valueOf(-1L)));
+        assertNull(fc.get(2L));
+        assertTrue(fc.isKeyPresent(-1L));
+
+        assertTrue(fc.delete(1L));
+        assertFalse(fc.delete(1L));
+        assertFalse(fc.isKeyPresent(1L));
+        assertEquals(1, fc.size());
+    }
+
+    @Test
+    public void testFileName(){
+        fc.put(0x1234L, object1);
+        fc.put(Long.MIN_VALUE, object2);
+
+        //  key written in 16 hex digits is the file name
+        assertTrue(new File(cacheDir, "0000000000001234").exists());
+        assertTrue(new File(cacheDir, "8000000000000000").exists());
+        assertEquals(object2, fc.get(Long.MIN_VALUE));
+    }
+}
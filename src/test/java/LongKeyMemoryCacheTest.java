@@ -0,0 +1,113 @@
+import com.kudoji.cman.cache.CacheObject;
+import com.kudoji.cman.cache.LongKeyMemoryCache;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongKeyMemoryCacheTest {
+    private LongKeyMemoryCache<String> mc;
+
+    private static final String object1 = "object1";
+    private static final String object2 = "object2";
+
+    @Before
+    public void beforeTest(){
+        this.mc = new LongKeyMemoryCache<>();
+    }
+
+    @Test
+    public void testPut(){
+        assertTrue(mc.put(1L, object1));
+        assertTrue(mc.put(1L, object2));
+        assertEquals(object2, mc.get(1L));
+        assertEquals(1, mc.size());
+
+        assertTrue(mc.put(-1L, object1));
+        assertTrue(mc.put(0L, object1));
+        assertEquals(3, mc.size());
+
+        mc.setMaxSize(1);
+        assertEquals(1, mc.size());
+        assertFalse(mc.put(new CacheObject<>(Long.MAX_VALUE, object1)));
+
+        mc.setMaxSize(0);
+        assertTrue(mc.put(new CacheObject<>(Long.MAX_VALUE, object1)));
+        assertEquals(object1, mc.get(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testGetDelete(){
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        //  small key space gives plenty of collisions, deletes and re-puts
+        for (int i = 0; i < 20000; i++){
+            long key = random.nextInt(500) * 1024L;
+            if (random.nextBoolean()){
+                mc.put(key, "value" + i);
+                expected.put(key, "value" + i);
+            }else{
+                assertEquals(expected.remove(key) != null, mc.delete(key));
+            }
+        }
+
+        assertEquals(expected.size(), mc.size());
+        assertEquals(expected.size(), mc.getAll().size());
+        for (Map.Entry<Long, String> entry: expected.entrySet()){
+            assertEquals(entry.getValue(), mc.get(entry.getKey().longValue()));
+        }
+    }
+
+    @Test
+    public void testFrequency(){
+        assertEquals(-1, mc.getFrequency(1L));
+
+        mc.put(1L, object1);
+        mc.get(1L);
+        mc.get(1L);
+        assertEquals(2, mc.getFrequency(1L));
+        assertTrue(mc.getAge(1L) >= 0);
+    }
+
+    @Test
+    public void testFlush(){
+        mc.put(1L, object1);
+        mc.flush();
+
+        assertEquals(0, mc.size());
+        assertNull(mc.get(1L));
+    }
+
+    @Test
+    public void testNoAllocation(){
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        long threadId = Thread.currentThread().getId();
+        //  keys out of Long cache range would allocate if they were boxed
+        for (long key = 1000; key < 1100; key++){
+            mc.put(key, object1);
+        }
+
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++){
+            long key = 1000 + (i % 100);
+            mc.get(key);
+            mc.put(key, object2);
+            mc.isKeyPresent(key);
+        }
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        //  a boxed key per call would take megabytes
+        assertTrue(allocated < 10000);
+    }
+}
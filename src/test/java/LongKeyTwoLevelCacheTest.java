@@ -0,0 +1,62 @@
+import com.kudoji.cman.cache.LongKeyTwoLevelCache;
+import com.kudoji.cman.cache.TwoLevelCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongKeyTwoLevelCacheTest {
+    private LongKeyTwoLevelCache<String> tlc;
+
+    private static final String object1 = "object1";
+    private static final String object2 = "object2";
+    private static final String object3 = "object3";
+
+    @Before
+    public void beforeTest(){
+        this.tlc = new LongKeyTwoLevelCache<>();
+        this.tlc.flush();
+        this.tlc.setMaxSizeMemoryCache(1);
+        this.tlc.setMaxSizeFileCache(0);
+    }
+
+    @Test
+    public void testPutGetDelete(){
+        assertTrue(tlc.put(1000L, object1));
+        assertTrue(tlc.put(2000L, object2));
+        assertTrue(tlc.put(Long.MAX_VALUE, object3));
+        assertEquals(3, tlc.size());
+
+        //  memory cache keeps one object, the rest are in file cache
+        int inMemory = 0;
+        for (long key: new long[]{1000L, 2000L, Long.MAX_VALUE}){
+            if (tlc.getLocation(key) == TwoLevelCache.ObjectLocation.MEMORY){
+                inMemory++;
+            }
+        }
+        assertEquals(1, inMemory);
+        assertEquals(object1, tlc.get(1000L));
+        assertEquals(object2, tlc.get(Long.valueOf(2000L)));
+        assertEquals(object3, tlc.get(Long.MAX_VALUE));
+        assertNull(tlc.get(3000L));
+
+        assertTrue(tlc.delete(2000L));
+        assertFalse(tlc.isKeyPresent(2000L));
+        assertEquals(TwoLevelCache.ObjectLocation.NONE, tlc.getLocation(2000L));
+        assertNull(tlc.get(2000L));
+        assertEquals(2, tlc.size());
+    }
+
+    @Test
+    public void testNegativeCache(){
+        tlc.setNegativeCache(16, 60000);
+
+        assertNull(tlc.get(1000L));
+        assertTrue(tlc.isKnownAbsent(1000L));
+
+        //  long keys use the same paths as boxed ones, so put() forgets the miss
+        tlc.put(1000L, object1);
+        assertFalse(tlc.isKnownAbsent(1000L));
+        assertEquals(object1, tlc.get(1000L));
+    }
+}
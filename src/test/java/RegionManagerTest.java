@@ -0,0 +1,108 @@
+import com.kudoji.cman.cache.RegionManager;
+import com.kudoji.cman.cache.TwoLevelCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RegionManagerTest {
+    private RegionManager manager;
+    private TwoLevelCache<String, String> users;
+    private TwoLevelCache<String, String> orders;
+
+    @Before
+    public void beforeTest(){
+        this.manager = new RegionManager(".cache-regions", 100, 100);
+        this.users = this.manager.createRegion("users", TwoLevelCache.CacheStrategy.OLDTOFILE, 10, 10, 1);
+        this.orders = this.manager.createRegion("orders", TwoLevelCache.CacheStrategy.OLDTOFILE, 10, 10, 1);
+        this.users.flush();
+        this.orders.flush();
+    }
+
+    @After
+    public void afterTest(){
+        for (String name: this.manager.getRegionNames()){
+            this.manager.removeRegion(name);
+        }
+    }
+
+    @Test
+    public void testRegions(){
+        assertEquals(50, users.getMaxSizeMemoryCache());
+        assertEquals(50, orders.getMaxSizeFileCache());
+
+        //  key spaces are separate
+        users.put("key", "user");
+        orders.put("key", "order");
+        assertEquals("user", users.get("key"));
+        assertEquals("order", orders.get("key"));
+        assertSame(users, manager.getRegion("users"));
+
+        try{
+            manager.createRegion("users", TwoLevelCache.CacheStrategy.OLDTOFILE, 10, 10, 1);
+            fail("Region name must be unique");
+        }catch (IllegalArgumentException e){
+            //  expected
+        }
+        try{
+            manager.createRegion("items", TwoLevelCache.CacheStrategy.OLDTOFILE, 90, 10, 1);
+            fail("Minimum sizes must fit the budget");
+        }catch (IllegalArgumentException e){
+            //  expected
+        }
+
+        assertTrue(manager.removeRegion("orders"));
+        assertEquals(100, users.getMaxSizeMemoryCache());
+        assertEquals(100, users.getMaxSizeFileCache());
+    }
+
+    @Test
+    public void testCapacityMisses(){
+        //  absent keys are not capacity misses however often they are requested
+        for (int i = 0; i < 10; i++){
+            users.get("absent");
+        }
+        assertEquals(0, users.getCapacityMissCount());
+
+        for (int i = 0; i < 200; i++){
+            users.put("user" + i, "user" + i);
+        }
+        users.get("user199");
+        assertEquals(1, users.getCapacityMissCount());
+
+        //  deleted key is not a capacity miss either
+        users.delete("user199");
+        users.get("user199");
+        assertEquals(1, users.getCapacityMissCount());
+    }
+
+    @Test
+    public void testRebalance(){
+        //  users' objects don't fit, orders are idle
+        for (int i = 0; i < 200; i++){
+            users.put("user" + i, "user" + i);
+        }
+        for (int i = 0; i < 200; i++){
+            users.get("user" + i);
+        }
+        assertTrue(users.getCapacityMissCount() > 0);
+
+        assertTrue(manager.rebalance());
+        assertTrue(users.getMaxSizeFileCache() > 50);
+        assertEquals(100, users.getMaxSizeFileCache() + orders.getMaxSizeFileCache());
+
+        for (int i = 0; i < 100; i++){
+            manager.rebalance();
+            for (int j = 0; j < 200; j++){
+                users.get("user" + j);
+            }
+        }
+
+        //  minimums are kept
+        assertEquals(10, orders.getMaxSizeMemoryCache());
+        assertEquals(10, orders.getMaxSizeFileCache());
+        assertEquals(90, users.getMaxSizeMemoryCache());
+        assertEquals(90, users.getMaxSizeFileCache());
+    }
+}
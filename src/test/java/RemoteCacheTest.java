@@ -0,0 +1,111 @@
+import com.kudoji.cman.cache.RemoteCache;
+import com.kudoji.cman.cache.TwoLevelCache;
+import com.kudoji.cman.server.CacheServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RemoteCacheTest {
+    //  stands for the peer node
+    private TwoLevelCache<String, byte[]> peerCache;
+    private CacheServer server;
+    private RemoteCache<String, String> rc;
+
+    @Before
+    public void beforeTest() throws IOException{
+        this.peerCache = new TwoLevelCache<>(TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY, ".cache-peer");
+        this.peerCache.flush();
+
+        this.server = new CacheServer(this.peerCache, new InetSocketAddress("127.0.0.1", 0));
+        this.server.start();
+        this.rc = new RemoteCache<>("127.0.0.1", this.server.getPort(), 2, 1000);
+    }
+
+    @After
+    public void afterTest() throws IOException{
+        this.rc.close();
+        this.server.close();
+        this.peerCache.flush();
+    }
+
+    @Test
+    public void testPutGet(){
+        assertNull(rc.get("key1"));
+
+        assertTrue(rc.put("key1", "object1"));
+        assertEquals("object1", rc.get("key1"));
+        assertTrue(peerCache.isKeyPresent("key1"));
+
+        assertFalse(rc.put("key with spaces", "object1"));
+
+        assertTrue(rc.put("key2", "object2"));
+        Map<String, String> objects = rc.getBatch(Arrays.asList("key1", "key2", "key3"));
+        assertEquals(2, objects.size());
+        assertEquals("object2", objects.get("key2"));
+
+        assertTrue(rc.delete("key1"));
+        assertNull(rc.get("key1"));
+    }
+
+    @Test
+    public void testPeerTier(){
+        TwoLevelCache<String, String> tlc = new TwoLevelCache<>(TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY,
+                ".cache-local");
+        tlc.flush();
+        tlc.setPeerCache(rc);
+
+        rc.put("key1", "object1");
+        assertEquals(TwoLevelCache.ObjectLocation.NONE, tlc.getLocation("key1"));
+
+        assertEquals("object1", tlc.get("key1"));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation("key1"));
+
+        assertTrue(tlc.delete("key1"));
+        assertNull(rc.get("key1"));
+
+        tlc.flush();
+    }
+
+    @Test
+    public void testCircuitBreaker() throws IOException{
+        server.close();
+
+        for (int i = 0; i < 5; i++){
+            assertNull(rc.get("key1"));
+        }
+        assertTrue(rc.isCircuitOpen());
+
+        //  open circuit doesn't wait for the timeout
+        long start = System.currentTimeMillis();
+        assertFalse(rc.put("key1", "object1"));
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+
+    @Test
+    public void testRequestFailure() throws IOException{
+        RemoteCache<String, String> failing = new RemoteCache<>("127.0.0.1", this.server.getPort(), 2, 1000,
+                object -> {
+                    if ("bad".equals(object)){
+                        throw new UncheckedIOException(new IOException("not encodable"));
+                    }
+                    return object.getBytes(StandardCharsets.UTF_8);
+                },
+                bytes -> new String(bytes, StandardCharsets.UTF_8));
+
+        //  the error doesn't escape and the connection is usable again
+        assertFalse(failing.put("key1", "bad"));
+        assertTrue(failing.put("key1", "good"));
+        assertEquals("good", failing.get("key1"));
+
+        failing.close();
+    }
+}
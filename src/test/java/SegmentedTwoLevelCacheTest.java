@@ -0,0 +1,133 @@
+import com.kudoji.cman.cache.SegmentedTwoLevelCache;
+import com.kudoji.cman.cache.TwoLevelCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SegmentedTwoLevelCacheTest {
+    private SegmentedTwoLevelCache<String, String> stlc;
+
+    @Before
+    public void beforeTest(){
+        this.stlc = new SegmentedTwoLevelCache<>(4, TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY);
+        this.stlc.flush();
+    }
+
+    @After
+    public void afterTest(){
+        this.stlc.flush();
+    }
+
+    @Test
+    public void testMaxSize(){
+        stlc.setMaxSizeMemoryCache(10);
+        stlc.setMaxSizeFileCache(6);
+
+        assertEquals(10, stlc.getMaxSizeMemoryCache());
+        assertEquals(6, stlc.getMaxSizeFileCache());
+        assertEquals(16, stlc.getMaxSize());
+    }
+
+    @Test
+    public void testConcurrentPutGet() throws InterruptedException{
+        stlc.setMaxSizeMemoryCache(40);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++){
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 25; i++){
+                    String key = "key" + thread + "_" + i;
+                    assertTrue(stlc.put(key, key));
+                    assertEquals(key, stlc.get(key));
+                }
+            }));
+        }
+        for (Thread thread: threads){
+            thread.start();
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+
+        assertEquals(100, stlc.size());
+        assertEquals(100, stlc.getHitCount());
+        assertNull(stlc.get("absent"));
+        assertEquals(1, stlc.getMissCount());
+
+        stlc.applyCacheStrategy();
+        assertEquals(100, stlc.size());
+        assertEquals("key3_24", stlc.get("key3_24"));
+    }
+
+    @Test
+    public void testConcurrentCompute() throws InterruptedException{
+        SegmentedTwoLevelCache<String, Integer> counters = new SegmentedTwoLevelCache<>(4,
+                TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY);
+        counters.setMaxSizeMemoryCache(4);
+        AtomicInteger computations = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++){
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++){
+                    counters.computeIfAbsent("loaded", key -> computations.incrementAndGet());
+                    counters.merge("counter" + (i % 10), 1, Integer::sum);
+                }
+            }));
+        }
+        for (Thread thread: threads){
+            thread.start();
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+
+        assertEquals(1, computations.get());
+        for (int i = 0; i < 10; i++){
+            assertEquals(Integer.valueOf(40), counters.get("counter" + i));
+        }
+
+        counters.flush();
+    }
+
+    @Test
+    public void testComputeWhileKeyMoves(){
+        //  one segment, so gets and puts made by remapping hit the segment of the computed key
+        SegmentedTwoLevelCache<String, String> cache = new SegmentedTwoLevelCache<>(1, TwoLevelCache.CacheStrategy.ADAPTIVE);
+        cache.flush();
+        cache.setMaxSizeMemoryCache(2);
+
+        //  key is found in memory and demoted by puts of other keys before the result is stored
+        cache.put("key1", "old");
+        cache.compute("key1", (key, object) -> {
+            for (int i = 0; i < 4; i++){
+                cache.put("other" + i, "object" + i);
+                cache.get("other" + i);
+            }
+            return "new";
+        });
+        assertEquals("new", cache.get("key1"));
+
+        //  key is found in file cache and promoted by get() before the result is stored
+        cache.put("key2", "old");
+        for (int i = 0; i < 4; i++){
+            cache.put("more" + i, "object" + i);
+            cache.get("more" + i);
+        }
+        cache.compute("key2", (key, object) -> {
+            cache.get(key);
+            cache.get(key);
+            return "new";
+        });
+        assertEquals("new", cache.get("key2"));
+
+        cache.flush();
+    }
+}
@@ -0,0 +1,104 @@
+import com.kudoji.cman.cache.SharedFileCache;
+import com.kudoji.cman.cache.TwoLevelCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SharedFileCacheTest {
+    private static final String cacheDir = ".cache-shared";
+
+    //  two caches over one folder stand for two processes
+    private SharedFileCache<String, String> fc1;
+    private SharedFileCache<String, String> fc2;
+
+    @Before
+    public void beforeTest(){
+        this.fc1 = new SharedFileCache<>(cacheDir);
+        this.fc2 = new SharedFileCache<>(cacheDir);
+        this.fc1.flush();
+        this.fc1.setMaxSize(0);
+    }
+
+    @After
+    public void afterTest() throws IOException{
+        this.fc1.flush();
+        this.fc1.close();
+        this.fc2.close();
+        new File(cacheDir + ".header").delete();
+    }
+
+    @Test
+    public void testSharedSize(){
+        assertTrue(fc1.put("key1", "object1"));
+        assertTrue(fc2.put("key2", "object2"));
+        assertTrue(fc2.put("key1", "object3"));
+
+        assertEquals(2, fc1.size());
+        assertEquals(2, fc2.size());
+        assertEquals("object3", fc1.get("key1"));
+        assertTrue(fc1.getTotalBytes() > 0);
+
+        assertTrue(fc1.delete("key2"));
+        assertFalse(fc2.delete("key2"));
+        assertEquals(1, fc2.size());
+    }
+
+    @Test
+    public void testSharedMaxSize(){
+        fc1.setMaxSize(2);
+        assertEquals(2, fc2.getMaxSize());
+
+        assertTrue(fc1.put("key1", "object1"));
+        assertTrue(fc2.put("key2", "object2"));
+        assertFalse(fc2.put("key3", "object3"));
+        assertFalse(fc1.put("key3", "object3"));
+
+        fc2.setMaxSize(1);
+        assertEquals(1, fc1.size());
+    }
+
+    @Test
+    public void testFileLevel(){
+        fc1.setMaxSize(2);
+
+        TwoLevelCache<String, String> tlc = new TwoLevelCache<>(TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY, fc1);
+        //  the shared bound is kept
+        assertEquals(2, fc2.getMaxSize());
+        assertEquals(2, tlc.getMaxSizeFileCache());
+
+        tlc.setMaxSizeMemoryCache(1);
+        assertTrue(tlc.put("key1", "object1"));
+        assertTrue(tlc.put("key2", "object2"));
+        assertTrue(tlc.put("key3", "object3"));
+        assertFalse(tlc.put("key4", "object4"));
+
+        //  objects in file level are seen by another process
+        assertEquals(2, fc2.size());
+    }
+
+    @Test
+    public void testDirtyHeader() throws IOException{
+        assertTrue(fc1.put("key1", "object1"));
+        assertTrue(fc1.put("key2", "object2"));
+
+        //  imitate a process which died after it had changed the count: count is wrong and header is dirty
+        try (RandomAccessFile header = new RandomAccessFile(cacheDir + ".header", "rw")){
+            header.seek(8);
+            header.writeLong(7);
+            header.seek(24);
+            header.writeInt(1);
+        }
+        assertEquals(7, fc2.size());
+
+        SharedFileCache<String, String> reopened = new SharedFileCache<>(cacheDir);
+        assertEquals(2, reopened.size());
+        assertEquals(2, fc1.size());
+        reopened.close();
+    }
+}
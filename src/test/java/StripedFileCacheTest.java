@@ -0,0 +1,113 @@
+import com.kudoji.cman.cache.StripedFileCache;
+import com.kudoji.cman.cache.TwoLevelCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class StripedFileCacheTest {
+    private static final String[] cacheDirs = {".cache-stripe-0", ".cache-stripe-1", ".cache-stripe-2"};
+    private static final double[] weights = {1, 1, 2};
+
+    private StripedFileCache<String, String> sfc;
+
+    @Before
+    public void beforeTest(){
+        this.sfc = new StripedFileCache<>(cacheDirs, weights);
+        this.sfc.flush();
+    }
+
+    @After
+    public void afterTest(){
+        this.sfc.flush();
+    }
+
+    @Test
+    public void testStriping(){
+        for (int i = 0; i < 400; i++){
+            assertTrue(sfc.put("key" + i, "object" + i));
+        }
+        assertEquals(400, sfc.size());
+        assertEquals(3, sfc.getStripeCount());
+        assertTrue(sfc.getStripeSize(0) > 0);
+        assertTrue(sfc.getStripeSize(2) > sfc.getStripeSize(0));
+
+        //  another instance finds keys in the same folders
+        StripedFileCache<String, String> reopened = new StripedFileCache<>(cacheDirs, weights);
+        for (int i = 0; i < 400; i++){
+            assertEquals("object" + i, reopened.get("key" + i));
+        }
+
+        assertTrue(sfc.put("key1", "object"));
+        assertEquals("object", sfc.get("key1"));
+        assertEquals(400, sfc.size());
+        assertTrue(sfc.delete("key1"));
+        assertFalse(sfc.isKeyPresent("key1"));
+
+        sfc.setMaxSize(40);
+        assertEquals(40, sfc.size());
+        assertEquals(20, sfc.getStripeSize(2));
+    }
+
+    @Test
+    public void testBloomFilterLookup(){
+        sfc.setBloomFilterFalsePositiveRate(0.01);
+
+        //  other folders are skipped by their filters, not by reading them
+        for (int i = 0; i < 100; i++){
+            assertTrue(sfc.put("key" + i, "object" + i));
+        }
+        assertTrue(sfc.getBloomFilterNegativeCount() >= 100);
+
+        for (int i = 0; i < 100; i++){
+            assertTrue(sfc.put("key" + i, "new object" + i));
+            assertEquals("new object" + i, sfc.get("key" + i));
+        }
+        assertEquals(100, sfc.size());
+    }
+
+    @Test
+    public void testFullStripe(){
+        sfc.setMaxSize(4);
+
+        //  keys go to other folders when their own one is full
+        for (int i = 0; i < 4; i++){
+            assertTrue(sfc.put("key" + i, "object" + i));
+        }
+        assertFalse(sfc.put("key4", "object4"));
+        assertEquals(4, sfc.size());
+
+        for (int i = 0; i < 4; i++){
+            assertEquals("object" + i, sfc.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testTwoLevelCache() throws IOException{
+        TwoLevelCache<String, byte[]> tlc = new TwoLevelCache<>(TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY,
+                cacheDirs, null);
+        tlc.flush();
+        tlc.setMaxSizeMemoryCache(2);
+        tlc.setLargeValueThreshold(1_000);
+
+        byte[] large = new byte[10_000];
+        for (int i = 0; i < 10; i++){
+            assertTrue(tlc.put("key" + i, new byte[]{(byte)i}));
+        }
+        assertTrue(tlc.putStream("large", new ByteArrayInputStream(large)));
+
+        for (int i = 0; i < 10; i++){
+            assertArrayEquals(new byte[]{(byte)i}, tlc.get("key" + i));
+        }
+        try (InputStream in = tlc.getStream("large")){
+            assertEquals(large.length, in.skip(large.length + 1));
+        }
+
+        tlc.flush();
+    }
+}
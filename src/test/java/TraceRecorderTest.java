@@ -0,0 +1,82 @@
+import com.kudoji.cman.cache.TwoLevelCache;
+import com.kudoji.cman.trace.PolicySimulator;
+import com.kudoji.cman.trace.TraceReader;
+import com.kudoji.cman.trace.TraceRecord;
+import com.kudoji.cman.trace.TraceRecorder;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+    private static final String TRACE_FILE = ".cache.trace";
+
+    @Test
+    public void testRecord() throws IOException{
+        TwoLevelCache<String, String> tlc = new TwoLevelCache<>();
+        tlc.flush();
+
+        TraceRecorder recorder = new TraceRecorder(TRACE_FILE, 4);
+        tlc.setTraceRecorder(recorder);
+        tlc.put("key1", "object1");
+        tlc.get("key1");
+        tlc.get("key2");
+        tlc.delete("key1");
+        recorder.close();
+        tlc.setTraceRecorder(null);
+
+        TraceReader reader = new TraceReader(TRACE_FILE);
+        TraceRecord record = reader.next();
+        assertEquals(TraceRecorder.Operation.PUT, record.getOperation());
+        assertEquals("key1".hashCode(), record.getKeyHash());
+        assertEquals("object1".length(), record.getSize());
+
+        long count = 1 + recorder.getDroppedCount();
+        long timestamp = record.getTimestamp();
+        while ((record = reader.next()) != null){
+            assertTrue(record.getTimestamp() >= timestamp);
+            timestamp = record.getTimestamp();
+            count++;
+        }
+        reader.close();
+
+        assertEquals(4, count);
+        tlc.flush();
+        new File(TRACE_FILE).delete();
+    }
+
+    @Test
+    public void testSimulate() throws IOException{
+        TraceRecorder recorder = new TraceRecorder(TRACE_FILE);
+        //  10 hot keys and a scan over 100 cold ones
+        for (int i = 0; i < 1000; i++){
+            int key = (i % 2 == 0) ? (i / 2) % 10 : 10 + (i / 2) % 100;
+            while (!recorder.record(TraceRecorder.Operation.GET, key, 1)){
+                Thread.yield();
+            }
+        }
+        recorder.close();
+
+        PolicySimulator simulator = new PolicySimulator(TRACE_FILE);
+        assertEquals(1000, simulator.size());
+        assertEquals(110, simulator.getKeyCount());
+
+        simulator.setStrategyInterval(100);
+        List<PolicySimulator.Result> results = simulator.simulate(new int[]{10, 200}, new int[]{0});
+        assertEquals(TwoLevelCache.CacheStrategy.values().length * 2, results.size());
+
+        for (PolicySimulator.Result result: results){
+            assertEquals(1000, result.getGets());
+            //  first access of every key misses, the rest hit one of the tiers
+            assertEquals(890.0 / 1000, result.getHitRatio(), 0.0001);
+            if (result.getMaxSizeMemoryCache() == 200){
+                assertEquals(1.0, result.getMemoryHitRatio() / result.getHitRatio(), 0.0001);
+            }
+        }
+
+        new File(TRACE_FILE).delete();
+    }
+}
@@ -0,0 +1,482 @@
+import com.kudoji.cman.cache.PrefetchPredictor;
+import com.kudoji.cman.cache.RemovalNotification;
+import com.kudoji.cman.cache.TwoLevelCache;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TwoLevelCacheTest {
+    private TwoLevelCache<String, String> tlc;
+
+    private static final String key1 = "key1";
+    private static final String key2 = "key2";
+    private static final String key3 = "key3";
+    private static final String key4 = "key4";
+    private static final String object1 = "object1";
+    private static final String object2 = "object2";
+    private static final String object3 = "object3";
+    private static final String object4 = "object4";
+
+    @Before
+    public void beforeTest(){
+        this.tlc = new TwoLevelCache<>();
+        this.tlc.flush();
+        this.tlc.setMaxSizeMemoryCache(2);
+        this.tlc.setMaxSizeFileCache(0);
+    }
+
+    @Test
+    public void testAdmission(){
+        assertTrue(tlc.put(key1, object1));
+        assertTrue(tlc.put(key2, object2));
+
+        //  key3 is requested many times before it is cached
+        for (int i = 0; i < 5; i++){
+            assertNull(tlc.get(key3));
+        }
+
+        assertTrue(tlc.put(key3, object3));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation(key3));
+        assertEquals(3, tlc.size());
+
+        //  one-hit wonder doesn't displace hot objects
+        assertTrue(tlc.put(key4, object4));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key4));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation(key3));
+        assertEquals(object4, tlc.get(key4));
+    }
+
+    @Test
+    public void testStrategySwitch(){
+        tlc.setMaxSizeFileCache(2);
+
+        assertTrue(tlc.put(key1, object1));
+        assertTrue(tlc.put(key2, object2));
+        assertTrue(tlc.put(key3, object3));
+        assertTrue(tlc.put(key4, object4));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key3));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key4));
+
+        for (int i = 0; i < 5; i++){
+            tlc.get(key3);
+            tlc.get(key4);
+        }
+
+        //  both caches are full, objects are swapped without being dropped
+        tlc.setCacheStrategy(TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY);
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation(key3));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation(key4));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key1));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key2));
+        assertEquals(object1, tlc.get(key1));
+        assertEquals(4, tlc.size());
+        assertEquals(2, tlc.getMaxSizeMemoryCache());
+    }
+
+    @Test
+    public void testRemovalListener(){
+        List<RemovalNotification<String, String>> notifications = new ArrayList<>();
+        //  deliver in the calling thread to check notifications right away
+        tlc.setRemovalListener(notifications::addAll, Runnable::run);
+
+        assertTrue(tlc.put(key1, object1));
+        assertTrue(tlc.put(key2, object2));
+        assertTrue(tlc.put(key1, object2));
+        assertEquals(1, notifications.size());
+        assertEquals(key1, notifications.get(0).getKey());
+        assertEquals(object1, notifications.get(0).getObject());
+        assertEquals(RemovalNotification.Cause.REPLACED, notifications.get(0).getCause());
+
+        //  admission moves a memory cache object to file cache
+        for (int i = 0; i < 5; i++){
+            tlc.get(key3);
+        }
+        assertTrue(tlc.put(key3, object3));
+        assertEquals(RemovalNotification.Cause.DEMOTED, notifications.get(1).getCause());
+
+        assertTrue(tlc.delete(key3));
+        assertEquals(key3, notifications.get(2).getKey());
+        assertEquals(object3, notifications.get(2).getObject());
+        assertEquals(RemovalNotification.Cause.EXPLICIT, notifications.get(2).getCause());
+
+        //  objects out of new bound are demoted, not dropped
+        assertTrue(tlc.put(key4, object4));
+        tlc.setMaxSizeMemoryCache(1);
+        assertEquals(4, notifications.size());
+        assertEquals(RemovalNotification.Cause.DEMOTED, notifications.get(3).getCause());
+        assertEquals(3, tlc.size());
+        assertEquals(0, tlc.getDroppedRemovalCount());
+
+        tlc.setRemovalListener(null, null);
+        assertTrue(tlc.delete(key1) | tlc.delete(key2) | tlc.delete(key4));
+        assertEquals(4, notifications.size());
+    }
+
+    @Test
+    public void testLargeValues() throws IOException{
+        TwoLevelCache<String, byte[]> btlc = new TwoLevelCache<>(TwoLevelCache.CacheStrategy.FREQUENTTOMEMORY, ".cache-large");
+        btlc.flush();
+        btlc.setLargeValueThreshold(1000);
+
+        byte[] small = new byte[100];
+        byte[] large = new byte[300_000];
+        for (int i = 0; i < large.length; i++){
+            large[i] = (byte)(i * 31);
+        }
+
+        assertTrue(btlc.put(key1, small));
+        assertTrue(btlc.put(key2, large));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, btlc.getLocation(key1));
+        //  memory cache is not full but large object goes to file cache
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, btlc.getLocation(key2));
+
+        try (InputStream in = btlc.getStream(key2)){
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) >= 0){
+                os.write(buffer, 0, length);
+            }
+            assertArrayEquals(large, os.toByteArray());
+        }
+
+        assertArrayEquals(Arrays.copyOfRange(large, 200_000, 200_010), btlc.get(key2, 200_000, 10));
+        assertEquals(5, btlc.get(key2, large.length - 5, 10).length);
+        assertEquals(0, btlc.get(key2, large.length + 5, 10).length);
+        assertArrayEquals(new byte[10], btlc.get(key1, 0, 10));
+        assertNull(btlc.get(key3, 0, 10));
+
+        assertTrue(btlc.putStream(key1, new ByteArrayInputStream(large)));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, btlc.getLocation(key1));
+        assertArrayEquals(large, btlc.get(key1));
+
+        //  strategy doesn't move large objects to memory
+        btlc.applyCacheStrategy();
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, btlc.getLocation(key1));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, btlc.getLocation(key2));
+
+        //  memory copy is kept when full file cache doesn't take the large object
+        assertTrue(btlc.put(key3, small));
+        btlc.setMaxSizeFileCache(2);
+        assertFalse(btlc.put(key3, large));
+        assertFalse(btlc.putStream(key3, new ByteArrayInputStream(large)));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, btlc.getLocation(key3));
+        assertArrayEquals(small, btlc.get(key3));
+
+        //  large objects are not read to heap by compute and the like
+        try{
+            btlc.compute(key2, (key, object) -> small);
+            fail("Large object must not be read to heap");
+        }catch (IllegalArgumentException e){
+            //  expected
+        }
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, btlc.getLocation(key2));
+        assertArrayEquals(small, btlc.merge(key3, large, (object1, object2) -> small));
+
+        btlc.flush();
+    }
+
+    @Test
+    public void testFrequency(){
+        assertEquals(-1, tlc.getFrequency(key1));
+
+        tlc.put(key1, object1);
+        tlc.get(key1);
+        tlc.get(key1);
+
+        assertTrue(tlc.getFrequency(key1) >= 3);
+    }
+
+    @Test
+    public void testNegativeCache() throws InterruptedException{
+        tlc.setNegativeCache(10, 50);
+
+        assertFalse(tlc.isKnownAbsent(key1));
+        assertNull(tlc.get(key1));
+        assertTrue(tlc.isKnownAbsent(key1));
+        assertNull(tlc.get(key1));
+        assertEquals(1, tlc.getNegativeHitCount());
+
+        //  put invalidates the key
+        assertTrue(tlc.put(key1, object1));
+        assertFalse(tlc.isKnownAbsent(key1));
+        assertEquals(object1, tlc.get(key1));
+
+        //  known absent keys expire
+        assertNull(tlc.get(key2));
+        assertTrue(tlc.isKnownAbsent(key2));
+        Thread.sleep(100);
+        assertFalse(tlc.isKnownAbsent(key2));
+
+        tlc.setNegativeCache(0, 0);
+        assertNull(tlc.get(key3));
+        assertFalse(tlc.isKnownAbsent(key3));
+    }
+
+    @Test
+    public void testAdaptive(){
+        tlc.setCacheStrategy(TwoLevelCache.CacheStrategy.ADAPTIVE);
+        tlc.setMaxSizeMemoryCache(4);
+
+        //  hot keys are used twice
+        tlc.put(key1, object1);
+        tlc.put(key2, object2);
+        assertEquals(object1, tlc.get(key1));
+        assertEquals(object2, tlc.get(key2));
+
+        //  one-time scan doesn't displace them
+        for (int i = 0; i < 10; i++){
+            tlc.put("scan" + i, "object" + i);
+        }
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation(key1));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation(key2));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation("scan0"));
+        assertEquals(12, tlc.size());
+
+        //  file cache hit is promoted to memory
+        assertEquals("object0", tlc.get("scan0"));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation("scan0"));
+        assertEquals(12, tlc.size());
+
+        assertTrue(tlc.delete("scan0"));
+        assertNull(tlc.get("scan0"));
+        assertEquals(11, tlc.size());
+    }
+
+    @Test
+    public void testAdaptiveMaxSize(){
+        tlc.setCacheStrategy(TwoLevelCache.CacheStrategy.ADAPTIVE);
+        tlc.setMaxSize(40);
+        tlc.setMaxSizeAdaptive(true);
+        assertEquals(20, tlc.getMaxSizeMemoryCache());
+
+        //  loop over 25 keys keeps hitting file cache
+        for (int i = 0; i < 5000; i++){
+            String key = "key" + (i % 25);
+            if (tlc.get(key) == null){
+                tlc.put(key, "object");
+            }
+        }
+        assertTrue(tlc.getMaxSizeMemoryCache() > 20);
+        assertEquals(40, tlc.getMaxSize());
+
+        //  memory returns to configured size when it doesn't pay off
+        for (int i = 0; i < 5000; i++){
+            tlc.get("key0");
+        }
+        assertEquals(20, tlc.getMaxSizeMemoryCache());
+        assertEquals(40, tlc.getMaxSize());
+    }
+
+    @Test
+    public void testHeapPressure() throws InterruptedException{
+        tlc.setMaxSizeMemoryCache(8);
+        for (int i = 0; i < 8; i++){
+            tlc.put("key" + i, "object" + i);
+        }
+        assertEquals(8, tlc.getMaxSizeMemoryCache());
+
+        //  any live heap is above such a watermark
+        tlc.setHeapWatermarks(0.0001, 0.0001);
+        assertFalse(tlc.isUnderHeapPressure());
+
+        System.gc();
+        for (int i = 0; (i < 50) && !tlc.isUnderHeapPressure(); i++){
+            Thread.sleep(100);
+            tlc.put(key1, object1);
+        }
+        //  GC doesn't notify about collection usage on every JVM
+        Assume.assumeTrue(tlc.isUnderHeapPressure());
+
+        //  coldest objects are demoted, not lost
+        assertEquals(6, tlc.getMaxSizeMemoryCache());
+        assertEquals(8, tlc.size());
+
+        //  size set under pressure is applied once it is over
+        tlc.setMaxSizeMemoryCache(10);
+        assertEquals(6, tlc.getMaxSizeMemoryCache());
+
+        tlc.setHeapWatermarks(0, 0);
+        assertFalse(tlc.isUnderHeapPressure());
+        assertEquals(10, tlc.getMaxSizeMemoryCache());
+    }
+
+    @Test
+    public void testCompute(){
+        assertNull(tlc.putIfAbsent(key1, object1));
+        assertEquals(object1, tlc.putIfAbsent(key1, object2));
+        assertEquals(object1, tlc.computeIfAbsent(key1, key -> object2));
+
+        assertNull(tlc.replace(key2, object2));
+        assertFalse(tlc.isKeyPresent(key2));
+
+        tlc.put(key2, object2);
+        tlc.put(key3, object3);
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key3));
+
+        //  file cache object is rewritten in place
+        assertEquals(object3 + "!", tlc.compute(key3, (key, object) -> object + "!"));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key3));
+        assertEquals(object3 + "!" + object4, tlc.merge(key3, object4, String::concat));
+        assertTrue(tlc.replace(key3, object3 + "!" + object4, object3));
+        assertFalse(tlc.replace(key3, object4, object1));
+        assertEquals(object3, tlc.get(key3));
+
+        assertNull(tlc.compute(key3, (key, object) -> null));
+        assertFalse(tlc.isKeyPresent(key3));
+        assertEquals(object4, tlc.merge(key4, object4, String::concat));
+        assertEquals(object1, tlc.replace(key1, object2));
+        assertEquals(object2, tlc.get(key1));
+    }
+
+    @Test
+    public void testPrefetch(){
+        for (int i = 0; i < 10; i++){
+            tlc.put("page" + i, "object" + i);
+        }
+
+        //  the executor reads at once, objects get to memory by the next get
+        tlc.setPrefetch(PrefetchPredictor.successors(key -> Collections.singletonList(
+                "page" + (Integer.parseInt(key.substring(4)) + 1))), Runnable::run, 4);
+        long fileHitCount = tlc.getFileHitCount();
+        for (int i = 3; i < 10; i++){
+            assertEquals("object" + i, tlc.get("page" + i));
+        }
+        assertEquals(1, tlc.getFileHitCount() - fileHitCount);
+        assertEquals(6, tlc.getPrefetchHitCount());
+
+        //  the predictor has to see transitions twice
+        tlc.setPrefetch(PrefetchPredictor.learned(100), Runnable::run, 4);
+        for (int pass = 0; pass < 3; pass++){
+            for (int i = 0; i < 10; i++){
+                assertEquals("object" + i, tlc.get("page" + i));
+            }
+        }
+        //  page0 and page1 are in memory cache, the rest is prefetched
+        assertTrue(tlc.getPrefetchHitCount() >= 8);
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation("page5"));
+
+        //  put overwrites prefetched object
+        tlc.get("page0");
+        tlc.put("page1", object1);
+        assertEquals(object1, tlc.get("page1"));
+
+        //  deleted and evicted objects are not brought back by their prefetched copies
+        tlc.get("page4");
+        assertTrue(tlc.delete("page5"));
+        assertNull(tlc.get("page5"));
+
+        tlc.get("page6");
+        tlc.setMaxSizeFileCache(1);
+        String expected = (tlc.getLocation("page7") == TwoLevelCache.ObjectLocation.NONE) ? null : "object7";
+        assertEquals(expected, tlc.get("page7"));
+    }
+
+    @Test
+    public void testRefreshAhead() throws InterruptedException{
+        List<Runnable> reloads = new ArrayList<>();
+        //  objects are stale after 60 ms and expire after a minute, so sleeps only have to be long enough
+        tlc.setRefreshAhead(key -> "new " + key, reloads::add, 60_000, 0.001);
+
+        assertTrue(tlc.put(key1, object1));
+        assertTrue(tlc.put(key2, object2));
+        assertTrue(tlc.put(key3, object3));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key3));
+        Thread.sleep(150);
+
+        //  stale objects are returned at once and reloaded once
+        assertEquals(object1, tlc.get(key1));
+        assertEquals(object1, tlc.get(key1));
+        assertEquals(object3, tlc.get(key3));
+        assertEquals(2, reloads.size());
+
+        //  reloaded objects stay where the old ones were
+        reloads.forEach(Runnable::run);
+        reloads.clear();
+        assertEquals("new " + key1, tlc.get(key1));
+        assertEquals(TwoLevelCache.ObjectLocation.MEMORY, tlc.getLocation(key1));
+        assertEquals("new " + key3, tlc.get(key3));
+        assertEquals(TwoLevelCache.ObjectLocation.FILE, tlc.getLocation(key3));
+        assertEquals(2, tlc.getRefreshCount());
+        assertEquals(0, tlc.getExpiredLoadCount());
+
+        //  put wins over reload in flight
+        assertEquals(object2, tlc.get(key2));
+        assertTrue(tlc.put(key2, object4));
+        reloads.forEach(Runnable::run);
+        assertEquals(object4, tlc.get(key2));
+
+        //  so does delete
+        Thread.sleep(150);
+        reloads.clear();
+        assertEquals("new " + key3, tlc.get(key3));
+        assertEquals(1, reloads.size());
+        assertTrue(tlc.delete(key3));
+        reloads.forEach(Runnable::run);
+        assertNull(tlc.get(key3));
+
+        //  expired object is loaded by get, the one loader hasn't found is deleted
+        tlc.setRefreshAhead(key -> key.equals(key1) ? null : "loaded " + key, reloads::add, 100, 1);
+        Thread.sleep(150);
+        assertNull(tlc.get(key1));
+        assertFalse(tlc.isKeyPresent(key1));
+        assertEquals("loaded " + key2, tlc.get(key2));
+        assertEquals(2, tlc.getExpiredLoadCount());
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws IOException{
+        String[] eventNames = {"com.kudoji.cman.CacheOperation", "com.kudoji.cman.FileIo",
+                "com.kudoji.cman.CacheStrategy", "com.kudoji.cman.Eviction"};
+        Set<String> recordedNames = new HashSet<>();
+        Path file = Files.createTempFile("cman", ".jfr");
+
+        try (Recording recording = new Recording()){
+            for (String eventName: eventNames){
+                recording.enable(eventName).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+
+            assertTrue(tlc.put(key1, object1));
+            assertTrue(tlc.put(key2, object2));
+            //  goes to file cache
+            assertTrue(tlc.put(key3, object3));
+            for (int i = 0; i < 3; i++){
+                assertEquals(object3, tlc.get(key3));
+            }
+            //  key3 takes place of key1 or key2
+            tlc.applyCacheStrategy();
+            tlc.setMaxSizeMemoryCache(1);
+
+            recording.stop();
+            recording.dump(file);
+
+            for (RecordedEvent event: RecordingFile.readAllEvents(file)){
+                recordedNames.add(event.getEventType().getName());
+            }
+        }finally{
+            Files.delete(file);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(eventNames)), recordedNames);
+    }
+}